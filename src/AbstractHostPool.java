@@ -0,0 +1,53 @@
+/* Bulk operations on a host pool, carried out host by host with uniformly drawn indices */
+
+public abstract class AbstractHostPool implements HostPool {
+
+	public void addNaive(int birth) {
+		add(new Host(birth, Host.newImmuneSystem()));
+	}
+
+	public void addAll(int[] births, ImmuneSystem[] states, int from, int to) {
+		for (int k = from; k < to; k++) {
+			add(new Host(births[k], states[k].copy()));
+		}
+	}
+
+	public void resetRandom(int n) {
+		for (int i = 0; i < n; i++) {
+			if (size()>0) {
+				reset(Random.nextInt(0,size()-1));
+			}
+		}
+	}
+
+	public void transferRandom(int n, HostPool to, boolean reset) {
+		for (int i = 0; i < n; i++) {
+			if (size()>0) {
+				int index = Random.nextInt(0,size()-1);
+				if (reset) {
+					reset(index);
+				}
+				transfer(index, to);
+			}
+		}
+	}
+
+	public void transferAll(HostPool to) {
+		for (int index=size()-1;index>=0;index--) {		
+			transfer(index, to);
+		}
+	}
+
+	public void removeRandom(int n) {
+		for (int i = 0; i < n; i++) {
+			if (size()>0) {
+				remove(Random.nextInt(0,size()-1));
+			}
+		}
+	}
+
+	// pools on the java heap are left to the garbage collector
+	public void close() {
+	}
+
+}
@@ -0,0 +1,132 @@
+/* Maps immunogenic alleles to the bit indices used by immune memory */
+/* With dense indices each locus has its own slots, bit = slot x nImmunogenicSegments + locus, and slots of extinct alleles are reused */
+/* Otherwise the bit is the global segment number, as before */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class AlleleRegistry {
+
+	private static boolean dense = false;
+	private static int nLoci = 0;
+	private static int[][] freeSlots = new int[0][];	// per locus stack of released slots
+	private static int[] numFreeSlots = new int[0];
+	private static int[] nextSlot = new int[0];
+	private static int[] segmentNumbers = new int[0];	// segment number of the allele holding each index 
+	private static BitSet allocated = new BitSet();
+	private static BitSet pinned = new BitSet();		// alleles of initial viruses, which can always be reintroduced
+
+	public static synchronized void init() {
+		dense = Parameters.SegmentParameters.denseAlleleIndices;
+		nLoci = Parameters.SegmentParameters.nImmunogenicSegments;
+		freeSlots = new int[nLoci][16];
+		numFreeSlots = new int[nLoci];
+		nextSlot = new int[nLoci];
+		segmentNumbers = new int[16];
+		allocated = new BitSet();
+		pinned = new BitSet();
+	}
+
+	public static boolean isDense() {
+		return dense;
+	}
+
+	// immune memory index for a new allele at locus, -1 if the locus is not immunogenic
+	public static synchronized int allocate(short locus, int segmentNumber) {
+		if (locus < 0 || locus >= Parameters.SegmentParameters.nImmunogenicSegments) {
+			return -1;
+		}
+		if (!dense) {
+			return segmentNumber;
+		}
+		int slot;
+		if (numFreeSlots[locus] > 0) {
+			numFreeSlots[locus]--;
+			slot = freeSlots[locus][numFreeSlots[locus]];
+		}
+		else {
+			slot = nextSlot[locus];
+			nextSlot[locus]++;
+		}
+		int index = slot*nLoci + locus;
+		if (index >= segmentNumbers.length) {
+			segmentNumbers = Arrays.copyOf(segmentNumbers, Math.max(index+1, segmentNumbers.length*2));
+		}
+		segmentNumbers[index] = segmentNumber;
+		allocated.set(index);
+		return index;
+	}
+
+	// segment number of the allele currently holding index
+	public static int segmentNumber(int index) {
+		if (!dense) {
+			return index;
+		}
+		return segmentNumbers[index];
+	}
+
+	// keep immunogenic alleles of v allocated for the rest of the run
+	public static synchronized void pin(Virus v) {
+		pinned.or(v.getImmunogenicSegmentIndices());
+	}
+
+	// allocated indices that are neither pinned nor in live
+	public static synchronized BitSet extinct(BitSet live) {
+		BitSet returnValue = (BitSet) allocated.clone();
+		returnValue.andNot(pinned);
+		returnValue.andNot(live);
+		return returnValue;
+	}
+
+	// make indices available to new alleles, immune memory of them must be forgotten first
+	public static synchronized void release(BitSet indices) {
+		for (int index = indices.nextSetBit(0); index >= 0; index = indices.nextSetBit(index+1)) {
+			int locus = index % nLoci;
+			if (numFreeSlots[locus] == freeSlots[locus].length) {
+				freeSlots[locus] = Arrays.copyOf(freeSlots[locus], freeSlots[locus].length*2);
+			}
+			freeSlots[locus][numFreeSlots[locus]] = index / nLoci;
+			numFreeSlots[locus]++;
+			allocated.clear(index);
+		}
+	}
+
+	public static synchronized void write(CheckpointOutput out) throws IOException {
+		out.writeBoolean(dense);
+		out.writeInt(nLoci);
+		for (int locus = 0; locus < nLoci; locus++) {
+			out.writeInt(numFreeSlots[locus]);
+			out.writeInts(freeSlots[locus], 0, numFreeSlots[locus]);
+			out.writeInt(nextSlot[locus]);
+		}
+		out.writeInt(segmentNumbers.length);
+		out.writeInts(segmentNumbers, 0, segmentNumbers.length);
+		out.writeBitSet(allocated);
+		out.writeBitSet(pinned);
+	}
+
+	public static synchronized void read(CheckpointInput in) throws IOException {
+		dense = in.readBoolean();
+		nLoci = in.readInt();
+		freeSlots = new int[nLoci][];
+		numFreeSlots = new int[nLoci];
+		nextSlot = new int[nLoci];
+		for (int locus = 0; locus < nLoci; locus++) {
+			numFreeSlots[locus] = in.readInt();
+			freeSlots[locus] = new int[Math.max(16, numFreeSlots[locus])];
+			in.readInts(freeSlots[locus], 0, numFreeSlots[locus]);
+			nextSlot[locus] = in.readInt();
+		}
+		segmentNumbers = new int[in.readInt()];
+		in.readInts(segmentNumbers, 0, segmentNumbers.length);
+		allocated = in.readBitSet();
+		pinned = in.readBitSet();
+	}
+
+	// number of allocated indices
+	public static synchronized int size() {
+		return allocated.cardinality();
+	}
+
+}
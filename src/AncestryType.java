@@ -0,0 +1,3 @@
+/* Ancestry kept for the tree, see SamplingParameters.ancestry */
+
+enum AncestryType {FULL, COMPRESSED, TABLES};
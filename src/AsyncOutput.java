@@ -0,0 +1,360 @@
+/* Output file (out.*) written by a dedicated writer thread, so that the simulation does not wait on the disk */
+/* Text goes into pre-sized buffers, with numbers formatted in place as Formatter would, full buffers are handed to the writer thread, */
+/* which writes them through the file channel and returns them for reuse; the simulation only waits when all buffers are queued */
+/* flush() and close() return once everything so far is in the file, as checkpoints measure output files */
+/* A write that fails on the writer thread discards the rest of that output and is thrown as a SimulationException by the next flush() or close() */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class AsyncOutput extends OutputStream {
+
+	static final int BUFFER_SIZE = 1 << 16;
+	static final int BUFFERS = 32;	// shared by all outputs
+
+	private static final int NUMBER_SIZE = 24;	// room for the sign and digits of a long
+	private static final double MAX_SCALED = 1e15;	// scaled doubles below this are exact integers when rounded
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	private static final long[] POWERS = new long[16];
+	static {
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++) {
+			POWERS[i] = POWERS[i-1]*10;
+		}
+	}
+
+	// writer thread, running while outputs are open
+	private static final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+	private static final BlockingQueue<ByteBuffer> free = new LinkedBlockingQueue<ByteBuffer>();
+	private static int allocated = 0;
+	private static int open = 0;
+	private static Thread writer = null;
+
+	private String name;
+	private FileChannel channel;	// null if writes are discarded
+	private volatile IOException failure = null;	// of a write on the writer thread
+	private ByteBuffer buffer = null;
+	private byte[] bytes;
+	private int count;
+
+	// output appended to file, or discarding writes if file is null
+	public AsyncOutput(File file) throws IOException {
+		if (file == null) {
+			return;
+		}
+		name = file.getName();
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		synchronized (AsyncOutput.class) {
+			if (open++ == 0) {
+				writer = new Thread(new Runnable() {
+					public void run() {
+						serve();
+					}
+				}, "output writer");
+				writer.setDaemon(true);
+				writer.start();
+			}
+		}
+		take();
+	}
+
+	public AsyncOutput print(char c) {
+		if (channel == null) {
+			return this;
+		}
+		if (count == BUFFER_SIZE) {
+			submit();
+		}
+		bytes[count++] = (byte) c;
+		return this;
+	}
+
+	public AsyncOutput print(String s) {
+		if (channel == null) {
+			return this;
+		}
+		if (s == null) {
+			s = "null";
+		}
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				if (count == BUFFER_SIZE) {
+					submit();
+				}
+				bytes[count++] = (byte) c;
+			}
+			else {
+				byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+				write(encoded, 0, encoded.length);
+			}
+		}
+		return this;
+	}
+
+	public AsyncOutput println() {
+		return print('\n');
+	}
+
+	// as %d
+	public AsyncOutput print(long value) {
+		if (channel == null) {
+			return this;
+		}
+		if (value == Long.MIN_VALUE) {
+			return print(Long.toString(value));
+		}
+		reserve(NUMBER_SIZE);
+		if (value < 0) {
+			bytes[count++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		count += digits;
+		for (int i = count-1; i >= count-digits; i--) {
+			bytes[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return this;
+	}
+
+	// as %.<decimals>f, Formatter rounds the shortest decimal string of value half up, which rounding the scaled value can only miss next to a half
+	public AsyncOutput print(double value, int decimals) {
+		if (channel == null) {
+			return this;
+		}
+		double scaled = decimals < POWERS.length ? Math.abs(value)*POWERS[decimals] : Double.NaN;
+		double whole = Math.floor(scaled);
+		double fraction = scaled - whole;
+		if (!(scaled < MAX_SCALED) || Math.abs(fraction - 0.5) <= 4*Math.ulp(scaled)) {
+			return print(String.format("%." + decimals + "f", value));
+		}
+		long rounded = (long) whole + (fraction > 0.5 ? 1 : 0);
+		if (Double.compare(value, 0.0) < 0) {
+			print('-');
+		}
+		print(rounded / POWERS[decimals]);
+		if (decimals > 0) {
+			reserve(decimals+1);
+			bytes[count++] = '.';
+			long digits = rounded % POWERS[decimals];
+			count += decimals;
+			for (int i = count-1; i >= count-decimals; i--) {
+				bytes[i] = (byte) ('0' + digits % 10);
+				digits /= 10;
+			}
+		}
+		return this;
+	}
+
+	// as Integer.toHexString
+	public AsyncOutput printHex(int value) {
+		if (channel == null) {
+			return this;
+		}
+		reserve(8);
+		int digits = Math.max(1, (35 - Integer.numberOfLeadingZeros(value)) / 4);
+		count += digits;
+		for (int i = count-1; i >= count-digits; i--) {
+			bytes[i] = HEX[value & 0xf];
+			value >>>= 4;
+		}
+		return this;
+	}
+
+	// as Object.toString, without building the string
+	public AsyncOutput printIdentity(Object o) {
+		return print(o.getClass().getName()).print('@').printHex(o.hashCode());
+	}
+
+	public void write(int b) {
+		print((char) (b & 0xff));
+	}
+
+	public void write(byte[] b, int off, int len) {
+		if (channel == null) {
+			return;
+		}
+		while (len > 0) {
+			if (count == BUFFER_SIZE) {
+				submit();
+			}
+			int n = Math.min(len, BUFFER_SIZE - count);
+			System.arraycopy(b, off, bytes, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	// returns once everything written so far is in the file
+	public void flush() {
+		if (channel == null) {
+			return;
+		}
+		submit();
+		await(new Request(this, null, false));
+		checkFailure();
+	}
+
+	public void close() {
+		if (channel == null) {
+			return;
+		}
+		buffer.limit(count);
+		requests.add(new Request(this, buffer, false));
+		buffer = null;
+		bytes = null;
+		await(new Request(this, null, true));
+		channel = null;
+		synchronized (AsyncOutput.class) {
+			if (--open == 0) {
+				requests.add(new Request(null, null, false));
+				join(writer);
+				writer = null;
+			}
+		}
+		checkFailure();
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new SimulationException("Could not write to file " + name + "!", failure);
+		}
+	}
+
+	private void reserve(int n) {
+		if (count + n > BUFFER_SIZE) {
+			submit();
+		}
+	}
+
+	// hand the buffer to the writer thread and continue in a free one
+	private void submit() {
+		buffer.limit(count);
+		requests.add(new Request(this, buffer, false));
+		take();
+	}
+
+	// buffers are allocated up to BUFFERS besides the one each open output fills, then reused as the writer thread frees them
+	private void take() {
+		buffer = free.poll();
+		if (buffer == null) {
+			synchronized (AsyncOutput.class) {
+				if (allocated < BUFFERS + open) {
+					allocated++;
+					buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				}
+			}
+		}
+		boolean interrupted = false;
+		while (buffer == null) {
+			try {
+				buffer = free.take();
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		bytes = buffer.array();
+		count = 0;
+	}
+
+	private static void await(Request request) {
+		requests.add(request);
+		boolean interrupted = false;
+		while (true) {
+			try {
+				request.done.await();
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void join(Thread thread) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// writer thread, until a request without output
+	private static void serve() {
+		while (true) {
+			Request request;
+			try {
+				request = requests.take();
+			} catch (InterruptedException ex) {
+				continue;
+			}
+			AsyncOutput output = request.output;
+			if (output == null) {
+				return;
+			}
+			try {
+				if (request.buffer != null) {
+					while (output.failure == null && request.buffer.hasRemaining()) {
+						output.channel.write(request.buffer);
+					}
+				}
+				if (request.close) {
+					output.channel.close();
+				}
+			} catch (IOException ex) {
+				output.failure = ex;
+			}
+			if (request.buffer != null) {
+				request.buffer.clear();
+				free.add(request.buffer);
+			}
+			if (request.done != null) {
+				request.done.countDown();
+			}
+		}
+	}
+
+	// buffer to write, or a flush or close to signal once the writes before it are done
+	private static class Request {
+
+		AsyncOutput output;
+		ByteBuffer buffer;
+		boolean close;
+		CountDownLatch done;
+
+		Request(AsyncOutput output_, ByteBuffer buffer_, boolean close_) {
+			output=output_;
+			buffer=buffer_;
+			close=close_;
+			if (buffer == null && output != null) {
+				done = new CountDownLatch(1);
+			}
+		}
+	}
+
+}
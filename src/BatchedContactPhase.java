@@ -0,0 +1,284 @@
+/* Contacts of infecteds with susceptibles drawn in bulk (contactMode=BATCHED) */
+/* Infecteds carrying a single virus are grouped by genotype (immunogenic segments and transmission risk) and susceptibles by immune class */
+/* The number of successful contacts is drawn as one binomial and assigned to (genotype, class) pairs, hosts are picked only for successful contacts */
+/* Like the number of contacts, class weights are taken at the start of the phase, successes only go to classes that still have hosts */
+/* Immune classes are the immune states of a COHORT store, used when there are fewer pairs than contacts expected to succeed at risk of infection 1 */
+/* Otherwise susceptibles form a single class at that bound and drawn hosts are accepted by thinning with their own risk */
+/* Infecteds carrying several viruses draw reassortants per contact and are evaluated contact by contact */
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BatchedContactPhase {
+
+	// infecteds carrying the same genotype with the same risk of transmission
+	private static class Genotype {
+		Virus candidate;		// reassortant of the infection with itself, as transmitted
+		double transmission;	// risk of transmission per bottleneck draw
+		List<Host> members = new ArrayList<Host>();
+
+		Genotype(Virus candidate_, double transmission_) {
+			candidate=candidate_;
+			transmission=transmission_;
+		}
+	}
+
+	private static class GenotypeKey {
+		BitSet segments;
+		double transmission;
+
+		GenotypeKey(BitSet segments_, double transmission_) {
+			segments=segments_;
+			transmission=transmission_;
+		}
+
+		public boolean equals(Object o) {
+			GenotypeKey k = (GenotypeKey) o;
+			return transmission == k.transmission && segments.equals(k.segments);
+		}
+
+		public int hashCode() {
+			return segments.hashCode()*31 + Double.valueOf(transmission).hashCode();
+		}
+	}
+
+	private int[] classes = new int[16];			// immune state ids of the classes of the current phase, -1 for a pool without classes
+	private double[] cumulative = new double[16];	// cumulated success probabilities of (genotype, class) pairs
+
+	// contacts of infecteds with susceptibles, returns number of cases
+	public int contactSusceptibles(int contacts, HostPool susceptibles, List<Host> infecteds) {
+		if (contacts == 0 || susceptibles.size() == 0) {
+			return 0;
+		}
+		int bottleNeck = (int) Math.ceil(Parameters.MutationAndReassortmentParameters.n_bottleNeck);	// draws per contact
+
+		// group infecteds
+		Map<GenotypeKey,Genotype> index = new HashMap<GenotypeKey,Genotype>();
+		List<Genotype> genotypes = new ArrayList<Genotype>();
+		List<Host> coinfecteds = new ArrayList<Host>();
+		GenotypeKey probe = new GenotypeKey(null, 0);
+		for (Host h : infecteds) {
+			if (h.getInfections().size() > 1) {
+				coinfecteds.add(h);
+				continue;
+			}
+			// reassortants of a virus with itself carry its immunogenic segments, the candidate is only needed for its fitness
+			Virus v = h.getInfections().get(0);
+			probe.segments = v.getImmunogenicSegmentIndices();
+			probe.transmission = h.getRiskOfTransmission(v);
+			Genotype g = index.get(probe);
+			if (g == null) {
+				Virus candidate = v.candidate(selfSources(v));
+				g = new Genotype(candidate, h.getRiskOfTransmission(candidate));
+				index.put(new GenotypeKey(probe.segments, probe.transmission), g);
+				genotypes.add(g);
+			}
+			g.members.add(h);
+		}
+
+		// contacts with coinfected infecteds are evaluated one by one
+		int numI = infecteds.size();
+		int numS = susceptibles.size();
+		int individualContacts = Random.nextBinomial(contacts, (double) coinfecteds.size() / (double) numI);
+		double singleShare = 1.0 - (double) coinfecteds.size() / (double) numI;
+
+		// contacts that succeed at the bound of risk of infection 1, the hosts drawn when classes are not used
+		double bound = 0;
+		for (Genotype genotype : genotypes) {
+			bound += (double) genotype.members.size() / (double) numI * successProbability(genotype.transmission, bottleNeck);
+		}
+		double candidates = (contacts - individualContacts)*bound/singleShare;
+
+		// immune classes of susceptibles, used when there are fewer (genotype, class) pairs than candidate hosts
+		CohortHostPool cohorts = susceptibles instanceof CohortHostPool ? (CohortHostPool) susceptibles : null;
+		int numClasses = 0;
+		if (cohorts != null) {
+			int capacity = cohorts.getImmuneStates().capacity();
+			classes = ensureCapacity(classes, capacity);
+			for (int id = 0; id < capacity; id++) {
+				if (cohorts.count(id) > 0) {
+					classes[numClasses++] = id;
+				}
+			}
+		}
+		if (numClasses == 0 || (double) genotypes.size()*numClasses > candidates) {
+			classes = ensureCapacity(classes, 1);
+			classes[0] = -1; // whole pool, risk of infection bounded by 1
+			numClasses = 1;
+		}
+
+		// probability that a contact is with a pair and succeeds, cumulated over pairs
+		int numPairs = genotypes.size()*numClasses;
+		if (cumulative.length < numPairs) {
+			cumulative = new double[Math.max(numPairs, cumulative.length*2)];
+		}
+		double total = 0;
+		for (int g = 0; g < genotypes.size(); g++) {
+			Genotype genotype = genotypes.get(g);
+			double genotypeWeight = (double) genotype.members.size() / (double) numI;
+			for (int c = 0; c < numClasses; c++) {
+				int id = classes[c];
+				double classWeight = id < 0 ? 1.0 : (double) cohorts.count(id) / (double) numS;
+				double risk = id < 0 ? 1.0 : cohorts.getImmuneStates().get(id).riskOfInfection(genotype.candidate);
+				total += genotypeWeight*classWeight*successProbability(risk*genotype.transmission, bottleNeck);
+				cumulative[g*numClasses+c] = total;
+			}
+		}
+
+		// successful contacts among contacts with single infections, each assigned to a pair by inversion
+		// class weights are those at the start of the phase, as for the number of contacts, a success drawn for a class that
+		// has emptied since is drawn again among the remaining pairs, and pairs of emptied classes are dropped once they carry half the total
+		int successes = total > 0 ? Random.nextBinomial(contacts - individualContacts, Math.min(1.0, total/singleShare)) : 0;
+		double drained = 0;	// success probability of pairs whose class has emptied
+		int cases = 0;
+		for (int j = 0; j < successes && susceptibles.size() > 0; j++) {
+			if (drained > total/2) {
+				total = dropEmptyClasses(cohorts, numPairs, numClasses);
+				drained = 0;
+				if (total <= 0) {
+					break;
+				}
+			}
+			int pair;
+			do {
+				pair = search(cumulative, numPairs, Random.nextDouble()*total);
+			} while (classes[pair % numClasses] >= 0 && cohorts.count(classes[pair % numClasses]) == 0);
+			Genotype genotype = genotypes.get(pair / numClasses);
+			int c = pair % numClasses;
+			int id = classes[c];
+			Host iH = genotype.members.get(Random.nextInt(0, genotype.members.size()-1));
+			double p;
+			int sndex;
+			if (id < 0) {
+				// accept a uniformly drawn susceptible with its probability relative to the bound
+				sndex = Random.nextInt(0, susceptibles.size()-1);
+				double q = successProbability(genotype.transmission, bottleNeck);
+				p = susceptibles.riskOfInfection(sndex, genotype.candidate)*genotype.transmission;
+				if (!Random.nextBoolean(successProbability(p, bottleNeck)/q)) {
+					continue;
+				}
+			}
+			else {
+				sndex = cohorts.indexOf(id) + Random.nextInt(0, cohorts.count(id)-1);
+				p = cohorts.getImmuneStates().get(id).riskOfInfection(genotype.candidate)*genotype.transmission;
+			}
+			Host sH = susceptibles.remove(sndex);
+			if (id >= 0 && cohorts.count(id) == 0) {
+				drained += classProbability(numPairs, numClasses, c);
+			}
+			Virus v = iH.getInfections().get(0);
+			int transmitted = successfulDraws(p, bottleNeck);
+			for (int n = 0; n < transmitted; n++) {
+				sH.infect(v.reassort(selfSources(v)));
+			}
+			infecteds.add(sH);
+			cases++;
+		}
+
+		// contacts with coinfected infecteds, as HostPopulation evaluates single contacts
+		for (int i = 0; i < individualContacts && susceptibles.size() > 0; i++) {
+			Host iH = coinfecteds.get(Random.nextInt(0, coinfecteds.size()-1));
+			int sndex = Random.nextInt(0, susceptibles.size()-1);
+			Host sH = null;
+			for (int j = 0; j < bottleNeck; j++) {
+				Virus v = iH.getRandomInfection();
+				double chanceOfSuccess = susceptibles.riskOfInfection(sndex, v)*iH.getRiskOfTransmission(v);
+				if (Random.nextBoolean(chanceOfSuccess)) {
+					if (sH == null) {
+						sH = susceptibles.get(sndex);
+					}
+					sH.infect(v);
+				}
+			}
+			if (sH != null) {
+				susceptibles.remove(sndex);
+				infecteds.add(sH);
+				cases++;
+			}
+		}
+		return cases;
+	}
+
+	// first index whose cumulative value exceeds u
+	private static int search(double[] cumulative, int n, double u) {
+		int lo = 0;
+		int hi = n-1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cumulative[mid] > u) {
+				hi = mid;
+			}
+			else {
+				lo = mid+1;
+			}
+		}
+		return lo;
+	}
+
+	// success probability of the pairs of class c
+	private double classProbability(int numPairs, int numClasses, int c) {
+		double sum = 0;
+		for (int pair = c; pair < numPairs; pair += numClasses) {
+			sum += cumulative[pair] - (pair > 0 ? cumulative[pair-1] : 0);
+		}
+		return sum;
+	}
+
+	// cumulate the pairs again without those of emptied classes, returns the new total
+	private double dropEmptyClasses(CohortHostPool cohorts, int numPairs, int numClasses) {
+		double total = 0;
+		double previous = 0;
+		for (int pair = 0; pair < numPairs; pair++) {
+			double probability = cumulative[pair] - previous;
+			previous = cumulative[pair];
+			int id = classes[pair % numClasses];
+			if (id < 0 || cohorts.count(id) > 0) {
+				total += probability;
+			}
+			cumulative[pair] = total;
+		}
+		return total;
+	}
+
+	private static int[] ensureCapacity(int[] array, int capacity) {
+		return array.length >= capacity ? array : new int[Math.max(capacity, array.length*2)];
+	}
+
+	// probability that at least one of n draws succeeds
+	private static double successProbability(double p, int n) {
+		if (p >= 1) {
+			return 1;
+		}
+		return 1.0 - Math.pow(1.0 - p, n);
+	}
+
+	// number of successful draws out of n, given that at least one succeeded
+	private static int successfulDraws(double p, int n) {
+		if (p >= 1) {
+			return n;
+		}
+		// first success is at draw j with probability (1-p)^j p / (1-(1-p)^n), later draws are independent
+		double u = Random.nextDouble()*successProbability(p, n);
+		int first = 0;
+		double mass = p;
+		while (first < n-1 && u >= mass) {
+			u -= mass;
+			mass *= 1.0 - p;
+			first++;
+		}
+		return 1 + Random.nextBinomial(n-1-first, p);
+	}
+
+	// reassortment sources of a virus that is the only infection of its host
+	private static Virus[] selfSources(Virus v) {
+		Virus[] sources = new Virus[Parameters.SegmentParameters.nSegments];
+		for (int i = 0; i < sources.length; i++) {
+			sources[i] = v;
+		}
+		return sources;
+	}
+
+}
@@ -0,0 +1,294 @@
+/* Versioned binary checkpoint of the full simulation state (checkpointFile, restoreFile) */
+/* Holds the settings as given and as currently applied, the day, the random number generator, allele registry and node tables, */
+/* the segments and viruses reachable from tips, initial viruses and infections, and the host population */
+/* Segment records of a checkpoint file are mapped rather than read, and restored as the run reaches them (see MappedAncestry) */
+/* A restored run continues exactly as the checkpointed run would have, output files written during the run are cut back to their length at the checkpoint */
+/* Snapshots that repeated runs restart from after an extinction (snapshotInterval) are the same checkpoint held in memory */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Checkpoint {
+
+	private static final int MAGIC = 0x53475443;
+	private static final int VERSION = 3;
+
+	// output files written during the run, continued after a restore
+	private static final String[] RUN_OUTPUTS = {"out.timeseries", "out.infected", "out.immunity", "out.genotypes"};
+
+	// settings taken from the restoring run rather than from the checkpoint
+	private static final List<String> RUN_SETTINGS = Arrays.asList("endday", "outputdirectory", "outputfiles", "contactthreads",
+			"checkpointfile", "checkpointinterval", "restorefile", "restorestream");
+
+	// write the state of sim with population hp, replacing file once the checkpoint is complete
+	public static void write(File file, Simulation sim, HostPopulation hp) {
+		File temporary = new File(file.getPath() + ".tmp");
+		try {
+			CheckpointOutput out = new CheckpointOutput(temporary);
+			write(out, sim, hp);
+			out.close();
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			throw new SimulationException("Could not write checkpoint " + file + "!", ex);
+		}
+	}
+
+	// state of sim with population hp as an in-memory snapshot
+	public static byte[] write(Simulation sim, HostPopulation hp) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			CheckpointOutput out = new CheckpointOutput(Channels.newChannel(bytes));
+			write(out, sim, hp);
+			out.close();
+		} catch (IOException ex) {
+			throw new SimulationException("Could not write snapshot", ex);
+		}
+		return bytes.toByteArray();
+	}
+
+	// replace settings and state with those of the checkpoint in file, in place of Simulation.reset()
+	public static void read(File file, Simulation sim) {
+		try {
+			CheckpointInput in = new CheckpointInput(file);
+			read(in, sim, "checkpoint " + file);
+			in.close();
+		} catch (IOException ex) {
+			throw new SimulationException("Could not read checkpoint " + file, ex);
+		}
+	}
+
+	// replace settings and state with those of an in-memory snapshot
+	public static void read(byte[] snapshot, Simulation sim) {
+		try {
+			CheckpointInput in = new CheckpointInput(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+			read(in, sim, "snapshot");
+			in.close();
+		} catch (IOException ex) {
+			throw new SimulationException("Could not read snapshot", ex);
+		}
+	}
+
+	private static void write(CheckpointOutput out, Simulation sim, HostPopulation hp) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		writeSettings(out);
+		out.writeInt(Parameters.getDay());
+		out.writeInt(Segment.getLastSegmentNumber());
+		out.writeLong(Segment.getLastId());
+		Random.write(out);
+		AlleleRegistry.write(out);
+		TreeSequence.write(out);
+		writeOutputLengths(out);
+		writeAncestry(out, hp);
+		sim.write(out);
+		out.writeInt(MAGIC);
+	}
+
+	private static void read(CheckpointInput in, Simulation sim, String name) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new SimulationException(name + " is not a checkpoint of version " + VERSION + "!");
+		}
+		readSettings(in);
+		SegmentTree.init();
+		Parameters.setDay(in.readInt());
+		Segment.setLastSegmentNumber(in.readInt());
+		Segment.setLastId(in.readLong());
+		Random.read(in);
+		AlleleRegistry.read(in);
+		TreeSequence.read(in);
+		readOutputLengths(in);
+		readAncestry(in);
+		sim.read(in);
+		if (in.readInt() != MAGIC) {
+			throw new SimulationException(name + " is damaged!");
+		}
+	}
+
+	// settings as given, which repeated runs start from, and as applied, which disruptions may have changed
+	private static void writeSettings(CheckpointOutput out) throws IOException {
+		out.writeInt(Parameters.s.getSettings().size());
+		for (String setting : Parameters.s.getSettings()) {
+			out.writeString(setting);
+			out.writeString(Parameters.s.get(setting));
+		}
+		List<Field> fields = new ArrayList<Field>();
+		for (Class<?> settingClass : Parameters.getSettingClasses()) {
+			for (Field field : settingClass.getDeclaredFields()) {
+				if (field.getAnnotation(Setting.class) != null) {
+					fields.add(field);
+				}
+			}
+		}
+		out.writeInt(fields.size());
+		for (Field field : fields) {
+			out.writeString(field.getName());
+			out.writeString(valueOf(field));
+		}
+	}
+
+	private static void readSettings(CheckpointInput in) throws IOException {
+		Settings run = Parameters.s;
+		Settings given = new Settings();
+		int numGiven = in.readInt();
+		for (int i = 0; i < numGiven; i++) {
+			String setting = in.readString();
+			String value = in.readString();
+			if (!isOverridden(setting, run)) {
+				given.put(setting, value);
+			}
+		}
+		for (String setting : run.getSettings()) {
+			if (isOverridden(setting, run)) {
+				given.put(setting, run.get(setting));
+			}
+		}
+		Parameters.s = given;
+		Parameters.init();
+
+		Settings applied = new Settings();
+		int numApplied = in.readInt();
+		for (int i = 0; i < numApplied; i++) {
+			String setting = in.readString();
+			String value = in.readString();
+			if (isOverridden(setting, run)) {
+				continue;
+			}
+			if (value != null) {
+				applied.put(setting, value);
+				continue;
+			}
+			for (Class<?> settingClass : Parameters.getSettingClasses()) {
+				Field field = Settings.getSettingField(settingClass, setting);
+				if (field != null) {
+					try {
+						field.setAccessible(true);
+						field.set(null, null);
+					} catch (IllegalAccessException ex) {
+						System.out.println("Could not set setting " + setting + ",null");
+					}
+				}
+			}
+		}
+		for (Class<?> settingClass : Parameters.getSettingClasses()) {
+			applied.apply(settingClass);
+		}
+		ImmuneSystemKernel.updateTables(Parameters.SegmentParameters.nImmunogenicSegments);
+	}
+
+	// settings of the restoring run: RUN_SETTINGS always, disruption settings when they are given, so that forks of a checkpoint can have their own schedules
+	private static boolean isOverridden(String setting, Settings run) {
+		if (RUN_SETTINGS.contains(setting.toLowerCase())) {
+			return true;
+		}
+		return Settings.getSettingField(Parameters.DisruptionParameters.class, setting) != null && run.get(setting) != null;
+	}
+
+	// value of a static setting field as Settings parses it, arrays as comma separated lists
+	private static String valueOf(Field field) throws IOException {
+		try {
+			field.setAccessible(true);
+			Object value = field.get(null);
+			if (value instanceof int[]) {
+				return join(Arrays.toString((int[]) value));
+			}
+			if (value instanceof double[]) {
+				return join(Arrays.toString((double[]) value));
+			}
+			if (value instanceof String[]) {
+				return join(Arrays.toString((String[]) value));
+			}
+			return value == null ? null : value.toString();
+		} catch (IllegalAccessException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	private static String join(String array) {
+		return array.substring(1, array.length()-1).replace(" ", "");
+	}
+
+	private static void writeOutputLengths(CheckpointOutput out) throws IOException {
+		out.writeInt(RUN_OUTPUTS.length);
+		for (String name : RUN_OUTPUTS) {
+			out.writeString(name);
+			out.writeLong(Parameters.SimulationParameters.outputFiles ? Parameters.getOutputFile(name).length() : 0);
+		}
+	}
+
+	private static void readOutputLengths(CheckpointInput in) throws IOException {
+		Map<String,Long> lengths = new HashMap<String,Long>();
+		int numOutputs = in.readInt();
+		for (int i = 0; i < numOutputs; i++) {
+			String name = in.readString();
+			lengths.put(name, in.readLong());
+		}
+		Parameters.setResumedOutputs(lengths);
+	}
+
+	// segments and viruses the run can still reach, parents before children, then the references to them outside the population
+	private static void writeAncestry(CheckpointOutput out, HostPopulation hp) throws IOException {
+		List<Virus> carried = new ArrayList<Virus>(Parameters.getInitialViruses());
+		for (List<Host> hosts : Arrays.asList(hp.getIs(), hp.getReservoir())) {
+			for (Host h : hosts) {
+				carried.addAll(h.getInfections());
+			}
+		}
+		List<Virus> viruses = Virus.withAncestors(carried);
+		List<Segment> held = new ArrayList<Segment>(SegmentTree.getTips());
+		held.add(Parameters.getUrSegment());
+		for (Virus v : viruses) {
+			if (v.segments != null) {
+				held.addAll(Arrays.asList(v.segments));
+			}
+		}
+		List<Segment> segments = Segment.withAncestors(held);
+
+		out.writeInt(segments.size());
+		for (Segment s : segments) {
+			s.write(out);
+		}
+		out.writeInt(viruses.size());
+		for (Virus v : viruses) {
+			v.write(out);
+		}
+		out.writeRef(Parameters.getUrSegment());
+		out.writeInt(Parameters.getInitialViruses().size());
+		for (Virus v : Parameters.getInitialViruses()) {
+			out.writeRef(v);
+		}
+		SegmentTree.write(out);
+	}
+
+	private static void readAncestry(CheckpointInput in) throws IOException {
+		int numSegments = in.readInt();
+		if (!MappedAncestry.map(in, numSegments)) {
+			for (int i = 0; i < numSegments; i++) {
+				Segment.read(in);
+			}
+		}
+		int numViruses = in.readInt();
+		for (int i = 0; i < numViruses; i++) {
+			Virus.read(in);
+		}
+		Parameters.setUrSegment((Segment) in.readRef());
+		List<Virus> initialViruses = new ArrayList<Virus>();
+		int numInitialViruses = in.readInt();
+		for (int i = 0; i < numInitialViruses; i++) {
+			initialViruses.add((Virus) in.readRef());
+		}
+		Parameters.setInitialViruses(initialViruses);
+		SegmentTree.read(in);
+	}
+
+}
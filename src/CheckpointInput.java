@@ -0,0 +1,220 @@
+/* Binary input of a checkpoint written by CheckpointOutput, read through a file channel, or any channel for in-memory snapshots, into a direct buffer */
+/* Shared objects are registered in the order they are read, so ids match those of the writer */
+/* Segment records of a file can be mapped instead of read, their ids then refer to MappedAncestry */
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class CheckpointInput {
+
+	private static final int BUFFER_BYTES = 1 << 22;
+
+	private ReadableByteChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+	private List<Object> objects = new ArrayList<Object>();
+	private int mappedFrom = 0;		// ids [mappedFrom,mappedFrom+numMapped) are rows of MappedAncestry
+	private int numMapped = 0;
+
+	public CheckpointInput(File file) throws IOException {
+		this(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+	}
+
+	public CheckpointInput(ReadableByteChannel channel_) {
+		channel = channel_;
+		buffer.limit(0);
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public byte readByte() throws IOException {
+		ensure(1);
+		return buffer.get();
+	}
+
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	public short readShort() throws IOException {
+		ensure(2);
+		return buffer.getShort();
+	}
+
+	public int readInt() throws IOException {
+		ensure(4);
+		return buffer.getInt();
+	}
+
+	public long readLong() throws IOException {
+		ensure(8);
+		return buffer.getLong();
+	}
+
+	public float readFloat() throws IOException {
+		ensure(4);
+		return buffer.getFloat();
+	}
+
+	public double readDouble() throws IOException {
+		ensure(8);
+		return buffer.getDouble();
+	}
+
+	public String readString() throws IOException {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		readBytes(bytes, 0, length);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// bulk reads into values[from,to)
+	public void readBytes(byte[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(1);
+			int n = Math.min(to - from, buffer.remaining());
+			buffer.get(values, from, n);
+			from += n;
+		}
+	}
+
+	public void readShorts(short[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(2);
+			int n = Math.min(to - from, buffer.remaining() / 2);
+			buffer.asShortBuffer().get(values, from, n);
+			buffer.position(buffer.position() + 2*n);
+			from += n;
+		}
+	}
+
+	public void readInts(int[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(4);
+			int n = Math.min(to - from, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(values, from, n);
+			buffer.position(buffer.position() + 4*n);
+			from += n;
+		}
+	}
+
+	public void readLongs(long[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(8);
+			int n = Math.min(to - from, buffer.remaining() / 8);
+			buffer.asLongBuffer().get(values, from, n);
+			buffer.position(buffer.position() + 8*n);
+			from += n;
+		}
+	}
+
+	public void readFloats(float[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(4);
+			int n = Math.min(to - from, buffer.remaining() / 4);
+			buffer.asFloatBuffer().get(values, from, n);
+			buffer.position(buffer.position() + 4*n);
+			from += n;
+		}
+	}
+
+	public void readDoubles(double[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(8);
+			int n = Math.min(to - from, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().get(values, from, n);
+			buffer.position(buffer.position() + 8*n);
+			from += n;
+		}
+	}
+
+	public BitSet readBitSet() throws IOException {
+		long[] words = new long[readInt()];
+		readLongs(words, 0, words.length);
+		return BitSet.valueOf(words);
+	}
+
+	public BitSet readSharedBitSet() throws IOException {
+		int id = readInt();
+		if (id == -2) {
+			BitSet value = readBitSet();
+			register(value);
+			return value;
+		}
+		return (BitSet) get(id);
+	}
+
+	public void register(Object o) {
+		objects.add(o);
+	}
+
+	// give the next count ids to mapped records, returns the first
+	public int registerMapped(int count) {
+		mappedFrom = objects.size();
+		numMapped = count;
+		return mappedFrom;
+	}
+
+	// registered object of id, null for -1
+	public Object get(int id) {
+		if (id < mappedFrom) {
+			return id < 0 ? null : objects.get(id);
+		}
+		if (id < mappedFrom + numMapped) {
+			return MappedAncestry.get(id - mappedFrom);
+		}
+		return objects.get(id - numMapped);
+	}
+
+	public Object readRef() throws IOException {
+		return get(readInt());
+	}
+
+	public boolean isMappable() {
+		return channel instanceof FileChannel;
+	}
+
+	// the next bytes of the file mapped read-only, and skipped
+	public MappedByteBuffer map(long bytes) throws IOException {
+		FileChannel file = (FileChannel) channel;
+		long position = file.position() - buffer.remaining();
+		MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+		if (bytes <= buffer.remaining()) {
+			buffer.position(buffer.position() + (int) bytes);
+		}
+		else {
+			file.position(position + bytes);
+			buffer.limit(0);
+		}
+		return mapped;
+	}
+
+	// make at least bytes available in the buffer
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("checkpoint ends early");
+			}
+		}
+		buffer.flip();
+	}
+
+}
@@ -0,0 +1,195 @@
+/* Binary output of a checkpoint, buffered in a direct buffer and written through a file channel, or any channel for in-memory snapshots */
+/* Objects shared between records (segments, viruses, immunogenic segment sets) are registered as they are written and referred to by id */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public class CheckpointOutput {
+
+	private static final int BUFFER_BYTES = 1 << 22;
+
+	private WritableByteChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+	private Map<Object,Integer> ids = new IdentityHashMap<Object,Integer>();
+
+	public CheckpointOutput(File file) throws IOException {
+		this(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	public CheckpointOutput(WritableByteChannel channel_) {
+		channel = channel_;
+	}
+
+	// files are forced to the device before they replace an earlier checkpoint
+	public void close() throws IOException {
+		flush();
+		if (channel instanceof FileChannel) {
+			((FileChannel) channel).force(false);
+		}
+		channel.close();
+	}
+
+	public void writeByte(byte value) throws IOException {
+		ensure(1);
+		buffer.put(value);
+	}
+
+	public void writeBoolean(boolean value) throws IOException {
+		writeByte(value ? (byte) 1 : (byte) 0);
+	}
+
+	public void writeShort(short value) throws IOException {
+		ensure(2);
+		buffer.putShort(value);
+	}
+
+	public void writeInt(int value) throws IOException {
+		ensure(4);
+		buffer.putInt(value);
+	}
+
+	public void writeLong(long value) throws IOException {
+		ensure(8);
+		buffer.putLong(value);
+	}
+
+	public void writeFloat(float value) throws IOException {
+		ensure(4);
+		buffer.putFloat(value);
+	}
+
+	public void writeDouble(double value) throws IOException {
+		ensure(8);
+		buffer.putDouble(value);
+	}
+
+	// length prefixed UTF-8, -1 for null
+	public void writeString(String value) throws IOException {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(bytes.length);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	// bulk writes of values[from,to), without length
+	public void writeBytes(byte[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(1);
+			int n = Math.min(to - from, buffer.remaining());
+			buffer.put(values, from, n);
+			from += n;
+		}
+	}
+
+	public void writeShorts(short[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(2);
+			int n = Math.min(to - from, buffer.remaining() / 2);
+			buffer.asShortBuffer().put(values, from, n);
+			buffer.position(buffer.position() + 2*n);
+			from += n;
+		}
+	}
+
+	public void writeInts(int[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(4);
+			int n = Math.min(to - from, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, from, n);
+			buffer.position(buffer.position() + 4*n);
+			from += n;
+		}
+	}
+
+	public void writeLongs(long[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(8);
+			int n = Math.min(to - from, buffer.remaining() / 8);
+			buffer.asLongBuffer().put(values, from, n);
+			buffer.position(buffer.position() + 8*n);
+			from += n;
+		}
+	}
+
+	public void writeFloats(float[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(4);
+			int n = Math.min(to - from, buffer.remaining() / 4);
+			buffer.asFloatBuffer().put(values, from, n);
+			buffer.position(buffer.position() + 4*n);
+			from += n;
+		}
+	}
+
+	public void writeDoubles(double[] values, int from, int to) throws IOException {
+		while (from < to) {
+			ensure(8);
+			int n = Math.min(to - from, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().put(values, from, n);
+			buffer.position(buffer.position() + 8*n);
+			from += n;
+		}
+	}
+
+	// bit set owned by the writer, as its words
+	public void writeBitSet(BitSet value) throws IOException {
+		long[] words = value.toLongArray();
+		writeInt(words.length);
+		writeLongs(words, 0, words.length);
+	}
+
+	// bit set that may be shared, written in full the first time and by id after that
+	public void writeSharedBitSet(BitSet value) throws IOException {
+		if (value == null) {
+			writeInt(-1);
+		}
+		else if (ids.containsKey(value)) {
+			writeInt(ids.get(value));
+		}
+		else {
+			writeInt(-2);
+			writeBitSet(value);
+			register(value);
+		}
+	}
+
+	// give o the next id, readers register objects in the same order
+	public void register(Object o) {
+		ids.put(o, ids.size());
+	}
+
+	public boolean isRegistered(Object o) {
+		return ids.containsKey(o);
+	}
+
+	// id of a registered object, -1 for null
+	public void writeRef(Object o) throws IOException {
+		writeInt(o == null ? -1 : ids.get(o));
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
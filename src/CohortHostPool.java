@@ -0,0 +1,293 @@
+/* Host pool that only counts the hosts in each immune state, hosts with identical immune histories are interchangeable */
+/* Bulk operations draw multinomially over states, so their cost scales with the number of distinct immune states rather than with N */
+/* Birth days are not stored, materialized hosts are given an age drawn from the demographic age distribution */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CohortHostPool extends AbstractHostPool {
+
+	private static final int SEQUENTIAL_DRAWS = 64;	// draws of a state reset one by one in resetRandom
+
+	private ImmuneStateTable immuneStates;
+	private int[] counts = new int[16];		// number of hosts in each state id
+	private int[] tree = new int[17];		// Fenwick tree over counts, used to find the state of the i-th host
+	private int size = 0;
+
+	public CohortHostPool(ImmuneStateTable immuneStates_) {
+		immuneStates = immuneStates_;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// number of hosts with immune state id
+	public int count(int id) {
+		return id < counts.length ? counts[id] : 0;
+	}
+
+	// index of the first host with immune state id, hosts of a state have consecutive indices
+	public int indexOf(int id) {
+		int index = 0;
+		for (int j = Math.min(id, counts.length); j > 0; j -= j & -j) {
+			index += tree[j];
+		}
+		return index;
+	}
+
+	public ImmuneStateTable getImmuneStates() {
+		return immuneStates;
+	}
+
+	public Host get(int i) {
+		return materialize(stateOf(i));
+	}
+
+	public void add(Host h) {
+		int id = immuneStates.intern(h.getImmuneSystem());
+		immuneStates.retain(id);
+		increment(id, 1);
+	}
+
+	public void addNaive(int birth) {
+		immuneStates.retain(immuneStates.naive());
+		increment(immuneStates.naive(), 1);
+	}
+
+	// births are not kept, hosts of each distinct state object are counted and added at once, in order of first appearance
+	public void addAll(int[] births, ImmuneSystem[] states, int from, int to) {
+		Map<ImmuneSystem,Integer> numbers = new IdentityHashMap<ImmuneSystem,Integer>();
+		List<ImmuneSystem> distinct = new ArrayList<ImmuneSystem>();
+		for (int k = from; k < to; k++) {
+			Integer number = numbers.get(states[k]);
+			if (number == null) {
+				distinct.add(states[k]);
+				number = 0;
+			}
+			numbers.put(states[k], number+1);
+		}
+		for (ImmuneSystem state : distinct) {
+			int id = immuneStates.intern(state);
+			immuneStates.retain(id, numbers.get(state));
+			increment(id, numbers.get(state));
+		}
+	}
+
+	public Host remove(int i) {
+		int id = stateOf(i);
+		Host h = materialize(id);
+		increment(id, -1);
+		immuneStates.release(id);
+		return h;
+	}
+
+	public void transfer(int i, HostPool to) {
+		move(stateOf(i), 1, to, false);
+	}
+
+	public void clear() {
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0) {
+				immuneStates.release(id, counts[id]);
+			}
+		}
+		Arrays.fill(counts, 0);
+		Arrays.fill(tree, 0);
+		size = 0;
+	}
+
+	public double riskOfInfection(int i, Virus v) {
+		return immuneStates.get(stateOf(i)).riskOfInfection(v);
+	}
+
+	public void addToImmuneHistory(int i, Virus v) {
+		int id = stateOf(i);
+		int next = immuneStates.add(id, v);
+		immuneStates.retain(next);
+		increment(next, 1);
+		increment(id, -1);
+		immuneStates.release(id);
+	}
+
+	public void reset(int i) {
+		int id = stateOf(i);
+		int naive = immuneStates.naive();
+		immuneStates.retain(naive);
+		increment(naive, 1);
+		increment(id, -1);
+		immuneStates.release(id);
+	}
+
+	public void forget(BitSet indices) {
+		immuneStates.forget(indices);
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(counts.length);
+		out.writeInts(counts, 0, counts.length);
+	}
+
+	// immune state counts are restored with the table
+	public void read(CheckpointInput in) throws IOException {
+		int[] stored = new int[in.readInt()];
+		in.readInts(stored, 0, stored.length);
+		grow(stored.length);
+		for (int id = 0; id < stored.length; id++) {
+			if (stored[id] > 0) {
+				increment(id, stored[id]);
+			}
+		}
+	}
+
+	// draws are with replacement, each host drawn at least once becomes naive
+	public void resetRandom(int n) {
+		int naive = immuneStates.naive();
+		int remainingDraws = n;
+		int remainingHosts = size;
+		int numStates = counts.length;
+		for (int id = 0; id < numStates && remainingDraws > 0; id++) {
+			int c = counts[id];
+			if (c > 0) {
+				int draws = Random.nextBinomial(remainingDraws, (double) c / (double) remainingHosts);
+				remainingDraws -= draws;
+				remainingHosts -= c;
+				int hostsDrawn = distinctHosts(c, draws);
+				if (id != naive && hostsDrawn > 0) {
+					immuneStates.retain(naive, hostsDrawn);
+					increment(naive, hostsDrawn);
+					increment(id, -hostsDrawn);
+					immuneStates.release(id, hostsDrawn);
+				}
+			}
+		}
+	}
+
+	// random number of distinct hosts among draws with replacement from c hosts, a draw hits a new host with probability (c-hit)/c
+	// beyond SEQUENTIAL_DRAWS the occupancy distribution is approximated by a normal with its mean and variance
+	private static int distinctHosts(int c, int draws) {
+		if (draws <= 1) {
+			return draws;
+		}
+		if (draws <= SEQUENTIAL_DRAWS) {
+			int hit = 0;
+			for (int i = 0; i < draws && hit < c; i++) {
+				if (Random.nextBoolean((double) (c - hit) / c)) {
+					hit++;
+				}
+			}
+			return hit;
+		}
+		double miss = Math.pow(1 - 1.0/c, draws);
+		double mean = c*(1 - miss);
+		double variance = c*(c - 1.0)*Math.pow(1 - 2.0/c, draws) + c*miss - (double) c*c*miss*miss;
+		long hit = Math.round(Random.nextNormal(mean, Math.sqrt(Math.max(variance, 0))));
+		return (int) Math.max(1, Math.min(Math.min(c, draws), hit));
+	}
+
+	// multivariate hypergeometric draw over immune states
+	public void transferRandom(int n, HostPool to, boolean reset) {
+		int remainingDraws = Math.min(n, size);
+		int remainingHosts = size;
+		int numStates = counts.length;
+		for (int id = 0; id < numStates && remainingDraws > 0; id++) {
+			int c = counts[id];
+			if (c > 0) {
+				int draws = Random.nextHypergeometric(remainingHosts, c, remainingDraws);
+				remainingDraws -= draws;
+				remainingHosts -= c;
+				if (draws > 0) {
+					move(id, draws, to, reset);
+				}
+			}
+		}
+	}
+
+	public void transferAll(HostPool to) {
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0) {
+				move(id, counts[id], to, false);
+			}
+		}
+	}
+
+	public void removeRandom(int n) {
+		int remainingDraws = Math.min(n, size);
+		int remainingHosts = size;
+		int numStates = counts.length;
+		for (int id = 0; id < numStates && remainingDraws > 0; id++) {
+			int c = counts[id];
+			if (c > 0) {
+				int draws = Random.nextHypergeometric(remainingHosts, c, remainingDraws);
+				remainingDraws -= draws;
+				remainingHosts -= c;
+				if (draws > 0) {
+					increment(id, -draws);
+					immuneStates.release(id, draws);
+				}
+			}
+		}
+	}
+
+	// move n hosts of state id to another pool
+	private void move(int id, int n, HostPool to, boolean reset) {
+		int target = reset ? immuneStates.naive() : id;
+		if (to instanceof CohortHostPool && ((CohortHostPool) to).immuneStates == immuneStates) {
+			immuneStates.retain(target, n);
+			((CohortHostPool) to).increment(target, n);
+		}
+		else {
+			for (int i = 0; i < n; i++) {
+				to.add(materialize(target));
+			}
+		}
+		increment(id, -n);
+		immuneStates.release(id, n);
+	}
+
+	private Host materialize(int id) {
+		return new Host(Host.randomBirth(), immuneStates.get(id).copy());
+	}
+
+	private void increment(int id, int delta) {
+		if (id >= counts.length) {
+			grow(Math.max(counts.length*2, id+1));
+		}
+		counts[id] += delta;
+		size += delta;
+		for (int j = id+1; j < tree.length; j += j & -j) {
+			tree[j] += delta;
+		}
+	}
+
+	private void grow(int capacity) {
+		counts = Arrays.copyOf(counts, capacity);
+		tree = new int[capacity+1];
+		for (int j = 1; j <= capacity; j++) {
+			tree[j] += counts[j-1];
+			int parent = j + (j & -j);
+			if (parent <= capacity) {
+				tree[parent] += tree[j];
+			}
+		}
+	}
+
+	// state of the i-th host, counting hosts in order of state id
+	private int stateOf(int i) {
+		int pos = 0;
+		int remaining = i;
+		for (int step = Integer.highestOneBit(counts.length); step > 0; step >>= 1) {
+			if (pos + step <= counts.length && tree[pos + step] <= remaining) {
+				pos += step;
+				remaining -= tree[pos];
+			}
+		}
+		return pos;
+	}
+
+}
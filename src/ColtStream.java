@@ -0,0 +1,123 @@
+/* Random stream drawn from a Colt MersenneTwister with Colt's samplers (generator=MERSENNE_TWISTER) */
+/* Gives the same sequence for a seed as the static Colt generator used before streams */
+/* Hypergeometric draws use the sampler of RandomStream, Colt's fails for large populations */
+/* Checkpoints hold the generator and samplers serialized together, samplers keep cached values between draws */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import cern.jet.random.Binomial;
+import cern.jet.random.Exponential;
+import cern.jet.random.Gamma;
+import cern.jet.random.Normal;
+import cern.jet.random.Poisson;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.MersenneTwister;
+
+public class ColtStream extends RandomStream {
+
+	private int seed;
+	private MersenneTwister rng;
+	private Uniform myUniform;
+	private Exponential myExp;
+	private Normal myNormal;
+	private Gamma myGamma;
+	private Poisson myPoisson;
+	private Binomial myBinomial;
+
+	public ColtStream(int seed_) {
+		seed = seed_;
+		rng = new MersenneTwister(seed);
+		myUniform = new Uniform(rng);
+		myExp = new Exponential(1,rng);
+		myNormal = new Normal(1,1,rng);
+		myGamma = new Gamma(1, 1, rng);
+		myPoisson = new Poisson(1, rng);
+		myBinomial = new Binomial(1, 0.5, rng);
+	}
+
+	// Mersenne Twisters seeded from a hash of the seed and index, MersenneTwister has no jump ahead
+	public RandomStream split(long index) {
+		long z = (((long) seed) << 32) + index + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return new ColtStream((int) z);
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		super.write(out);
+		out.writeInt(seed);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objects = new ObjectOutputStream(bytes);
+		objects.writeObject(new Object[] {rng, myUniform, myExp, myNormal, myGamma, myPoisson, myBinomial});
+		objects.close();
+		out.writeInt(bytes.size());
+		out.writeBytes(bytes.toByteArray(), 0, bytes.size());
+	}
+
+	public void read(CheckpointInput in) throws IOException {
+		super.read(in);
+		seed = in.readInt();
+		byte[] bytes = new byte[in.readInt()];
+		in.readBytes(bytes, 0, bytes.length);
+		ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			Object[] state = (Object[]) objects.readObject();
+			rng = (MersenneTwister) state[0];
+			myUniform = (Uniform) state[1];
+			myExp = (Exponential) state[2];
+			myNormal = (Normal) state[3];
+			myGamma = (Gamma) state[4];
+			myPoisson = (Poisson) state[5];
+			myBinomial = (Binomial) state[6];
+		} catch (ClassNotFoundException ex) {
+			throw new IOException(ex);
+		}
+		objects.close();
+	}
+
+	public long nextLong() {
+		return rng.nextLong();
+	}
+
+	public double nextDouble() {
+		return myUniform.nextDouble();
+	}
+
+	public double nextDouble(double from, double to) {
+		return myUniform.nextDoubleFromTo(from, to);
+	}
+
+	public int nextInt(int from, int to) {
+		return myUniform.nextIntFromTo(from, to);
+	}
+
+	public double nextExponential(double mean) {
+		return myExp.nextDouble(1.0/mean);
+	}
+
+	public double nextNormal(double mu, double sigma) {
+		return myNormal.nextDouble(mu,sigma);
+	}
+
+	public double nextGamma(double alpha, double beta) {
+		return myGamma.nextDouble(alpha, 1/beta);
+	}
+
+	public int nextPoisson(double lambda) {
+		return myPoisson.nextInt(lambda);
+	}
+
+	public int nextBinomial(int n, double p) {
+		if (n <= 0 || p <= 0)
+			return 0;
+		if (p >= 1)
+			return n;
+		return myBinomial.nextInt(n, p);
+	}
+
+}
@@ -0,0 +1,457 @@
+/* Tree output as compressed binary columns in out.tree (treeFormat=COLUMNAR), in place of out.tips and out.branches */
+/* Rows are the nodes of the tree in the order of out.branches, parents before children, followed by tips outside the tree */
+/* Node ids are segment creation numbers, parents are row offsets, births, ids, segment numbers, loci and fitness are stored relative to the parent, */
+/* integers as zig-zag varints and the trunk, tip and mark flags as bits, columns are deflated unless they hardly compress */
+/* Run as ColumnarTree out.tree out.tips out.branches to write the text files back, with node ids as names */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class ColumnarTree {
+
+	private static final int MAGIC = 0x53475452;
+	private static final int VERSION = 1;
+
+	private static final byte RAW = 0;
+	private static final byte DEFLATED = 1;
+
+	private static final String[] COLUMNS = {"id", "parent", "birth", "hostAge", "layout", "wholeGenomeID", "segmentNumber", "loci",
+			"fitness", "coverage", "trunk", "tip", "mark", "tips"};
+	private static final byte[] CODECS = {RAW, DEFLATED, DEFLATED, DEFLATED, DEFLATED, RAW, DEFLATED, DEFLATED,
+			DEFLATED, DEFLATED, DEFLATED, DEFLATED, DEFLATED, DEFLATED};	// ids and identity hashes are close to random
+
+	// node columns, parents are rows (-1 for none), the first numTreeNodes rows are the tree
+	public int numRows;
+	public int numTreeNodes;
+	public long[] ids;
+	public int[] parents;
+	public float[] births;
+	public float[] hostAges;
+	public float[] layouts;
+	public long[] wholeGenomeIDs;
+	public int[] segmentNumbers;
+	public short[] loci;
+	public double[] fitnesses;
+	public int[] coverages;
+	public boolean[] trunk;
+	public boolean[] tip;
+	public boolean[] marked;
+
+	// rows of the tips, in sampling order
+	public int[] tips;
+
+	private ColumnarTree() {
+	}
+
+	// tree below root, in the order of SegmentTree.postOrderNodes, and tips
+	public ColumnarTree(Segment root, List<Segment> tipList) {
+		Segment[] segments = new Segment[1024];
+		parents = new int[1024];
+		int[] stack = new int[1024];
+		int depth = 0;
+		segments[0] = root;
+		parents[0] = -1;
+		numRows = 1;
+		stack[depth++] = 0;
+		while (depth > 0) {
+			int row = stack[--depth];
+			for (Segment child : segments[row].getChildren()) {
+				if (numRows == segments.length) {
+					segments = Arrays.copyOf(segments, numRows*2);
+					parents = Arrays.copyOf(parents, numRows*2);
+				}
+				if (depth == stack.length) {
+					stack = Arrays.copyOf(stack, depth*2);
+				}
+				segments[numRows] = child;
+				parents[numRows] = row;
+				stack[depth++] = numRows;
+				numRows++;
+			}
+		}
+		numTreeNodes = numRows;
+
+		// tips by segment id, those outside the tree get rows of their own
+		segments = Arrays.copyOf(segments, numRows + tipList.size());
+		parents = Arrays.copyOf(parents, numRows + tipList.size());
+		RowIndex index = new RowIndex(segments.length);
+		for (int row = 0; row < numRows; row++) {
+			index.put(segments[row].getId(), row);
+		}
+		tips = new int[tipList.size()];
+		for (int i = 0; i < tips.length; i++) {
+			Segment s = tipList.get(i);
+			tips[i] = index.get(s.getId());
+			if (tips[i] < 0) {
+				segments[numRows] = s;
+				parents[numRows] = s.getParent() != null ? index.get(s.getParent().getId()) : -1;
+				index.put(s.getId(), numRows);
+				tips[i] = numRows++;
+			}
+		}
+
+		ids = new long[numRows];
+		births = new float[numRows];
+		hostAges = new float[numRows];
+		layouts = new float[numRows];
+		wholeGenomeIDs = new long[numRows];
+		segmentNumbers = new int[numRows];
+		loci = new short[numRows];
+		fitnesses = new double[numRows];
+		coverages = new int[numRows];
+		trunk = new boolean[numRows];
+		tip = new boolean[numRows];
+		marked = new boolean[numRows];
+		for (int row = 0; row < numRows; row++) {
+			Segment s = segments[row];
+			ids[row] = s.getId();
+			births[row] = s.getBirth();
+			hostAges[row] = (float) s.getHostAge();
+			layouts[row] = (float) s.getLayout();
+			wholeGenomeIDs[row] = s.getWholeGenomeID();
+			segmentNumbers[row] = s.getSegmentNumber();
+			loci[row] = s.getLoci();
+			fitnesses[row] = s.getFitness();
+			coverages[row] = s.getCoverage();
+			trunk[row] = s.isTrunk();
+			tip[row] = s.isTip();
+			marked[row] = s.isMarked();
+		}
+	}
+
+	// columns to stream, which is closed
+	public void write(OutputStream stream) throws IOException {
+		Column[] columns = new Column[COLUMNS.length];
+		for (int c = 0; c < columns.length; c++) {
+			columns[c] = new Column(numRows);
+		}
+		for (int row = 0; row < numRows; row++) {
+			int p = parents[row];
+			columns[0].putVarLong(zigZag(ids[row] - (p >= 0 ? ids[p] : 0)));
+			columns[1].putVarLong(p >= 0 ? row - p : 0);
+			columns[2].putVarLong(zigZag(Float.floatToIntBits(births[row]) - (p >= 0 ? Float.floatToIntBits(births[p]) : 0)));
+		}
+		for (int row = 0; row < numRows; row++) {
+			columns[3].putInt(Float.floatToIntBits(hostAges[row]));
+			columns[4].putInt(Float.floatToIntBits(layouts[row]));
+			columns[5].putVarLong(zigZag(wholeGenomeIDs[row]));
+		}
+		for (int row = 0; row < numRows; row++) {
+			int p = parents[row];
+			columns[6].putVarLong(zigZag(segmentNumbers[row] - (p >= 0 ? segmentNumbers[p] : 0)));
+			columns[7].putVarLong(zigZag(loci[row] - (p >= 0 ? loci[p] : 0)));
+			columns[8].putVarLong(Double.doubleToLongBits(fitnesses[row]) ^ (p >= 0 ? Double.doubleToLongBits(fitnesses[p]) : 0));
+			columns[9].putVarLong(coverages[row]);
+		}
+		for (int row = 0; row < numRows; row++) {
+			columns[10].putBit(row, trunk[row]);
+			columns[11].putBit(row, tip[row]);
+			columns[12].putBit(row, marked[row]);
+		}
+		int previous = 0;
+		for (int row : tips) {
+			columns[13].putVarLong(zigZag(row - previous));
+			previous = row;
+		}
+
+		DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(numRows);
+		out.writeInt(numTreeNodes);
+		out.writeInt(tips.length);
+		out.writeInt(columns.length);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		byte[] compressed = new byte[1 << 16];
+		for (int c = 0; c < columns.length; c++) {
+			Column column = columns[c];
+			out.writeUTF(COLUMNS[c]);
+			out.writeByte(CODECS[c]);
+			out.writeInt(column.size);
+			if (CODECS[c] == RAW) {
+				out.writeInt(column.size);
+				out.write(column.bytes, 0, column.size);
+				continue;
+			}
+			deflater.reset();
+			deflater.setInput(column.bytes, 0, column.size);
+			deflater.finish();
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length*2);
+				}
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+			out.writeInt(length);
+			out.write(compressed, 0, length);
+		}
+		deflater.end();
+		out.close();
+	}
+
+	public static ColumnarTree read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a columnar tree of version " + VERSION);
+			}
+			ColumnarTree tree = new ColumnarTree();
+			tree.numRows = in.readInt();
+			tree.numTreeNodes = in.readInt();
+			tree.tips = new int[in.readInt()];
+			int numColumns = in.readInt();
+			Map<String,Column> columns = new HashMap<String,Column>();
+			Inflater inflater = new Inflater();
+			for (int c = 0; c < numColumns; c++) {
+				String name = in.readUTF();
+				byte codec = in.readByte();
+				byte[] raw = new byte[in.readInt()];
+				byte[] stored = new byte[in.readInt()];
+				in.readFully(stored);
+				if (codec == RAW) {
+					raw = stored;
+				}
+				else {
+					inflater.reset();
+					inflater.setInput(stored);
+					try {
+						if (inflater.inflate(raw) != raw.length || !inflater.finished()) {
+							throw new IOException("column " + name + " of " + file + " is damaged");
+						}
+					} catch (DataFormatException ex) {
+						throw new IOException("column " + name + " of " + file + " is damaged", ex);
+					}
+				}
+				columns.put(name, new Column(raw));
+			}
+			inflater.end();
+			Column[] ordered = new Column[COLUMNS.length];
+			for (int c = 0; c < COLUMNS.length; c++) {
+				ordered[c] = columns.get(COLUMNS[c]);
+				if (ordered[c] == null) {
+					throw new IOException(file + " has no column " + COLUMNS[c]);
+				}
+			}
+			tree.decode(ordered);
+			return tree;
+		} finally {
+			in.close();
+		}
+	}
+
+	// columns in the order of COLUMNS, parents are decoded before their children
+	private void decode(Column[] columns) {
+		ids = new long[numRows];
+		parents = new int[numRows];
+		births = new float[numRows];
+		hostAges = new float[numRows];
+		layouts = new float[numRows];
+		wholeGenomeIDs = new long[numRows];
+		segmentNumbers = new int[numRows];
+		loci = new short[numRows];
+		fitnesses = new double[numRows];
+		coverages = new int[numRows];
+		trunk = new boolean[numRows];
+		tip = new boolean[numRows];
+		marked = new boolean[numRows];
+		for (int row = 0; row < numRows; row++) {
+			int offset = (int) columns[1].getVarLong();
+			int p = offset > 0 ? row - offset : -1;
+			parents[row] = p;
+			ids[row] = unZigZag(columns[0].getVarLong()) + (p >= 0 ? ids[p] : 0);
+			births[row] = Float.intBitsToFloat((int) unZigZag(columns[2].getVarLong()) + (p >= 0 ? Float.floatToIntBits(births[p]) : 0));
+			hostAges[row] = Float.intBitsToFloat(columns[3].getInt());
+			layouts[row] = Float.intBitsToFloat(columns[4].getInt());
+			wholeGenomeIDs[row] = unZigZag(columns[5].getVarLong());
+			segmentNumbers[row] = (int) unZigZag(columns[6].getVarLong()) + (p >= 0 ? segmentNumbers[p] : 0);
+			loci[row] = (short) (unZigZag(columns[7].getVarLong()) + (p >= 0 ? loci[p] : 0));
+			fitnesses[row] = Double.longBitsToDouble(columns[8].getVarLong() ^ (p >= 0 ? Double.doubleToLongBits(fitnesses[p]) : 0));
+			coverages[row] = (int) columns[9].getVarLong();
+			trunk[row] = columns[10].getBit(row);
+			tip[row] = columns[11].getBit(row);
+			marked[row] = columns[12].getBit(row);
+		}
+		int previous = 0;
+		for (int i = 0; i < tips.length; i++) {
+			tips[i] = previous + (int) unZigZag(columns[13].getVarLong());
+			previous = tips[i];
+		}
+	}
+
+	// out.tips as SegmentTree.printTips writes it
+	public void printTips(AsyncOutput stream) {
+		stream.print("{\"name\",\"wholegenome\",\"year\",\"trunk\",\"tip\",\"mark\",\"hostAge\",\"layout\",\"segmentID\",\"loci\",\"fitness\"}\n");
+		for (int row : tips) {
+			printNode(stream, row, row, 4);
+			stream.println();
+		}
+	}
+
+	// out.branches as SegmentTree.printBranches writes it
+	public void printBranches(AsyncOutput stream) {
+		for (int row = 0; row < numTreeNodes; row++) {
+			int p = parents[row];
+			if (p >= 0) {
+				printNode(stream, row, row, 3);
+				stream.print('\t');
+				printNode(stream, p, row, 3);
+				stream.print('\t').print(coverages[p]).println();
+			}
+		}
+	}
+
+	private void printNode(AsyncOutput stream, int row, int child, int decimals) {
+		stream.print("{\"").print(ids[row]).print("\",").print(wholeGenomeIDs[row]).print(',').print(births[row],decimals);
+		stream.print(',').print(trunk[row]?1:0).print(',').print(tip[row]?1:0).print(',').print(marked[child]?1:0);
+		stream.print(',').print(hostAges[row],4).print(',').print(layouts[row],decimals).print(',').print(segmentNumbers[row]);
+		stream.print(',').print(loci[child]).print(',').print(fitnesses[child],4).print('}');
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3) {
+			System.out.println("usage: ColumnarTree out.tree out.tips out.branches");
+			return;
+		}
+		ColumnarTree tree = read(new File(args[0]));
+		for (int k = 1; k <= 2; k++) {
+			File file = new File(args[k]);
+			file.delete();
+			AsyncOutput stream = new AsyncOutput(file);
+			if (k == 1) {
+				tree.printTips(stream);
+			}
+			else {
+				tree.printBranches(stream);
+			}
+			stream.close();
+		}
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	// rows by segment id, open addressing
+	private static class RowIndex {
+
+		private long[] keys;	// id+1, 0 for empty slots
+		private int[] rows;
+		private int mask;
+
+		RowIndex(int capacity) {
+			int size = Integer.highestOneBit(Math.max(16, capacity*2 - 1)) << 1;
+			keys = new long[size];
+			rows = new int[size];
+			mask = size - 1;
+		}
+
+		void put(long id, int row) {
+			int slot = slot(id);
+			while (keys[slot] != 0 && keys[slot] != id+1) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = id+1;
+			rows[slot] = row;
+		}
+
+		// -1 if id has no row
+		int get(long id) {
+			for (int slot = slot(id); keys[slot] != 0; slot = (slot + 1) & mask) {
+				if (keys[slot] == id+1) {
+					return rows[slot];
+				}
+			}
+			return -1;
+		}
+
+		private int slot(long id) {
+			long h = id * 0x9E3779B97F4A7C15L;
+			return (int) (h >>> 32) & mask;
+		}
+	}
+
+	// bytes of a column, written or read in row order
+	private static class Column {
+
+		byte[] bytes;
+		int size = 0;
+
+		Column(int numRows) {
+			bytes = new byte[Math.max(16, numRows)];
+		}
+
+		Column(byte[] bytes_) {
+			bytes = bytes_;
+		}
+
+		void putVarLong(long value) {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		void putInt(int value) {
+			ensure(4);
+			bytes[size++] = (byte) (value >>> 24);
+			bytes[size++] = (byte) (value >>> 16);
+			bytes[size++] = (byte) (value >>> 8);
+			bytes[size++] = (byte) value;
+		}
+
+		// flag columns are a bit per row, eight rows a byte
+		void putBit(int row, boolean value) {
+			if (value) {
+				bytes[row >>> 3] |= 1 << (row & 7);
+			}
+			size = (row >>> 3) + 1;
+		}
+
+		long getVarLong() {
+			long value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = bytes[size++];
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		int getInt() {
+			int value = ((bytes[size] & 0xFF) << 24) | ((bytes[size+1] & 0xFF) << 16) | ((bytes[size+2] & 0xFF) << 8) | (bytes[size+3] & 0xFF);
+			size += 4;
+			return value;
+		}
+
+		boolean getBit(int row) {
+			return (bytes[row >>> 3] & (1 << (row & 7))) != 0;
+		}
+
+		private void ensure(int n) {
+			if (size + n > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length*2, size + n));
+			}
+		}
+	}
+
+}
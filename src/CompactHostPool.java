@@ -0,0 +1,41 @@
+/* Host pool storing host records in primitive arrays on the heap */
+
+import java.util.Arrays;
+
+public class CompactHostPool extends RecordHostPool {
+
+	private int[] births;
+	private int[] states;
+
+	public CompactHostPool(ImmuneStateTable immuneStates_, int initialCapacity) {
+		super(immuneStates_);
+		births = new int[Math.max(initialCapacity, 16)];
+		states = new int[births.length];
+	}
+
+	protected int getBirth(int i) {
+		return births[i];
+	}
+
+	protected int getState(int i) {
+		return states[i];
+	}
+
+	protected void setRecord(int i, int birth, int state) {
+		births[i] = birth;
+		states[i] = state;
+	}
+
+	protected void setState(int i, int state) {
+		states[i] = state;
+	}
+
+	protected void ensureCapacity(int capacity) {
+		if (capacity > births.length) {
+			int newCapacity = Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, births.length + (births.length >> 1)));
+			births = Arrays.copyOf(births, newCapacity);
+			states = Arrays.copyOf(states, newCapacity);
+		}
+	}
+
+}
@@ -0,0 +1,3 @@
+/* Contact process, see SimulationParameters.contactMode */
+
+enum ContactType {INDIVIDUAL, BATCHED, PARALLEL};
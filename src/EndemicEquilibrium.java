@@ -0,0 +1,140 @@
+/* Endemic equilibrium of the S/I/R model with hosts classed by number of previous infections (initialState=EQUILIBRIUM) */
+/* Classes get births, deaths, infection at beta x susceptibility x force of infection, recovery at nu into R of the next class and waning at omega */
+/* Susceptibility and infectivity of a class follow ImmuneSystemDiscrete, specific immunity is against the initial strains hosts are seeded with */
+/* Classes beyond MAX_INFECTIONS are merged into the last one, the force of infection is the root of its fixed point found by bisection */
+
+import java.util.BitSet;
+import java.util.List;
+
+public class EndemicEquilibrium {
+
+	static final int MAX_INFECTIONS = 100;
+
+	private static final int BISECTIONS = 200;
+
+	private double[] susceptibility = new double[MAX_INFECTIONS+1];	// risk of infection by a random initial strain per class
+	private double[] infectivity = new double[MAX_INFECTIONS+1];	// risk of transmission per class, times mean fitness
+	private double[] s = new double[MAX_INFECTIONS+1];	// proportions of the population per class
+	private double[] i = new double[MAX_INFECTIONS+1];
+	private double[] r = new double[MAX_INFECTIONS+1];
+	private boolean endemic;
+
+	// equilibrium of hosts infected and immunized by viruses
+	public EndemicEquilibrium(List<Virus> viruses) {
+		susceptibilities(viruses);
+		double fitness = 0;
+		for (Virus v : viruses) {
+			fitness += v.getFitness() / viruses.size();
+		}
+		for (int n = 0; n <= MAX_INFECTIONS; n++) {
+			infectivity[n] = ImmuneSystemDiscrete.infectivity(n)*fitness;
+		}
+
+		// force of infection phi = sum of infectivity x proportion infected, the disease free state is the only equilibrium if the infection cannot grow from it
+		double high = infectivity[0];
+		double low = 1e-12*high;
+		endemic = forceOfInfection(low) > low;
+		if (!endemic) {
+			forceOfInfection(0);
+			return;
+		}
+		for (int k = 0; k < BISECTIONS && high - low > Math.ulp(high); k++) {
+			double middle = 0.5*(low + high);
+			if (forceOfInfection(middle) > middle) {
+				low = middle;
+			}
+			else {
+				high = middle;
+			}
+		}
+		forceOfInfection(low);
+	}
+
+	// generalized immunity of n previous infections times the expected specific immunity after n random initial strains, segments seen independently
+	private void susceptibilities(List<Virus> viruses) {
+		BitSet[] indices = new BitSet[viruses.size()];
+		int bits = 0;
+		for (int k = 0; k < viruses.size(); k++) {
+			indices[k] = viruses.get(k).getImmunogenicSegmentIndices();
+			bits = Math.max(bits, indices[k].length());
+		}
+		double[] frequency = new double[bits];
+		for (BitSet b : indices) {
+			for (int j = b.nextSetBit(0); j >= 0; j = b.nextSetBit(j+1)) {
+				frequency[j] += 1.0 / indices.length;
+			}
+		}
+		double seenRisk = Math.exp(-ImmuneSystemDiscrete.ImmunityParameters.sigma_spec / Parameters.SegmentParameters.nImmunogenicSegments);
+		for (int n = 0; n <= MAX_INFECTIONS; n++) {
+			double specific = 0;
+			for (BitSet b : indices) {
+				double risk = 1;
+				for (int j = b.nextSetBit(0); j >= 0; j = b.nextSetBit(j+1)) {
+					double seen = 1 - Math.pow(1 - frequency[j], n);
+					risk *= 1 - seen + seen*seenRisk;
+				}
+				specific += risk / indices.length;
+			}
+			susceptibility[n] = Math.exp(-ImmuneSystemDiscrete.ImmunityParameters.sigma_gen*n)*specific;
+		}
+	}
+
+	// class proportions at force of infection phi, returns the force of infection they give
+	private double forceOfInfection(double phi) {
+		double beta = Parameters.EpidemiologicalParameters.beta;
+		double nu = Parameters.EpidemiologicalParameters.nu;
+		double omega = Parameters.EpidemiologicalParameters.omega;
+		double mu = Parameters.DemographicParameters.deathRate;
+		double waned = Double.isInfinite(omega) ? 1 : omega/(omega + mu);	// part of recovereds returning to S
+
+		double inflow = Parameters.DemographicParameters.birthRate;
+		double total = 0;
+		r[0] = 0;
+		for (int n = 0; n <= MAX_INFECTIONS; n++) {
+			double lambda = beta*susceptibility[n]*phi;
+			if (n == MAX_INFECTIONS) {
+				// recovereds of the last class stay in it
+				inflow /= 1 - lambda/(lambda + mu) * nu/(nu + mu) * waned;
+			}
+			s[n] = inflow / (lambda + mu);
+			i[n] = lambda*s[n] / (nu + mu);
+			double recovered = nu*i[n];
+			if (n < MAX_INFECTIONS) {
+				r[n+1] = Double.isInfinite(omega) ? 0 : recovered / (omega + mu);
+				inflow = recovered*waned;
+			}
+			else if (!Double.isInfinite(omega)) {
+				r[n] += recovered / (omega + mu);
+			}
+			total += s[n] + i[n] + r[n];
+		}
+
+		double force = 0;
+		for (int n = 0; n <= MAX_INFECTIONS; n++) {
+			s[n] /= total;
+			i[n] /= total;
+			r[n] /= total;
+			force += infectivity[n]*i[n];
+		}
+		return force;
+	}
+
+	// false if infection dies out from the disease free state, in which case all hosts are naive susceptibles
+	public boolean isEndemic() {
+		return endemic;
+	}
+
+	// proportions of the population susceptible, infected and recovered after n previous infections
+	public double getS(int n) {
+		return s[n];
+	}
+
+	public double getI(int n) {
+		return i[n];
+	}
+
+	public double getR(int n) {
+		return r[n];
+	}
+
+}
@@ -0,0 +1,3 @@
+/* Simulation engine, see SimulationParameters.engine */
+
+enum EngineType {DAILY, TAU_LEAP, NEXT_REACTION};
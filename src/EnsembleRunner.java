@@ -0,0 +1,84 @@
+/* Runs replicates of a simulation concurrently in one JVM (replicates > 1) */
+/* Each replicate runs in its own SimulationContext with seed seed+i, writing to outputDirectory/replicateDirectory+i */
+/* A replicate gives the same output as a single run with its seed and directory */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cern.jet.random.engine.MersenneTwister;
+
+public class EnsembleRunner {
+
+	// runs the replicates of settings args, writes summary per replicate to out.ensemble
+	public static void run(String[] args) {
+		Parameters.s.apply(Parameters.SimulationParameters.class);
+		Parameters.s.apply(Random.class);
+		int replicates = Parameters.EnsembleParameters.replicates;
+		int threads = Parameters.EnsembleParameters.ensembleThreads > 0 ? Parameters.EnsembleParameters.ensembleThreads : Runtime.getRuntime().availableProcessors();
+		int seed = Random.seed != null ? Random.seed : MersenneTwister.DEFAULT_SEED;
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, replicates));
+		List<Future<Map<String,Double>>> results = new ArrayList<Future<Map<String,Double>>>();
+		for (int i = 0; i < replicates; i++) {
+			String[] replicateArgs = Arrays.copyOf(args, args.length+2);
+			replicateArgs[args.length]="seed="+(seed+i);
+			replicateArgs[args.length+1]="replicates=1";
+			final SimulationContext context = new SimulationContext(replicateArgs, Parameters.getOutputFile(Parameters.EnsembleParameters.replicateDirectory+i));
+			results.add(pool.submit(new Callable<Map<String,Double>>() {
+				public Map<String,Double> call() throws Exception {
+					return context.run();
+				}
+			}));
+		}
+		pool.shutdown();
+
+		try {
+			PrintStream ensembleStream = new PrintStream(Parameters.openOutput("out.ensemble"));
+			ensembleStream.print("replicate\tseed");
+			printSummaryHeader(ensembleStream);
+			for (int i = 0; i < replicates; i++) {
+				Map<String,Double> summary = null;
+				try {
+					summary = results.get(i).get();
+				} catch (ExecutionException ex) {
+					System.out.println("replicate " + i + " failed: " + ex.getCause());
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				System.out.printf("replicate %d inc: %f\n", i, summary != null ? summary.get("inc") : Double.NaN);
+				ensembleStream.printf("%d\t%d", i, seed+i);
+				printSummary(ensembleStream, summary);
+			}
+			ensembleStream.close();
+		} catch(IOException ex) {
+			System.out.println("Could not write to file out.ensemble!");
+			System.exit(0);
+		}
+	}
+
+	// summary columns of Simulation, ending the line
+	static void printSummaryHeader(PrintStream stream) {
+		for (String column : Simulation.SUMMARY_COLUMNS) {
+			stream.print("\t" + column);
+		}
+		stream.println();
+	}
+
+	// values of summary columns, NaN for a failed run, ending the line
+	static void printSummary(PrintStream stream, Map<String,Double> summary) {
+		for (String column : Simulation.SUMMARY_COLUMNS) {
+			stream.printf("\t%.6g", summary != null ? summary.get(column) : Double.NaN);
+		}
+		stream.println();
+	}
+
+}
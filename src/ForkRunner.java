@@ -0,0 +1,172 @@
+/* Forks of a run after burn-in (forkFile set) */
+/* Burn-in runs once in outputDirectory/burnin and is checkpointed at its end, unless restoreFile gives a checkpoint to fork from */
+/* forkFile has a line of disruption settings (and optionally endDay) per fork, each fork restores the checkpoint in its own SimulationContext */
+/* with those settings and independent random stream restoreStream=fork+1, writing to outputDirectory/forkDirectory+fork */
+/* Forks map the segment records of the checkpoint read-only and copy a segment only once they reach it, so ancestry no fork has reached is held once */
+/* Forks continue the time series and samples of a burn-in run here, forks of a given checkpoint start them afresh */
+/* out.forks gets one row per fork with its settings and the summary of the run */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ForkRunner {
+
+	private static final String CHECKPOINT = "burnin.ckpt";
+
+	// output files written during the run, which forks continue
+	private static final String[] RUN_OUTPUTS = {"out.timeseries", "out.infected", "out.immunity", "out.genotypes"};
+
+	// runs the forks of settings args, writes summary per fork to out.forks
+	public static void run(String[] args) {
+		Parameters.s.apply(Parameters.SimulationParameters.class);
+		Parameters.s.apply(Parameters.CheckpointParameters.class);
+		List<String[]> forks = readForks(Parameters.ForkParameters.forkFile);
+		int threads = Parameters.ForkParameters.forkThreads > 0 ? Parameters.ForkParameters.forkThreads : Runtime.getRuntime().availableProcessors();
+
+		String checkpoint = Parameters.CheckpointParameters.restoreFile;
+		File burnin = null;
+		if (checkpoint == null) {
+			File directory = Parameters.getOutputFile("burnin");
+			String[] burninArgs = Arrays.copyOf(args, args.length+3);
+			burninArgs[args.length]="endDay="+Parameters.SimulationParameters.burnin;
+			burninArgs[args.length+1]="checkpointFile="+CHECKPOINT;
+			burninArgs[args.length+2]="checkpointInterval=0";
+			System.out.println("burn-in to day " + Parameters.SimulationParameters.burnin);
+			try {
+				new SimulationContext(burninArgs, directory).run();
+			} catch (Exception ex) {
+				System.out.println("burn-in failed: " + ex);
+				System.exit(0);
+			}
+			checkpoint = new File(directory, CHECKPOINT).getPath();
+			if (!new File(checkpoint).exists()) {
+				System.out.println("burn-in did not reach day " + Parameters.SimulationParameters.burnin + ", no checkpoint to fork from");
+				System.exit(0);
+			}
+			burnin = directory;
+		}
+		System.out.printf("%d forks of %s\n", forks.size(), checkpoint);
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, forks.size()));
+		List<Future<Map<String,Double>>> results = new ArrayList<Future<Map<String,Double>>>();
+		for (int i = 0; i < forks.size(); i++) {
+			String[] settings = forks.get(i);
+			String[] forkArgs = Arrays.copyOf(args, args.length+settings.length+2);
+			System.arraycopy(settings, 0, forkArgs, args.length, settings.length);
+			forkArgs[args.length+settings.length]="restoreFile="+checkpoint;
+			forkArgs[args.length+settings.length+1]="restoreStream="+(i+1);
+			File directory = Parameters.getOutputFile(Parameters.ForkParameters.forkDirectory+i);
+			if (burnin != null) {
+				copyOutputs(burnin, directory);
+			}
+			final SimulationContext context = new SimulationContext(forkArgs, directory);
+			results.add(pool.submit(new Callable<Map<String,Double>>() {
+				public Map<String,Double> call() throws Exception {
+					return context.run();
+				}
+			}));
+		}
+		pool.shutdown();
+
+		try {
+			PrintStream forkStream = new PrintStream(Parameters.openOutput("out.forks"));
+			forkStream.print("fork\tsettings");
+			EnsembleRunner.printSummaryHeader(forkStream);
+			for (int i = 0; i < forks.size(); i++) {
+				Map<String,Double> summary = null;
+				try {
+					summary = results.get(i).get();
+				} catch (ExecutionException ex) {
+					System.out.println("fork " + i + " failed: " + ex.getCause());
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				System.out.printf("fork %d inc: %f\n", i, summary != null ? summary.get("inc") : Double.NaN);
+				forkStream.printf("%d\t%s", i, join(forks.get(i)));
+				EnsembleRunner.printSummary(forkStream, summary);
+			}
+			forkStream.close();
+		} catch(IOException ex) {
+			System.out.println("Could not write to file out.forks!");
+			System.exit(0);
+		}
+	}
+
+	// output files of the burn-in run in from, for a fork in directory to continue
+	private static void copyOutputs(File from, File directory) {
+		directory.mkdirs();
+		for (String name : RUN_OUTPUTS) {
+			File file = new File(from, name);
+			if (!file.exists()) {
+				continue;
+			}
+			try {
+				Files.copy(file.toPath(), new File(directory, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException ex) {
+				System.out.println("Could not copy " + file + " to " + directory + "!");
+				System.exit(0);
+			}
+		}
+	}
+
+	// settings of each fork in forkFile, a line per fork
+	private static List<String[]> readForks(String forkFile) {
+		List<String[]> forks = new ArrayList<String[]>();
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(forkFile));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] settings = line.split("\\s+");
+				for (String setting : settings) {
+					String[] pieces = setting.split("=");
+					if (pieces.length != 2 || !isForkSetting(pieces[0])) {
+						System.out.println("Could not fork with " + setting + ", expected disruption setting or endDay as setting=value");
+						System.exit(0);
+					}
+				}
+				forks.add(settings);
+			}
+			reader.close();
+		} catch(IOException ex) {
+			System.out.println("Could not read fork file " + forkFile + "!");
+			System.exit(0);
+		}
+		if (forks.isEmpty()) {
+			System.out.println("No forks in " + forkFile);
+			System.exit(0);
+		}
+		return forks;
+	}
+
+	// settings a restored run takes from its own arguments rather than the checkpoint
+	private static boolean isForkSetting(String name) {
+		return name.equalsIgnoreCase("endDay") || Settings.getSettingField(Parameters.DisruptionParameters.class, name) != null;
+	}
+
+	private static String join(String[] settings) {
+		StringBuilder sb = new StringBuilder();
+		for (String setting : settings) {
+			sb.append(sb.length() > 0 ? "," : "").append(setting);
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,3 @@
+/* Random number generator, see Random.generator */
+
+enum GeneratorType {MERSENNE_TWISTER, SPLITMIX};
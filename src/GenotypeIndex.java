@@ -0,0 +1,324 @@
+/* Index from genotype to the infections carrying it, kept up to date as hosts are infected, cleared, mutated and given introduced segments */
+/* Kept only with genotypeIndex, for current infections and not for the reservoir, and printed to out.genotypes with out.timeseries */
+/* A genotype key packs per-locus allele ids into a long, 64/nSegments bits per locus */
+/* Allele ids are small per-locus numbers given to segment numbers while an indexed infection carries them, and are reused once none does */
+/* If a locus has more alleles in circulation than its bits can hold the index is switched off for the rest of the run */
+
+import java.util.Arrays;
+
+public class GenotypeIndex {
+
+	// infections carrying a genotype, removal moves the last infection to the vacated slot
+	public static class Genotype {
+		private long key;
+		private int number;		// position among the genotypes of the index
+		private Host[] hosts = new Host[4];
+		private Virus[] viruses = new Virus[4];
+		private int size = 0;
+
+		Genotype(long key_, int number_) {
+			key=key_;
+			number=number_;
+		}
+
+		public long getKey() {
+			return key;
+		}
+
+		// number of infections with this genotype
+		public int size() {
+			return size;
+		}
+
+		public Host getHost(int i) {
+			return hosts[i];
+		}
+
+		public Virus getVirus(int i) {
+			return viruses[i];
+		}
+
+		private void add(Host h, Virus v) {
+			if (size == hosts.length) {
+				hosts = Arrays.copyOf(hosts, size*2);
+				viruses = Arrays.copyOf(viruses, size*2);
+			}
+			hosts[size] = h;
+			viruses[size] = v;
+			v.setGenotype(this, size);
+			size++;
+		}
+
+		private void remove(int slot) {
+			size--;
+			hosts[slot] = hosts[size];
+			viruses[slot] = viruses[size];
+			viruses[slot].setGenotype(this, slot);
+			hosts[size] = null;
+			viruses[size] = null;
+		}
+	}
+
+	// open addressing table from long keys to non-negative ints, removal shifts later entries of a probe sequence back
+	private static class Table {
+		private long[] keys = new long[16];
+		private int[] values = new int[16];	// -1 for empty slots
+		private int size = 0;
+
+		Table() {
+			Arrays.fill(values, -1);
+		}
+
+		// -1 if key is not in the table
+		int get(long key) {
+			int mask = keys.length - 1;
+			for (int slot = slot(key, mask); values[slot] >= 0; slot = (slot + 1) & mask) {
+				if (keys[slot] == key) {
+					return values[slot];
+				}
+			}
+			return -1;
+		}
+
+		void put(long key, int value) {
+			if (2*(size + 1) > keys.length) {
+				grow();
+			}
+			int mask = keys.length - 1;
+			int slot = slot(key, mask);
+			while (values[slot] >= 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			if (values[slot] < 0) {
+				size++;
+			}
+			keys[slot] = key;
+			values[slot] = value;
+		}
+
+		void remove(long key) {
+			int mask = keys.length - 1;
+			int hole = slot(key, mask);
+			while (values[hole] >= 0 && keys[hole] != key) {
+				hole = (hole + 1) & mask;
+			}
+			if (values[hole] < 0) {
+				return;
+			}
+			size--;
+			// entries after the hole move into it unless their probe sequence starts after it
+			for (int slot = (hole + 1) & mask; values[slot] >= 0; slot = (slot + 1) & mask) {
+				int home = slot(keys[slot], mask);
+				if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+					keys[hole] = keys[slot];
+					values[hole] = values[slot];
+					hole = slot;
+				}
+			}
+			values[hole] = -1;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length*2];
+			values = new int[oldKeys.length*2];
+			Arrays.fill(values, -1);
+			size = 0;
+			for (int slot = 0; slot < oldKeys.length; slot++) {
+				if (oldValues[slot] >= 0) {
+					put(oldKeys[slot], oldValues[slot]);
+				}
+			}
+		}
+
+		private static int slot(long key, int mask) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h >>> 32) & mask;
+		}
+	}
+
+	private static boolean enabled = false;
+	private static int nLoci = 0;
+	private static int bitsPerLocus = 0;
+	private static Table numbers;						// genotype key to position in genotypes
+	private static Genotype[] genotypes;
+	private static int numGenotypes = 0;
+
+	// allele ids per locus
+	private static Table[] alleleIds;					// segment number to allele id
+	private static int[][] alleleSegmentNumbers;		// allele id to segment number
+	private static int[][] alleleCounts;				// indexed infections carrying each allele id
+	private static int[][] freeIds;
+	private static int[] numFreeIds;
+	private static int[] nextIds;
+
+	public static void init() {
+		nLoci = Parameters.SegmentParameters.nSegments;
+		bitsPerLocus = 64 / Math.max(nLoci, 1);
+		enabled = Parameters.SamplingParameters.genotypeIndex && bitsPerLocus > 0;
+		numbers = null;
+		genotypes = null;
+		numGenotypes = 0;
+		alleleIds = null;
+		if (!enabled) {
+			return;
+		}
+		numbers = new Table();
+		genotypes = new Genotype[16];
+		alleleIds = new Table[nLoci];
+		alleleSegmentNumbers = new int[nLoci][];
+		alleleCounts = new int[nLoci][];
+		freeIds = new int[nLoci][];
+		numFreeIds = new int[nLoci];
+		nextIds = new int[nLoci];
+		for (int locus = 0; locus < nLoci; locus++) {
+			alleleIds[locus] = new Table();
+			alleleSegmentNumbers[locus] = new int[16];
+			alleleCounts[locus] = new int[16];
+			freeIds[locus] = new int[16];
+		}
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	// genotypes carried by at least one infection, in no particular order
+	public static int getNumGenotypes() {
+		return numGenotypes;
+	}
+
+	public static Genotype getGenotype(int i) {
+		return genotypes[i];
+	}
+
+	// number of infections carrying the genotype with key
+	public static int getPrevalence(long key) {
+		int number = enabled ? numbers.get(key) : -1;
+		return number < 0 ? 0 : genotypes[number].size();
+	}
+
+	// segment number of the allele at locus of a genotype key
+	public static int getSegmentNumber(long key, int locus) {
+		int id = (int) ((key >>> (locus*bitsPerLocus)) & mask());
+		return alleleSegmentNumbers[locus][id];
+	}
+
+	// index infection v of host h
+	public static void add(Host h, Virus v) {
+		if (!enabled) {
+			return;
+		}
+		Segment[] segments = v.getAncestralSegments();
+		long key = 0;
+		for (int locus = 0; locus < nLoci; locus++) {
+			int id = retainAllele(locus, segments[locus].getSegmentNumber());
+			if (id < 0) {
+				disable(locus);
+				return;
+			}
+			key |= ((long) id) << (locus*bitsPerLocus);
+		}
+		int number = numbers.get(key);
+		if (number < 0) {
+			if (numGenotypes == genotypes.length) {
+				genotypes = Arrays.copyOf(genotypes, numGenotypes*2);
+			}
+			number = numGenotypes++;
+			genotypes[number] = new Genotype(key, number);
+			numbers.put(key, number);
+		}
+		genotypes[number].add(h, v);
+	}
+
+	// drop infection v from the index, before it is released by its host
+	public static void remove(Virus v) {
+		Genotype g = v.getGenotype();
+		if (!enabled || g == null) {
+			return;
+		}
+		g.remove(v.getGenotypeSlot());
+		v.setGenotype(null, 0);
+		if (g.size() == 0) {
+			// the last genotype takes its position
+			numbers.remove(g.key);
+			numGenotypes--;
+			if (g.number < numGenotypes) {
+				Genotype last = genotypes[numGenotypes];
+				last.number = g.number;
+				genotypes[last.number] = last;
+				numbers.put(last.key, last.number);
+			}
+			genotypes[numGenotypes] = null;
+		}
+		for (int locus = 0; locus < nLoci; locus++) {
+			releaseAllele(locus, (int) ((g.key >>> (locus*bitsPerLocus)) & mask()));
+		}
+	}
+
+	// a row per genotype with its number of infections and the segment numbers of its alleles
+	public static void print(AsyncOutput out) {
+		if (!enabled) {
+			return;
+		}
+		for (int g = 0; g < numGenotypes; g++) {
+			Genotype genotype = genotypes[g];
+			out.print(Parameters.getDate(), 4).print('\t').print(genotype.size());
+			for (int locus = 0; locus < nLoci; locus++) {
+				out.print(locus == 0 ? '\t' : ',').print(getSegmentNumber(genotype.key, locus));
+			}
+			out.println();
+		}
+	}
+
+	private static long mask() {
+		return bitsPerLocus == 64 ? -1L : (1L << bitsPerLocus) - 1;
+	}
+
+	// id of segment number at locus, given a new id if no indexed infection carries it, -1 if ids at locus are exhausted
+	private static int retainAllele(int locus, int segmentNumber) {
+		int id = alleleIds[locus].get(segmentNumber);
+		if (id < 0) {
+			if (numFreeIds[locus] > 0) {
+				numFreeIds[locus]--;
+				id = freeIds[locus][numFreeIds[locus]];
+			}
+			else {
+				if (bitsPerLocus < 31 && nextIds[locus] >= (1 << bitsPerLocus)) {
+					return -1;
+				}
+				id = nextIds[locus]++;
+				if (id >= alleleCounts[locus].length) {
+					alleleCounts[locus] = Arrays.copyOf(alleleCounts[locus], alleleCounts[locus].length*2);
+					alleleSegmentNumbers[locus] = Arrays.copyOf(alleleSegmentNumbers[locus], alleleSegmentNumbers[locus].length*2);
+				}
+			}
+			alleleIds[locus].put(segmentNumber, id);
+			alleleSegmentNumbers[locus][id] = segmentNumber;
+		}
+		alleleCounts[locus][id]++;
+		return id;
+	}
+
+	private static void releaseAllele(int locus, int id) {
+		alleleCounts[locus][id]--;
+		if (alleleCounts[locus][id] == 0) {
+			alleleIds[locus].remove(alleleSegmentNumbers[locus][id]);
+			if (numFreeIds[locus] == freeIds[locus].length) {
+				freeIds[locus] = Arrays.copyOf(freeIds[locus], freeIds[locus].length*2);
+			}
+			freeIds[locus][numFreeIds[locus]] = id;
+			numFreeIds[locus]++;
+		}
+	}
+
+	private static void disable(int locus) {
+		System.out.println("genotype index switched off, more than " + (1L << bitsPerLocus) + " alleles circulating at locus " + locus);
+		enabled = false;
+		numbers = null;
+		genotypes = null;
+		numGenotypes = 0;
+	}
+
+}
@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -5,7 +6,7 @@ public class Host {
 
 	// fields
 	private List<Virus> infectingViruses = new ArrayList<Virus>();												
-	private ImmuneSystem immuneSystem = new ImmuneSystemDiscrete();
+	private ImmuneSystem immuneSystem = newImmuneSystem();
 	private int birth;	// measured in years relative to Parameters.SimulationParameters.burnin	
 
 
@@ -14,23 +15,56 @@ public class Host {
 	// generate initial naive host
 	public Host(boolean bornOld) {
 		if (bornOld) {
-			float lifespan = (float) (1 / (365.0 * Parameters.DemographicParameters.birthRate));
-			float age = (float) Random.nextExponential(lifespan);
-			birth = (int) (Parameters.getDay() - age*365);
+			birth = randomBirth();
 		}
 		else {
 			birth = Parameters.getDay();
 		}
 	}
 
+	// host with given birth day and immune system, used when materializing hosts from compact storage
+	public Host(int birth_, ImmuneSystem immuneSystem_) {
+		birth = birth_;
+		immuneSystem = immuneSystem_;
+	}
+
+	// birth day drawn from the demographic age distribution
+	public static int randomBirth() {
+		return randomBirth(Random.getStream());
+	}
+
+	public static int randomBirth(RandomStream rng) {
+		float lifespan = (float) (1 / (365.0 * Parameters.DemographicParameters.birthRate));
+		float age = (float) rng.nextExponential(lifespan);
+		return (int) (Parameters.getDay() - age*365);
+	}
+
+	public static ImmuneSystem newImmuneSystem() {
+		switch (ImmuneSystemDiscrete.ImmunityParameters.immuneSystemType) {
+		case KERNEL :
+			return new ImmuneSystemKernel();
+		case DISCRETE :
+		default :
+			return new ImmuneSystemDiscrete();
+		}
+	}
+
 	// recycle host 
 	public void reset() {
 		birth = Parameters.getDay();
+		for (Virus v : infectingViruses) {
+			GenotypeIndex.remove(v);
+			v.release();
+		}
 		infectingViruses.clear();
 		immuneSystem.reset();
 	}
 
 	// METHODS
+	public int getBirth() {
+		return birth;
+	}
+
 	public float getBirthInYears() {
 		return ((float)birth-Parameters.SimulationParameters.burnin)/(float)365.0;
 	}
@@ -48,8 +82,19 @@ public class Host {
 	}
 
 	public void infect(Virus infectingVirus_) {
+		GenotypeIndex.add(this, carry(infectingVirus_));
+	}
+
+	// infect a reservoir host, which is not a circulating infection and is left out of the genotype index
+	public void infectReservoir(Virus infectingVirus_) {
+		carry(infectingVirus_);
+	}
+
+	private Virus carry(Virus infectingVirus_) {
 		float hostAge = Parameters.getDate() - (((float)birth-Parameters.SimulationParameters.burnin)/(float)365.0);
-		infectingViruses.add(new Virus(infectingVirus_,hostAge));			
+		Virus v = new Virus(infectingVirus_,hostAge);
+		infectingViruses.add(v);
+		return v;
 	}
 
 	public void addToImmuneHistory(Virus immunizingVirus_) {
@@ -59,6 +104,8 @@ public class Host {
 	public void clearInfections() {
 		for (Virus v : infectingViruses) {
 			immuneSystem.add(v);
+			GenotypeIndex.remove(v);
+			v.release();
 		}
 		infectingViruses.clear();		
 	}
@@ -83,25 +130,33 @@ public class Host {
 	public void mutate() {
 		// TODO: What to do with mutation under coinfection? assume the same viral load? double the viral load?
 		int infectingVirusToMutate = Random.nextInt(0, infectingViruses.size()-1);
-		infectingViruses.set(infectingVirusToMutate, infectingViruses.get(infectingVirusToMutate).mutate());
+		replace(infectingVirusToMutate, infectingViruses.get(infectingVirusToMutate).mutate());
 
 	}
 	
 	public void introduce() {
 		// TODO: What to do with mutation under coinfection? assume the same viral load? double the viral load?
 		int infectingVirusToReplace = Random.nextInt(0, infectingViruses.size()-1);
-		infectingViruses.set(infectingVirusToReplace, infectingViruses.get(infectingVirusToReplace).introduce());
+		replace(infectingVirusToReplace, infectingViruses.get(infectingVirusToReplace).introduce());
 
 	}
 	
 	public void reintroduce() {
 		// TODO: What to do with mutation under coinfection? assume the same viral load? double the viral load?
 		int infectingVirusToReplace = Random.nextInt(0, infectingViruses.size()-1);
-		infectingViruses.set(infectingVirusToReplace, infectingViruses.get(infectingVirusToReplace).reintroduce());
+		replace(infectingVirusToReplace, infectingViruses.get(infectingVirusToReplace).reintroduce());
 
 	}
 	
 
+	// replace the infection at index i, keeping the genotype index up to date
+	private void replace(int i, Virus v) {
+		Virus old = infectingViruses.set(i, v);
+		GenotypeIndex.remove(old);
+		old.release();
+		GenotypeIndex.add(this, v);
+	}
+
 	public ImmuneSystem getImmuneSystem() {
 		return immuneSystem;
 	}
@@ -114,6 +169,27 @@ public class Host {
 		return immuneSystem.riskOfTransmission(v);
 	}
 
+	// checkpoint record, infecting viruses must have been written before
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(birth);
+		immuneSystem.write(out);
+		out.writeInt(infectingViruses.size());
+		for (Virus v : infectingViruses) {
+			out.writeRef(v);
+		}
+	}
+
+	// infections are not added to the genotype index, as the host may be in the reservoir
+	public static Host read(CheckpointInput in) throws IOException {
+		Host h = new Host(in.readInt(), newImmuneSystem());
+		h.immuneSystem.read(in);
+		int numInfections = in.readInt();
+		for (int i = 0; i < numInfections; i++) {
+			h.infectingViruses.add((Virus) in.readRef());
+		}
+		return h;
+	}
+
 
 
 }
\ No newline at end of file
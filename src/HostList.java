@@ -0,0 +1,72 @@
+/* Host pool backed by a list of Host objects */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class HostList extends AbstractHostPool {
+
+	private List<Host> hosts = new ArrayList<Host>();
+
+	public int size() {
+		return hosts.size();
+	}
+
+	public Host get(int i) {
+		return hosts.get(i);
+	}
+
+	public void add(Host h) {
+		hosts.add(h);
+	}
+
+	public Host remove(int i) {
+		// remove by moving last host to location i, and than shortening ArrayList
+		Host h = hosts.get(i);
+		hosts.set(i, hosts.get(hosts.size()-1));
+		hosts.remove(hosts.size()-1);
+		return h;
+	}
+
+	public void transfer(int i, HostPool to) {
+		to.add(remove(i));
+	}
+
+	public void clear() {
+		hosts.clear();
+	}
+
+	public double riskOfInfection(int i, Virus v) {
+		return hosts.get(i).riskOfInfection(v);
+	}
+
+	public void addToImmuneHistory(int i, Virus v) {
+		hosts.get(i).addToImmuneHistory(v);
+	}
+
+	public void reset(int i) {
+		hosts.get(i).reset();
+	}
+
+	public void forget(BitSet indices) {
+		for (Host h : hosts) {
+			h.getImmuneSystem().forget(indices);
+		}
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(hosts.size());
+		for (Host h : hosts) {
+			h.write(out);
+		}
+	}
+
+	public void read(CheckpointInput in) throws IOException {
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			hosts.add(Host.read(in));
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+/* A compartment of hosts (susceptibles or recoverds) that is sampled and updated by index */
+/* Removal moves the last host to the vacated index, so indices are only stable until the next removal */
+
+import java.io.IOException;
+import java.util.BitSet;
+
+public interface HostPool {
+
+	int size();
+
+	// host at index i, compact stores return a materialized copy, changes to which are not stored back
+	Host get(int i);
+
+	void add(Host h);
+
+	// add a naive host born on day birth
+	void addNaive(int birth);
+
+	// add hosts born on births[from,to) with immune states states[from,to), equal states may be one object, which is copied where hosts hold their own
+	void addAll(int[] births, ImmuneSystem[] states, int from, int to);
+
+	// remove host at index i and return it
+	Host remove(int i);
+
+	// move host at index i to another pool
+	void transfer(int i, HostPool to);
+
+	void clear();
+
+	double riskOfInfection(int i, Virus v);
+
+	void addToImmuneHistory(int i, Virus v);
+
+	// recycle host at index i as a naive newborn
+	void reset(int i);
+
+	// recycle n randomly drawn hosts (with replacement) as naive newborns
+	void resetRandom(int n);
+
+	// move n randomly drawn hosts (without replacement) to another pool, optionally as naive newborns
+	void transferRandom(int n, HostPool to, boolean reset);
+
+	void transferAll(HostPool to);
+
+	// remove n randomly drawn hosts (without replacement)
+	void removeRandom(int n);
+
+	// drop immune memory of alleles at the given immune indices from all hosts, pools sharing an immune state table may all be called
+	void forget(BitSet indices);
+
+	// hosts of the pool for checkpoints, immune state tables are written by their owner
+	void write(CheckpointOutput out) throws IOException;
+
+	// add the hosts written by write, to an empty pool
+	void read(CheckpointInput in) throws IOException;
+
+	// release storage held outside the java heap now rather than when collected, the pool is not used afterwards
+	void close();
+
+}
@@ -7,13 +7,42 @@ import java.io.*;
 
 public class HostPopulation {
 
+	// event channels, single events of the daily phases for engines that simulate one event at a time
+	// BIRTH adds a new host, BIRTH_S/I/R recycle a host of that class as a newborn (swapDemography)
+	public static final int BIRTH = 0;
+	public static final int BIRTH_S = 1;
+	public static final int BIRTH_I = 2;
+	public static final int BIRTH_R = 3;
+	public static final int DEATH_S = 4;
+	public static final int DEATH_I = 5;
+	public static final int DEATH_R = 6;
+	public static final int CONTACT_S = 7;
+	public static final int CONTACT_I = 8;
+	public static final int RECOVER = 9;
+	public static final int LOSE_IMMUNITY = 10;
+	public static final int MUTATE = 11;
+	public static final int INTRODUCE = 12;
+	public static final int REINTRODUCE = 13;
+	public static final int CONTACT_RESERVOIR_S = 14;
+	public static final int CONTACT_RESERVOIR_I = 15;
+	public static final int SAMPLE_INFECTED = 16;
+	public static final int SAMPLE_IMMUNITY = 17;
+	public static final int SAMPLE_TIP = 18;
+	public static final int NUM_CHANNELS = 19;
+
 
 	private int cases;	// number of cases from last count, doesn't effect dynamics 
+	private double stepSize = 1;	// length of the current step in days, scales all event rates
+	private double infectionProbability = 1;	// proportion of S-I contacts that led to infection in the last step, for leap sizes
+	private double[] remainders = new double[NUM_CHANNELS];	// fractional events carried over by deterministic flows
+	private ParallelContactPhase parallelContact = null;	// when contactMode is PARALLEL
+	private BatchedContactPhase batchedContact = new BatchedContactPhase();
 
 	// major classes
-	private List<Host> susceptibles = new ArrayList<Host>(); 
+	private ImmuneStateTable immuneStates = null;	// shared by susceptibles and recoverds in COMPACT, OFF_HEAP and COHORT stores
+	private HostPool susceptibles = new HostList(); 
 	private List<Host> infecteds = new ArrayList<Host>(); // including superinfecteds
-	private List<Host> recoverds = new ArrayList<Host>(); // fully protected  
+	private HostPool recoverds = new HostList(); // fully protected  
 
 	// strain reservoir
 	private List<Host> initialStrainReservoir = new ArrayList<Host>();
@@ -21,6 +50,7 @@ public class HostPopulation {
 	// host samples
 	private InfectedHostSamples infectedHostSamples = new InfectedHostSamples();
 	private HostsForImmunitySamples hostsForImmunitySamples = new HostsForImmunitySamples();
+	private AsyncOutput genotypeStream = null;	// out.genotypes, when Parameters.SamplingParameters.genotypeIndex
 
 	// Vaccine composition
 //	private HashMap<BitSet,Pair<Virus,Integer>> strainTallyForVaccineComposition = new HashMap<BitSet,Pair<Virus,Integer>>();	
@@ -46,23 +76,33 @@ public class HostPopulation {
 //		}
 	}
 
-	// close sample lists
+	// close sample lists and host stores
 	public void close() {
 		infectedHostSamples.close();
 		hostsForImmunitySamples.close();				
+		closeGenotypeStream();
+		susceptibles.close();
+		recoverds.close();
+		if (parallelContact != null) {
+			parallelContact.close();
+			parallelContact = null;
+		}
 	}
 
 	// reset population to factory condition
 	public void reset() {
 
+		infectionProbability = 1;
+		Arrays.fill(remainders, 0);
+		startContactPhase();
+
 		// samples
 		infectedHostSamples.reset();
 		hostsForImmunitySamples.reset();		
+		openGenotypeStream();
 
 		// clearing lists
-		susceptibles.clear();
-		infecteds.clear();
-		recoverds.clear();
+		clear();
 //		strainTallyForVaccineComposition.clear();
 //		segmentTallyForVaccineComposition.clear();
 //		vaccineComposition.clear();
@@ -72,19 +112,28 @@ public class HostPopulation {
 		if (Parameters.ReservoirParameters.proportionContactWithReservoir>0) {					
 			for (Virus v : Parameters.getInitialViruses()) {
 				Host h = new Host(true);
-				h.infect(v);
+				h.infectReservoir(v);
 				initialStrainReservoir.add(h);
 			}
 		}
 
+		if (Parameters.EpidemiologicalParameters.initialState == InitialStateType.EQUILIBRIUM) {
+			addEquilibriumHosts();
+			return;
+		}
+
 		// fill population with susceptibles
 		int initialS = Parameters.DemographicParameters.N;
 		initialS -= Parameters.EpidemiologicalParameters.initialI; // minus initial number of infected
 
+		if (Parameters.SimulationParameters.constructionThreads > 1) {
+			addSusceptiblesInParallel(initialS);
+			return;
+		}
+
 		for (int i = 0; i < initialS; i++) {			
 			if (i%5000000 == 0 ) System.out.println("adding hosts: " + i + " out of " + initialS); 	// display											
-			Host h = new Host(true);			
-			susceptibles.add(h);	
+			susceptibles.addNaive(Host.randomBirth());
 		}
 		System.out.println("finished constructing " + initialS + " initial susceptible hosts\n"); // display
 
@@ -99,11 +148,229 @@ public class HostPopulation {
 		// add initial immune history to some individuals
 		for (int i = 0; i < Math.round(Parameters.EpidemiologicalParameters.initialPrR*Parameters.DemographicParameters.N); i++) {
 			if (i%5000000 == 0 ) System.out.println("adding immune history: " + i + " out of " + Math.round(Parameters.EpidemiologicalParameters.initialPrR*Parameters.DemographicParameters.N)); 	// display		
-			getRandomHost().addToImmuneHistory(Parameters.getInitialViruses().get(Random.nextInt(0, Parameters.getInitialViruses().size()-1)));
+			addToRandomHostImmuneHistory();
 		}		
 		System.out.println("finished immunizing " +Math.round(Parameters.EpidemiologicalParameters.initialPrR*Parameters.DemographicParameters.N) + " hosts\n"); // display
 	}
 
+	// initialS susceptibles built in parallel blocks, initial immune histories go to the initial infecteds in proportion to their number and are spread over the susceptibles otherwise
+	private void addSusceptiblesInParallel(int initialS) {
+		int additions = (int) Math.round(Parameters.EpidemiologicalParameters.initialPrR*Parameters.DemographicParameters.N);
+		int infectedAdditions = Random.nextBinomial(additions, (double) Parameters.EpidemiologicalParameters.initialI / Parameters.DemographicParameters.N);
+		PopulationBuilder.addSusceptibles(susceptibles, initialS, additions - infectedAdditions, Parameters.SimulationParameters.constructionThreads);
+		System.out.println("finished constructing " + initialS + " initial susceptible hosts with " + (additions - infectedAdditions) + " immune history additions\n"); // display
+
+		for (int i = 0; i < Parameters.EpidemiologicalParameters.initialI; i++) {
+			Host h = new Host(true);
+			h.infect(getRandomInitialVirus());
+			infecteds.add(h);
+		}
+		for (int i = 0; i < infectedAdditions; i++) {
+			getRandomHostI().addToImmuneHistory(getRandomInitialVirus());
+		}
+		System.out.println("finished constructing " + Parameters.EpidemiologicalParameters.initialI + " infected hosts\n"); // display
+	}
+
+	// hosts in proportion to the endemic equilibrium by number of previous infections, immune histories and infections drawn from the initial viruses
+	private void addEquilibriumHosts() {
+		EndemicEquilibrium equilibrium = new EndemicEquilibrium(Parameters.getInitialViruses());
+		int classes = EndemicEquilibrium.MAX_INFECTIONS+1;
+		double[] proportions = new double[3*classes];
+		for (int n = 0; n < classes; n++) {
+			proportions[n] = equilibrium.getS(n);
+			proportions[classes+n] = equilibrium.getI(n);
+			proportions[2*classes+n] = equilibrium.getR(n);
+		}
+		int[] counts = apportion(Parameters.DemographicParameters.N, proportions);
+		int initialI = 0;
+		for (int n = 0; n < classes; n++) {
+			initialI += counts[classes+n];
+		}
+		if (initialI == 0) {
+			System.out.println("no endemic equilibrium, infecting " + Parameters.EpidemiologicalParameters.initialI + " naive hosts"); // display
+			counts[classes] = Parameters.EpidemiologicalParameters.initialI;
+			counts[0] -= Parameters.EpidemiologicalParameters.initialI;
+		}
+
+		for (int c = 0; c < counts.length; c++) {
+			int n = c % classes;
+			for (int k = 0; k < counts[c]; k++) {
+				Host h = new Host(true);
+				for (int m = 0; m < n; m++) {
+					h.addToImmuneHistory(getRandomInitialVirus());
+				}
+				if (c < classes) {
+					susceptibles.add(h);
+				}
+				else if (c < 2*classes) {
+					h.infect(getRandomInitialVirus());
+					infecteds.add(h);
+				}
+				else {
+					recoverds.add(h);
+				}
+			}
+		}
+		System.out.println("finished constructing " + getS() + " susceptible, " + getI() + " infected and " + getR() + " recovered hosts at equilibrium\n"); // display
+	}
+
+	// whole numbers summing to total in the given proportions, largest remainders rounded up
+	private static int[] apportion(int total, final double[] proportions) {
+		int[] counts = new int[proportions.length];
+		final double[] fractions = new double[proportions.length];
+		Integer[] order = new Integer[proportions.length];
+		int left = total;
+		for (int c = 0; c < proportions.length; c++) {
+			counts[c] = (int) Math.floor(proportions[c]*total);
+			fractions[c] = proportions[c]*total - counts[c];
+			order[c] = c;
+			left -= counts[c];
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(fractions[b], fractions[a]);
+			}
+		});
+		for (int k = 0; k < left; k++) {
+			counts[order[k % order.length]]++;
+		}
+		return counts;
+	}
+
+	// empty compartments in the configured host store
+	private void clear() {
+		susceptibles.close();
+		recoverds.close();
+		switch (Parameters.DemographicParameters.hostStore) {
+		case COMPACT :
+			immuneStates = new ImmuneStateTable();
+			susceptibles = new CompactHostPool(immuneStates, Parameters.DemographicParameters.N);
+			recoverds = new CompactHostPool(immuneStates, 0);
+			break;
+		case OFF_HEAP :
+			immuneStates = new ImmuneStateTable();
+			susceptibles = new OffHeapHostPool(immuneStates, Parameters.DemographicParameters.N, Parameters.DemographicParameters.offHeapDirectory);
+			recoverds = new OffHeapHostPool(immuneStates, 0, Parameters.DemographicParameters.offHeapDirectory);
+			break;
+		case COHORT :
+			immuneStates = new ImmuneStateTable();
+			susceptibles = new CohortHostPool(immuneStates);
+			recoverds = new CohortHostPool(immuneStates);
+			break;
+		case OBJECTS :
+		default :
+			immuneStates = null;
+			susceptibles = new HostList();
+			recoverds = new HostList();
+			break;
+		}
+		if (Parameters.DemographicParameters.lazyNaiveHosts && Parameters.DemographicParameters.hostStore != HostStoreType.COHORT) {
+			susceptibles = new NaiveHostPool(susceptibles);
+		}
+		infecteds.clear();
+		GenotypeIndex.init();
+	}
+
+	private void startContactPhase() {
+		boolean parallel = Parameters.SimulationParameters.contactMode == ContactType.PARALLEL;
+		int threads = Math.max(1, Parameters.SimulationParameters.contactThreads);
+		if (parallelContact != null && (!parallel || parallelContact.getThreads() != threads)) {
+			parallelContact.close();
+			parallelContact = null;
+		}
+		if (parallelContact == null && parallel) {
+			parallelContact = new ParallelContactPhase(threads);
+		}
+	}
+
+	// compartments and step state for checkpoints, viruses of infections must have been written before
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(cases);
+		out.writeDouble(stepSize);
+		out.writeDouble(infectionProbability);
+		out.writeDoubles(remainders, 0, remainders.length);
+		if (immuneStates != null) {
+			immuneStates.write(out);
+		}
+		susceptibles.write(out);
+		recoverds.write(out);
+		for (List<Host> hosts : Arrays.asList(infecteds, initialStrainReservoir)) {
+			out.writeInt(hosts.size());
+			for (Host h : hosts) {
+				h.write(out);
+			}
+		}
+	}
+
+	// population as written by write, in place of reset()
+	public void restore(CheckpointInput in) throws IOException {
+		startContactPhase();
+		infectedHostSamples.reset();
+		hostsForImmunitySamples.reset();
+		openGenotypeStream();
+		clear();
+		initialStrainReservoir.clear();
+		cases = in.readInt();
+		stepSize = in.readDouble();
+		infectionProbability = in.readDouble();
+		in.readDoubles(remainders, 0, remainders.length);
+		if (immuneStates != null) {
+			immuneStates.read(in);
+		}
+		susceptibles.read(in);
+		recoverds.read(in);
+		for (List<Host> hosts : Arrays.asList(infecteds, initialStrainReservoir)) {
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				hosts.add(Host.read(in));
+			}
+		}
+		for (Host h : infecteds) {
+			for (Virus v : h.getInfections()) {
+				GenotypeIndex.add(h, v);
+			}
+		}
+	}
+
+	// write out buffered samples, before output files are measured for a checkpoint
+	public void flush() {
+		infectedHostSamples.flush();
+		hostsForImmunitySamples.flush();
+		if (genotypeStream != null) {
+			genotypeStream.flush();
+		}
+	}
+
+	// prevalence of current genotypes to out.genotypes
+	public void printGenotypes() {
+		if (genotypeStream != null && Parameters.getDay() > Parameters.SimulationParameters.burnin) {
+			GenotypeIndex.print(genotypeStream);
+		}
+	}
+
+	private void openGenotypeStream() {
+		closeGenotypeStream();
+		if (!Parameters.SamplingParameters.genotypeIndex) {
+			return;
+		}
+		try {
+			genotypeStream = Parameters.resumeOutput("out.genotypes");
+			if (genotypeStream == null) {
+				genotypeStream = Parameters.openOutput("out.genotypes");
+				genotypeStream.print("date\tprevalence\tsegments\n");
+			}
+		} catch(IOException ex) {
+			throw new SimulationException("Could not write to file out.genotypes!", ex);
+		}
+	}
+
+	private void closeGenotypeStream() {
+		if (genotypeStream != null) {
+			genotypeStream.close();
+			genotypeStream = null;
+		}
+	}
+
 	// METHODS
 	public int getN() {
 		return susceptibles.size() + infecteds.size() + recoverds.size();
@@ -152,6 +419,28 @@ public class HostPopulation {
 			return getRandomHostR();
 	}
 
+	// add a random initial virus to the immune history of a random host
+	// same draws as getRandomHost(), but updates the host in place
+	private void addToRandomHostImmuneHistory() {
+		double n = Random.nextInt(0,getN()-1);
+		if (n <= (getS()-1)) {
+			int sndex = getRandomS();
+			susceptibles.addToImmuneHistory(sndex, getRandomInitialVirus());
+		}
+		else if (n <= (getS() + getI() - 1)) {
+			Host h = getRandomHostI();
+			h.addToImmuneHistory(getRandomInitialVirus());
+		}
+		else {
+			int index = getRandomR();
+			recoverds.addToImmuneHistory(index, getRandomInitialVirus());
+		}
+	}
+
+	private Virus getRandomInitialVirus() {
+		return Parameters.getInitialViruses().get(Random.nextInt(0, Parameters.getInitialViruses().size()-1));
+	}
+
 	public Host getRandomHostS() {
 		return susceptibles.get(Random.nextInt(0,susceptibles.size()-1));
 	}
@@ -173,9 +462,8 @@ public class HostPopulation {
 	}	
 
 	public void removeSusceptible(int i) {
-		// remove by moving last susceptible to location i, and than shortening ArrayList		
-		susceptibles.set(i, susceptibles.get(susceptibles.size()-1));
-		susceptibles.remove(susceptibles.size()-1);
+		// remove by moving last susceptible to location i		
+		susceptibles.remove(i);
 	}
 
 	public void removeInfected(int i) {	
@@ -185,14 +473,21 @@ public class HostPopulation {
 	}
 
 	public void removeRecoverd(int i) {	
-		// remove by moving last infected to location i, and than shortening ArrayList
-		recoverds.set(i, recoverds.get(recoverds.size()-1));
-		recoverds.remove(recoverds.size()-1);
+		// remove by moving last recoverd to location i
+		recoverds.remove(i);
 	}
 
 
 
-	public void stepForward() {               
+	public void stepForward() {
+		stepForward(1, true);
+	}
+
+	// advance by dt days, numbers of events are drawn from rates at the start of the step
+	// disruptions and allele censuses only happen on the first step of a day
+	public void stepForward(double dt, boolean startOfDay) {
+
+		stepSize = dt;
 
 		if (Parameters.DemographicParameters.swapDemography) {
 			swap();
@@ -212,12 +507,150 @@ public class HostPopulation {
 
 //		vaccinate(); // vaccinate individuals based on policy
 
-		disruption(); // 
+		if (startOfDay) {
+			disruption(); // 
+		}
 
 		contactReservoir();
 
 		sample(); // doesn't effect dynamics
 
+		if (startOfDay) {
+			recycleAlleles(); // doesn't effect dynamics
+		}
+
+	}
+
+	// per-day rate of each event channel, as used by the daily phases
+	public void getRates(double[] rates) {
+		boolean swap = Parameters.DemographicParameters.swapDemography;
+		double birthRate = Parameters.DemographicParameters.birthRate;
+		double deathRate = Parameters.DemographicParameters.deathRate;
+		boolean sampling = getI()>0 && Parameters.getDay() >= Parameters.SimulationParameters.burnin;
+		double reservoirContactRate = initialStrainReservoir.size()*Parameters.EpidemiologicalParameters.beta*Parameters.ReservoirParameters.proportionContactWithReservoir;
+
+		rates[BIRTH] = swap ? 0 : getN()*birthRate;
+		rates[BIRTH_S] = swap ? getS()*birthRate : 0;
+		rates[BIRTH_I] = swap ? getI()*birthRate : 0;
+		rates[BIRTH_R] = swap ? getR()*birthRate : 0;
+		rates[DEATH_S] = swap ? 0 : getS()*deathRate;
+		rates[DEATH_I] = swap ? 0 : getI()*deathRate;
+		rates[DEATH_R] = swap ? 0 : getR()*deathRate;
+		rates[CONTACT_S] = getI()*getPrS()*Parameters.EpidemiologicalParameters.beta;
+		rates[CONTACT_I] = getI()*getPrI()*Parameters.EpidemiologicalParameters.beta;
+		rates[RECOVER] = getI()*Parameters.EpidemiologicalParameters.nu;
+		rates[LOSE_IMMUNITY] = Double.isInfinite(Parameters.EpidemiologicalParameters.omega) ? 0 : getR()*Parameters.EpidemiologicalParameters.omega;
+		rates[MUTATE] = getI()*Parameters.MutationAndReassortmentParameters.mu;
+		rates[INTRODUCE] = getI()>0 ? Parameters.MutationAndReassortmentParameters.intro : 0;
+		rates[REINTRODUCE] = getI()>0 ? Parameters.ReservoirParameters.reintro : 0;
+		rates[CONTACT_RESERVOIR_S] = reservoirContactRate*getPrS();
+		rates[CONTACT_RESERVOIR_I] = reservoirContactRate*getPrI();
+		rates[SAMPLE_INFECTED] = sampling ? Parameters.SamplingParameters.infectedHostSamplingRate*getI() : 0;
+		rates[SAMPLE_IMMUNITY] = sampling ? Parameters.SamplingParameters.immunityHostSamplingRate*getN() : 0;
+		rates[SAMPLE_TIP] = sampling ? getTipSamplingRate() : 0;
+	}
+
+	// carry out a single event of the given channel
+	public void fire(int channel) {
+		switch (channel) {
+		case BIRTH : birth(); break;
+		case BIRTH_S : susceptibles.resetRandom(1); break;
+		case BIRTH_I : birthInfected(); break;
+		case BIRTH_R : recoverds.transferRandom(1, susceptibles, true); break;
+		case DEATH_S : susceptibles.removeRandom(1); break;
+		case DEATH_I : deathInfected(); break;
+		case DEATH_R : recoverds.removeRandom(1); break;
+		case CONTACT_S : contactSusceptible(); break;
+		case CONTACT_I : contactInfected(); break;
+		case RECOVER : 
+			recoverInfected(); 
+			if (Double.isInfinite(Parameters.EpidemiologicalParameters.omega)) {
+				recoverds.transferAll(susceptibles);
+			}
+			break;
+		case LOSE_IMMUNITY : recoverds.transferRandom(1, susceptibles, false); break;
+		case MUTATE : getRandomHostI().mutate(); break;
+		case INTRODUCE : getRandomHostI().introduce(); break;
+		case REINTRODUCE : getRandomHostI().reintroduce(); break;
+		case CONTACT_RESERVOIR_S : contactReservoirSusceptible(); break;
+		case CONTACT_RESERVOIR_I : contactReservoirInfected(); break;
+		case SAMPLE_INFECTED : sampleInfectedHost(); break;
+		case SAMPLE_IMMUNITY : hostsForImmunitySamples.add(getRandomHost()); break;
+		case SAMPLE_TIP : sampleTip(); break;
+		default : break;
+		}
+	}
+
+	// events that happen once a day, at its end, for engines that simulate one event at a time
+	public void endDay() {
+		disruption();
+		if (Double.isInfinite(Parameters.EpidemiologicalParameters.omega)) {
+			recoverds.transferAll(susceptibles);
+		}
+		recycleAlleles();
+	}
+
+	// number of events of a flow out of or into a compartment of the given size
+	// the expected number (carrying over fractions) while the compartment is larger than deterministicThreshold, otherwise a Poisson draw
+	// the size is that of the whole S or R compartment, immune classes within it are not tested, and contact infections do not come here
+	private int nextCount(int channel, double expected, int classSize) {
+		if (Parameters.SimulationParameters.deterministicThreshold > 0 && classSize > Parameters.SimulationParameters.deterministicThreshold) {
+			double total = expected + remainders[channel];
+			int count = (int) total;
+			remainders[channel] = total - count;
+			return count;
+		}
+		remainders[channel] = 0;
+		return Random.nextPoisson(expected);
+	}
+
+	// largest step in days for which the expected change and standard deviation of S, I and R stay within epsilon of their sizes
+	// (tau selection of Cao, Gillespie & Petzold 2006), contacts are counted as second order reactions for S and I
+	// S-I contacts change S and I at the proportion that led to infection in the last step
+	// events that leave S, I and R unchanged (I-I contacts, mutations, introductions, sampling) do not limit the step
+	public double getLeapSize(double epsilon) {
+		double s = getS();
+		double i = getI();
+		double r = getR();
+		double contactRate = i*getPrS()*Parameters.EpidemiologicalParameters.beta*infectionProbability;
+		double recoveryRate = i*Parameters.EpidemiologicalParameters.nu;
+		double waningRate = Double.isInfinite(Parameters.EpidemiologicalParameters.omega) ? 0 : r*Parameters.EpidemiologicalParameters.omega;
+
+		// mean and variance of change per day
+		double meanS = waningRate - contactRate;
+		double varS = waningRate + contactRate;
+		double meanI = contactRate - recoveryRate;
+		double varI = contactRate + recoveryRate;
+		double meanR = recoveryRate - waningRate;
+		double varR = recoveryRate + waningRate;
+		if (Parameters.DemographicParameters.swapDemography) {
+			double birthsI = i*Parameters.DemographicParameters.birthRate;
+			double birthsR = r*Parameters.DemographicParameters.birthRate;
+			meanS += birthsI + birthsR;
+			varS += birthsI + birthsR;
+			meanI -= birthsI;
+			varI += birthsI;
+			meanR -= birthsR;
+			varR += birthsR;
+		} else {
+			double births = getN()*Parameters.DemographicParameters.birthRate;
+			double deathsS = s*Parameters.DemographicParameters.deathRate;
+			double deathsI = i*Parameters.DemographicParameters.deathRate;
+			double deathsR = r*Parameters.DemographicParameters.deathRate;
+			meanS += births - deathsS;
+			varS += births + deathsS;
+			meanI -= deathsI;
+			varI += deathsI;
+			meanR -= deathsR;
+			varR += deathsR;
+		}
+
+		return Math.min(leapSize(s, 2, meanS, varS, epsilon), Math.min(leapSize(i, 2, meanI, varI, epsilon), leapSize(r, 1, meanR, varR, epsilon)));
+	}
+
+	private static double leapSize(double x, double order, double mean, double var, double epsilon) {
+		double bound = Math.max(epsilon*x/order, 1);
+		return Math.min(bound/Math.abs(mean), bound*bound/var);
 	}
 
 //	private void vaccinate() {
@@ -276,6 +709,33 @@ public class HostPopulation {
 //		}
 //	}
 
+	// forget extinct alleles so their immune indices can be reused
+	private void recycleAlleles() {
+		if (!AlleleRegistry.isDense() || Parameters.SegmentParameters.alleleCensusInterval<=0 
+				|| Parameters.getDay() % Parameters.SegmentParameters.alleleCensusInterval != 0) {
+			return;
+		}
+		BitSet live = new BitSet();
+		for (Host h : infecteds) {
+			for (Virus v : h.getInfections()) {
+				live.or(v.getImmunogenicSegmentIndices());
+			}
+		}
+		BitSet extinct = AlleleRegistry.extinct(live);
+		if (extinct.isEmpty()) {
+			return;
+		}
+		susceptibles.forget(extinct);
+		recoverds.forget(extinct);
+		for (Host h : infecteds) {
+			h.getImmuneSystem().forget(extinct);
+		}
+		for (Host h : initialStrainReservoir) {
+			h.getImmuneSystem().forget(extinct);
+		}
+		AlleleRegistry.release(extinct);
+	}
+
 	private void disruption() {
 		if (Parameters.getDay() == Parameters.DisruptionParameters.disruptionTime1) {
 			switch (Parameters.DisruptionParameters.disruptionType1) {
@@ -404,30 +864,30 @@ public class HostPopulation {
 
 	}
 
-	private void mutate() {		
+	private void mutate() {
 
 		double totalMutationRate = getI() * Parameters.MutationAndReassortmentParameters.mu;
-		int mutations = Random.nextPoisson(totalMutationRate);
+		int mutations = Random.nextPoisson(totalMutationRate*stepSize);
 		for (int i = 0; i < mutations; i++) {
 			getRandomHostI().mutate();
 		}
 	}
 	
 	
-	private void introduce() {		
+	private void introduce() {
 
 		double totalIntroRate = Parameters.MutationAndReassortmentParameters.intro;
-		int introductions = Random.nextPoisson(totalIntroRate);
-		for (int i = 0; i < introductions; i++) {
+		int introductions = Random.nextPoisson(totalIntroRate*stepSize);
+		for (int i = 0; i < introductions && getI() > 0; i++) { // none after an extinction within the step
 			getRandomHostI().introduce();
 		}
 	}
 	
-	private void reintroduce() {		
+	private void reintroduce() {
 
 		double totalReIntroRate = Parameters.ReservoirParameters.reintro;
-		int reintroductions = Random.nextPoisson(totalReIntroRate);
-		for (int i = 0; i < reintroductions; i++) {
+		int reintroductions = Random.nextPoisson(totalReIntroRate*stepSize);
+		for (int i = 0; i < reintroductions && getI() > 0; i++) { // none after an extinction within the step
 			getRandomHostI().reintroduce();
 		}
 	}
@@ -436,125 +896,133 @@ public class HostPopulation {
 	// new hosts are always born naive
 	public void grow() {
 		double totalBirthRate = getN() * Parameters.DemographicParameters.birthRate;
-		int births = Random.nextPoisson(totalBirthRate);
+		int births = nextCount(BIRTH, totalBirthRate*stepSize, getN());
 		for (int i = 0; i < births; i++) {
-			Host h = new Host(false);
-			susceptibles.add(h);
+			birth();
 		}
 	}
 
+	private void birth() {
+		susceptibles.addNaive(Parameters.getDay());
+	}
+
 	// draw a Poisson distributed number of deaths and remove random hosts from the population list
 	public void decline() {
 		// deaths in susceptible class
 		double totalDeathRate = getS() * Parameters.DemographicParameters.deathRate;
-		int deaths = Random.nextPoisson(totalDeathRate);
-		for (int i = 0; i < deaths; i++) {
-			if (getS()>0) {
-				int sndex = getRandomS();
-				removeSusceptible(sndex);
-			}
-		}		
+		int deaths = nextCount(DEATH_S, totalDeathRate*stepSize, getS());
+		susceptibles.removeRandom(deaths);
 		// deaths in infectious class		
 		totalDeathRate = getI() * Parameters.DemographicParameters.deathRate;
-		deaths = Random.nextPoisson(totalDeathRate);
+		deaths = Random.nextPoisson(totalDeathRate*stepSize);
 		for (int i = 0; i < deaths; i++) {
-			if (getI()>0) {
-				int index = getRandomI();
-				removeInfected(index);
-			}
+			deathInfected();
 		}	
 		// deaths in recoverd's class		
 		totalDeathRate = getR() * Parameters.DemographicParameters.deathRate;
-		deaths = Random.nextPoisson(totalDeathRate);
-		for (int i = 0; i < deaths; i++) {
-			if (getR()>0) {
-				int index = getRandomR();
-				removeRecoverd(index);
-			}
-		}	
+		deaths = nextCount(DEATH_R, totalDeathRate*stepSize, getR());
+		recoverds.removeRandom(deaths);
+
+	}
 
+	private void deathInfected() {
+		if (getI()>0) {
+			int index = getRandomI();
+			infecteds.get(index).reset(); // releases its viruses
+			removeInfected(index);
+		}
 	}
 
 	private void contactReservoir() {
 		// each infected (or superinfected) makes contacts on a per-day rate of propContactWithReservoir*beta*reservoirSize*S/N
 		double susceptibleContactRate = initialStrainReservoir.size()*getPrS()*Parameters.EpidemiologicalParameters.beta*Parameters.ReservoirParameters.proportionContactWithReservoir;
-		int contacts = Random.nextPoisson(susceptibleContactRate);
+		int contacts = Random.nextPoisson(susceptibleContactRate*stepSize);
 		for (int i = 0; i < contacts; i++) {
-			if (getS()>0) {
-				// get indices and objects
-				Host iH = initialStrainReservoir.get(Random.nextInt(0, initialStrainReservoir.size()-1));
-				int sndex = getRandomS();
-				Host sH = susceptibles.get(sndex);			
-				
-				if (!iH.isSuperinfected()) {
-					// attempt infection
-					Virus v = iH.getRandomInfection();
-					double chanceOfSuccess = sH.riskOfInfection(v)*iH.getRiskOfTransmission(v); 
-					if (Random.nextBoolean(chanceOfSuccess)) {
-						sH.infect(v);
-						removeSusceptible(sndex);
-						infecteds.add(sH);
-						cases++; // doesn't effect dynamics
-					}
-				} else {
-					// for superinfected host:
-					// Pick n_bottleNeck random viruses, for each segment with probability rho replace it with segment from all infecting viruses
-					// viruses transmits based on individual probability
-					boolean infected = false; 
-					for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
-						Virus v = iH.getRandomInfection();
-						double chanceOfSuccess = sH.riskOfInfection(v)*iH.getRiskOfTransmission(v); 
-						if (Random.nextBoolean(chanceOfSuccess)) {
-							infected = true;
-							sH.infect(v);
-						}
-					}
-					if (infected) {
-						removeSusceptible(sndex);
-						infecteds.add(sH);
-						cases++; // doesn't effect dynamics
-					}
-				}		
-			}
+			contactReservoirSusceptible();
 		}
 
 		// Contact with infecteds
 		// each infected (or superinfected) makes contacts on a per-day rate of propContactWithReservoir*beta*reservoirSize*I/N
 		double infectedContactRate = initialStrainReservoir.size()*getPrI()*Parameters.EpidemiologicalParameters.beta*Parameters.ReservoirParameters.proportionContactWithReservoir;
-		contacts = Random.nextPoisson(infectedContactRate);
+		contacts = Random.nextPoisson(infectedContactRate*stepSize);
 		for (int i = 0; i < contacts; i++) {
-			if (getI()>0) {
-				// get indices and objects
-				Host fromH = initialStrainReservoir.get(Random.nextInt(0, initialStrainReservoir.size()-1));
-				int index=getRandomI();
-				Host toH = infecteds.get(index);			
+			contactReservoirInfected();
+		}
+	}
+
+	private void contactReservoirSusceptible() {
+		if (getS()>0) {
+			// get indices and objects
+			Host iH = initialStrainReservoir.get(Random.nextInt(0, initialStrainReservoir.size()-1));
+			int sndex = getRandomS();
 			
-				if (!fromH.isSuperinfected()) {
-					// attempt infection
+
+			if (!iH.isSuperinfected()) {
+				// attempt infection
+				Virus v = iH.getRandomInfection();
+				double chanceOfSuccess = susceptibles.riskOfInfection(sndex, v)*iH.getRiskOfTransmission(v); 
+				if (Random.nextBoolean(chanceOfSuccess)) {
+					Host sH = susceptibles.remove(sndex);
+					sH.infect(v);
+					infecteds.add(sH);
+					cases++; // doesn't effect dynamics
+				}
+			} else {
+				// for superinfected host:
+				// Pick n_bottleNeck random viruses, for each segment with probability rho replace it with segment from all infecting viruses
+				// viruses transmits based on individual probability
+				Host sH = null; // taken out of the susceptible pool on first successful infection 
+				for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
+					Virus v = iH.getRandomInfection();
+					double chanceOfSuccess = susceptibles.riskOfInfection(sndex, v)*iH.getRiskOfTransmission(v); 
+					if (Random.nextBoolean(chanceOfSuccess)) {
+						if (sH == null) {
+							sH = susceptibles.get(sndex);
+						}
+						sH.infect(v);
+					}
+				}
+				if (sH != null) {
+					removeSusceptible(sndex);
+					infecteds.add(sH);
+					cases++; // doesn't effect dynamics
+				}
+			}		
+		}
+	}
+
+	private void contactReservoirInfected() {
+		if (getI()>0) {
+			// get indices and objects
+			Host fromH = initialStrainReservoir.get(Random.nextInt(0, initialStrainReservoir.size()-1));
+			int index=getRandomI();
+			Host toH = infecteds.get(index);			
+		
+			if (!fromH.isSuperinfected()) {
+				// attempt infection
+				Virus v = fromH.getRandomInfection();
+				double chanceOfSuccess = toH.riskOfInfection(v);//*fromH.getRiskOfTransmission(); 
+				if (Random.nextBoolean(chanceOfSuccess)) {
+					toH.infect(v);
+					cases++; // doesn't effect dynamics
+				}
+			} else {
+				boolean infected = false; 
+				// for superinfected host:
+				// Pick n_bottleNeck random viruses, for each segment with probability rho replace it with segment from all infecting viruses
+				// viruses transmits based on individual probability		
+				for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
 					Virus v = fromH.getRandomInfection();
 					double chanceOfSuccess = toH.riskOfInfection(v);//*fromH.getRiskOfTransmission(); 
 					if (Random.nextBoolean(chanceOfSuccess)) {
+						infected = true;
 						toH.infect(v);
-						cases++; // doesn't effect dynamics
 					}
-				} else {
-					boolean infected = false; 
-					// for superinfected host:
-					// Pick n_bottleNeck random viruses, for each segment with probability rho replace it with segment from all infecting viruses
-					// viruses transmits based on individual probability		
-					for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
-						Virus v = fromH.getRandomInfection();
-						double chanceOfSuccess = toH.riskOfInfection(v);//*fromH.getRiskOfTransmission(); 
-						if (Random.nextBoolean(chanceOfSuccess)) {
-							infected = true;
-							toH.infect(v);
-						}
-					}
-					if (infected) {				
-						cases++; // doesn't effect dynamics
-					}
-				}							
-			}
+				}
+				if (infected) {				
+					cases++; // doesn't effect dynamics
+				}
+			}							
 		}
 	}
 
@@ -562,49 +1030,41 @@ public class HostPopulation {
 	public void swap() {
 		// draw random individuals from susceptible class
 		double totalBirthRate = getS() * Parameters.DemographicParameters.birthRate;
-		int births = Random.nextPoisson(totalBirthRate);
-		for (int i = 0; i < births; i++) {
-			if (getS()>0) {
-				getRandomHostS().reset();
-			}
-		}		
+		int births = nextCount(BIRTH_S, totalBirthRate*stepSize, getS());
+		susceptibles.resetRandom(births);
 
 		// draw random individuals from infected class
 		totalBirthRate = getI() * Parameters.DemographicParameters.birthRate;
-		births = Random.nextPoisson(totalBirthRate);
+		births = Random.nextPoisson(totalBirthRate*stepSize);
 
 		// remove infected and add to susceptible births
-		for (int i = 0; i < births; i++) {			
-			if (((Parameters.getDay()>Parameters.SimulationParameters.burnin) || (!Parameters.SimulationParameters.keepAliveDuringBurnin)) && (!Parameters.SimulationParameters.keepAlive)) {
-				if (getI()>0) {
-					int index = getRandomI();
-					Host h = infecteds.get(index);		
-					removeInfected(index);
-					h.reset();					
-					susceptibles.add(h);
-				}
-			}
-			else if ((Parameters.getDay()<Parameters.SimulationParameters.burnin || Parameters.SimulationParameters.keepAlive) && getI()>1) {
-				int index = getRandomI();
-				Host h = infecteds.get(index);
-				removeInfected(index);
-				h.reset();
-				susceptibles.add(h);
-			}
+		for (int i = 0; i < births; i++) {
+			birthInfected();
 		}
 
 		// draw random individuals from recoverd's class
 		totalBirthRate = getR() * Parameters.DemographicParameters.birthRate;
-		births = Random.nextPoisson(totalBirthRate);
-		for (int i = 0; i < births; i++) {
-			if (getR()>0) {
-				int index = getRandomR();
-				Host h = recoverds.get(index);		
-				removeRecoverd(index);
+		births = nextCount(BIRTH_R, totalBirthRate*stepSize, getR());
+		recoverds.transferRandom(births, susceptibles, true);
+	}
+
+	private void birthInfected() {
+		if (((Parameters.getDay()>Parameters.SimulationParameters.burnin) || (!Parameters.SimulationParameters.keepAliveDuringBurnin)) && (!Parameters.SimulationParameters.keepAlive)) {
+			if (getI()>0) {
+				int index = getRandomI();
+				Host h = infecteds.get(index);		
+				removeInfected(index);
 				h.reset();					
 				susceptibles.add(h);
 			}
-		}	
+		}
+		else if ((Parameters.getDay()<Parameters.SimulationParameters.burnin || Parameters.SimulationParameters.keepAlive) && getI()>1) {
+			int index = getRandomI();
+			Host h = infecteds.get(index);
+			removeInfected(index);
+			h.reset();
+			susceptibles.add(h);
+		}
 	}
 
 	// draw a Poisson distributed number of contacts and move from S->I based upon this
@@ -612,81 +1072,108 @@ public class HostPopulation {
 
 		// each infected (or superinfected) makes contacts on a per-day rate of beta*I*S/N
 		double susceptibleContactRate = getI()* getPrS()*Parameters.EpidemiologicalParameters.beta;
-		int contacts = Random.nextPoisson(susceptibleContactRate);
-		for (int i = 0; i < contacts; i++) {
-			if (getS()>0) {
-				// get indices and objects
-				Host iH = getRandomHostI();
-				int sndex = getRandomS();
-				Host sH = susceptibles.get(sndex);			
-
-				if (!iH.isSuperinfected()) {
-					// attempt infection
-					Virus v = iH.getRandomInfection();
-					double chanceOfSuccess = sH.riskOfInfection(v)*iH.getRiskOfTransmission(v); 
-					if (Random.nextBoolean(chanceOfSuccess)) {
-						sH.infect(v);
-						removeSusceptible(sndex);
-						infecteds.add(sH);
-						cases++; // doesn't effect dynamics
-					}
-				} else {
-					// for superinfected host:
-					// Pick n_bottleNeck random viruses, for each segment with probability rho replace it with segment from all infecting viruses
-					// viruses transmits based on individual probability
-					boolean infected = false; 
-					for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
-						Virus v = iH.getRandomInfection();
-						double chanceOfSuccess = sH.riskOfInfection(v)*iH.getRiskOfTransmission(v); 
-						if (Random.nextBoolean(chanceOfSuccess)) {
-							infected = true;
-							sH.infect(v);
-						}
-					}
-					if (infected) {
-						removeSusceptible(sndex);
-						infecteds.add(sH);
-						cases++; // doesn't effect dynamics
-					}
-				}			
+		int contacts = Random.nextPoisson(susceptibleContactRate*stepSize);
+		int casesBefore = cases;
+		if (Parameters.SimulationParameters.contactMode == ContactType.BATCHED) {
+			cases += batchedContact.contactSusceptibles(contacts, susceptibles, infecteds);
+		}
+		else if (parallelContact != null) {
+			cases += parallelContact.contactSusceptibles(contacts, susceptibles, infecteds);
+		}
+		else {
+			for (int i = 0; i < contacts; i++) {
+				contactSusceptible();
 			}
 		}
 
+		if (contacts > 0) {
+			infectionProbability = (double) (cases - casesBefore) / (double) contacts;
+		}
+
 		// each infected (or superinfected) makes contact on a per-day rate of beta*I*I/N
 		double infectedContactRate = getI()* getPrI()*Parameters.EpidemiologicalParameters.beta;
-		contacts = Random.nextPoisson(infectedContactRate);
-		for (int i = 0; i < contacts; i++) {
+		contacts = Random.nextPoisson(infectedContactRate*stepSize);
+		if (parallelContact != null) {
+			cases += parallelContact.contactInfecteds(contacts, infecteds);
+		}
+		else {
+			for (int i = 0; i < contacts; i++) {
+				contactInfected();
+			}
+		}
+
+	}
+
+	private void contactSusceptible() {
+		if (getS()>0) {
 			// get indices and objects
-			Host fromH = getRandomHostI();
-			Host toH = getRandomHostI();
+			Host iH = getRandomHostI();
+			int sndex = getRandomS();
 
-			if (!fromH.isSuperinfected()) {
+			if (!iH.isSuperinfected()) {
 				// attempt infection
-				Virus v = fromH.getRandomInfection();
-				double chanceOfSuccess = toH.riskOfInfection(v)*fromH.getRiskOfTransmission(v); 
+				Virus v = iH.getRandomInfection();
+				double chanceOfSuccess = susceptibles.riskOfInfection(sndex, v)*iH.getRiskOfTransmission(v); 
 				if (Random.nextBoolean(chanceOfSuccess)) {
-					toH.infect(v);
+					Host sH = susceptibles.remove(sndex);
+					sH.infect(v);
+					infecteds.add(sH);
 					cases++; // doesn't effect dynamics
 				}
 			} else {
 				// for superinfected host:
 				// Pick n_bottleNeck random viruses, for each segment with probability rho replace it with segment from all infecting viruses
 				// viruses transmits based on individual probability
-				boolean infected = false; 
+				Host sH = null; // taken out of the susceptible pool on first successful infection 
 				for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
-					Virus v = fromH.getRandomInfection();
-					double chanceOfSuccess = toH.riskOfInfection(v)*fromH.getRiskOfTransmission(v); 
+					Virus v = iH.getRandomInfection();
+					double chanceOfSuccess = susceptibles.riskOfInfection(sndex, v)*iH.getRiskOfTransmission(v); 
 					if (Random.nextBoolean(chanceOfSuccess)) {
-						infected = true;
-						toH.infect(v);
+						if (sH == null) {
+							sH = susceptibles.get(sndex);
+						}
+						sH.infect(v);
 					}
 				}
-				if (infected) {				
+				if (sH != null) {
+					removeSusceptible(sndex);
+					infecteds.add(sH);
 					cases++; // doesn't effect dynamics
 				}
 			}			
 		}
+	}
 
+	private void contactInfected() {
+		// get indices and objects
+		Host fromH = getRandomHostI();
+		Host toH = getRandomHostI();
+
+		if (!fromH.isSuperinfected()) {
+			// attempt infection
+			Virus v = fromH.getRandomInfection();
+			double chanceOfSuccess = toH.riskOfInfection(v)*fromH.getRiskOfTransmission(v); 
+			if (Random.nextBoolean(chanceOfSuccess)) {
+				toH.infect(v);
+				cases++; // doesn't effect dynamics
+			}
+		} else {
+			// for superinfected host:
+			// Pick n_bottleNeck random viruses, for each segment with probability rho replace it with segment from all infecting viruses
+			// viruses transmits based on individual probability
+			boolean infected = false; 
+			for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
+				Virus v = fromH.getRandomInfection();
+				double chanceOfSuccess = toH.riskOfInfection(v)*fromH.getRiskOfTransmission(v); 
+				if (Random.nextBoolean(chanceOfSuccess)) {
+					infected = true;
+					toH.infect(v);
+				}
+			}
+			if (infected) {				
+				cases++; // doesn't effect dynamics
+			}
+		}			
 	}
 
 
@@ -696,53 +1183,45 @@ public class HostPopulation {
 		// infected clear from multiple infections simultaneously
 
 		double totalRecoveryRate = getI() * Parameters.EpidemiologicalParameters.nu;
-		int recoveries = Random.nextPoisson(totalRecoveryRate);
+		int recoveries = Random.nextPoisson(totalRecoveryRate*stepSize);
 
 		for (int i = 0; i < recoveries; i++) {
-			if (((Parameters.getDay()>Parameters.SimulationParameters.burnin) || (!Parameters.SimulationParameters.keepAliveDuringBurnin)) && (!Parameters.SimulationParameters.keepAlive)) {
-				if (getI()>0) {
-					int index = getRandomI();
-					Host h = infecteds.get(index);
-					removeInfected(index);
-					h.clearInfections();
-					recoverds.add(h);
-				}
-			}
-			else if ((Parameters.getDay()<Parameters.SimulationParameters.burnin || Parameters.SimulationParameters.keepAlive) && getI()>1) {
+			recoverInfected();
+		}
+	}
+
+	private void recoverInfected() {
+		if (((Parameters.getDay()>Parameters.SimulationParameters.burnin) || (!Parameters.SimulationParameters.keepAliveDuringBurnin)) && (!Parameters.SimulationParameters.keepAlive)) {
+			if (getI()>0) {
 				int index = getRandomI();
 				Host h = infecteds.get(index);
 				removeInfected(index);
-				h.clearInfections();					
+				h.clearInfections();
 				recoverds.add(h);
 			}
 		}
+		else if ((Parameters.getDay()<Parameters.SimulationParameters.burnin || Parameters.SimulationParameters.keepAlive) && getI()>1) {
+			int index = getRandomI();
+			Host h = infecteds.get(index);
+			removeInfected(index);
+			h.clearInfections();					
+			recoverds.add(h);
+		}
 	}
 
 	// draw a Poisson distributed number of recoverds and move to susceptible class
 	public void loseImmunity() {
 		
 		if (Double.isInfinite(Parameters.EpidemiologicalParameters.omega)) {
-			for (int index=recoverds.size()-1;index>=0;index--) {		
-				Host h = recoverds.get(index);
-				removeRecoverd(index);
-				susceptibles.add(h);				
-			}
+			recoverds.transferAll(susceptibles);
 		} 
 		else {
 		// each recoverd loses immuntiy at a per-day rate of omega
 		// recoverds are fully protected
 
 		double totalRecoveryRate = getR() * Parameters.EpidemiologicalParameters.omega;
-		int recoveries = Random.nextPoisson(totalRecoveryRate);
-
-		for (int i = 0; i < recoveries; i++) {		
-			if (getR()>0) {
-				int index = getRandomR();
-				Host h = recoverds.get(index);
-				removeRecoverd(index);
-				susceptibles.add(h);
-			}
-		}
+		int recoveries = nextCount(LOSE_IMMUNITY, totalRecoveryRate*stepSize, getR());
+		recoverds.transferRandom(recoveries, susceptibles, false);
 		}
 	}		
 
@@ -750,45 +1229,54 @@ public class HostPopulation {
 	public void sample() {
 		if (getI()>0 && Parameters.getDay() >= Parameters.SimulationParameters.burnin) {
 			// Sample infected hosts for out.infected
-			int numInfectedHostSamples = Random.nextPoisson(Parameters.SamplingParameters.infectedHostSamplingRate*getI());
+			int numInfectedHostSamples = Random.nextPoisson(Parameters.SamplingParameters.infectedHostSamplingRate*getI()*stepSize);
 
 			for (int i=0; i<numInfectedHostSamples; i++) {
-				Host h = getRandomHostI();					
-				for (Virus v : h.getInfections()) {
-					for (Segment s : v.getSegments()) {												
-						infectedHostSamples.add(h,v,s);
-					}
-				}				
+				sampleInfectedHost();
 			}
 
 			// Sample all hosts for out.immunity
-			int numImmunityHostSamples = Random.nextPoisson(Parameters.SamplingParameters.immunityHostSamplingRate*getN());
+			int numImmunityHostSamples = Random.nextPoisson(Parameters.SamplingParameters.immunityHostSamplingRate*getN()*stepSize);
 
 			for (int i=0; i<numImmunityHostSamples; i++) {
 				hostsForImmunitySamples.add(getRandomHost());
 			}
 
 			// Sample tree tips
-			double totalSamplingRate = Parameters.SamplingParameters.tipSamplingRate;
-			if (Parameters.SamplingParameters.tipSamplingProportional) 
-				totalSamplingRate *= getI();
-			else 
-				totalSamplingRate *= getN();			
-
-			int samples = Random.nextPoisson(totalSamplingRate);
-
-			if (Parameters.SamplingParameters.sampleWholeGenomes) { // sample whole genomes of viruses
-				for (int i = 0; i < samples; i++) {									
-					for (Segment s : getRandomHostI().getRandomInfection().getSegments()) {
-						SegmentTree.add(s);
-					}
-				}				
+			int samples = Random.nextPoisson(getTipSamplingRate()*stepSize);
+
+			for (int i = 0; i < samples; i++) {
+				sampleTip();
 			}
-			else { // sample segments independently
-				for (int i = 0; i < samples; i++) {									
-					SegmentTree.add(getRandomHostI().getRandomInfection().getRandomSegment());
-				}
+		}
+	}
+
+	private void sampleInfectedHost() {
+		Host h = getRandomHostI();					
+		for (Virus v : h.getInfections()) {
+			for (Segment s : v.getSegments()) {												
+				infectedHostSamples.add(h,v,s);
 			}
+		}				
+	}
+
+	private double getTipSamplingRate() {
+		double totalSamplingRate = Parameters.SamplingParameters.tipSamplingRate;
+		if (Parameters.SamplingParameters.tipSamplingProportional) 
+			totalSamplingRate *= getI();
+		else 
+			totalSamplingRate *= getN();			
+		return totalSamplingRate;
+	}
+
+	private void sampleTip() {
+		if (Parameters.SamplingParameters.sampleWholeGenomes) { // sample whole genomes of viruses
+			for (Segment s : getRandomHostI().getRandomInfection().getSegments()) {
+				SegmentTree.add(s);
+			}
+		}
+		else { // sample segments independently
+			SegmentTree.add(getRandomHostI().getRandomInfection().getRandomSegment());
 		}
 	}
 
@@ -811,9 +1299,9 @@ public class HostPopulation {
 		}				
 	}	
 
-	public void printState(PrintStream stream) {
+	public void printState(AsyncOutput stream) {
 		if (Parameters.getDay() > Parameters.SimulationParameters.burnin) {
-			stream.printf("\t%d\t%d\t%d\t%d\t%d", getN(), getS(), getI(), getR(), getCases());
+			stream.print('\t').print(getN()).print('\t').print(getS()).print('\t').print(getI()).print('\t').print(getR()).print('\t').print(getCases());
 		}
 	}	
 
@@ -821,6 +1309,10 @@ public class HostPopulation {
 		return infecteds;
 	}
 
+	public List<Host> getReservoir() {	
+		return initialStrainReservoir;
+	}
+
 //	public void determineVaccineComposition() {
 //		switch (Parameters.VaccineParameters.vaccineMakeup) {
 //		case MAXIMUM_COVERAGE :	
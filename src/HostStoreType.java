@@ -0,0 +1,3 @@
+/* Storage of susceptible and recovered hosts, see DemographicParameters.hostStore */
+
+enum HostStoreType {OBJECTS, COMPACT, OFF_HEAP, COHORT};
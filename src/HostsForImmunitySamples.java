@@ -1,39 +1,45 @@
-import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
 
 
 public class HostsForImmunitySamples {
 	
-	PrintStream immuneStream = null;
-	File infectedFile = null;
+	AsyncOutput immuneStream = null;
 	long numHostsSampled = 0;
 	Host lastHostSampled = null; 
 	
+	// the stream is opened by reset()
 	HostsForImmunitySamples() {
-		reset();
 	}
 	
 	void close() {
-		immuneStream.close();
+		if (immuneStream != null) {
+			immuneStream.close();
+			immuneStream = null;
+		}
+	}
+
+	void flush() {
+		immuneStream.flush();
 	}
 	
 	public void add(Host h) {	
 		// For print purposes only ...
-		immuneStream.printf("%f,\"%s\",%f,%d%s\n",Parameters.getDate(),h, Parameters.getDate()-h.getBirthInYears(),h.getInfections().size(),h.getImmuneSystem().print());	
+		immuneStream.print(Parameters.getDate(),6).print(",\"").printIdentity(h).print("\",").print(Parameters.getDate()-h.getBirthInYears(),6).print(',').print(h.getInfections().size());
+		h.getImmuneSystem().print(immuneStream);
+		immuneStream.println();
 	}
 
 	public void reset() {
 		numHostsSampled=0;
+		close();
 		try {
-			infectedFile = new File("out.immunity");
-			infectedFile.delete();
-			infectedFile.createNewFile();
-			immuneStream = new PrintStream(infectedFile);	
-			immuneStream.printf("year,hostID,hostAge,numInfections,numPreviousInfections,segments....\n",5);
+			immuneStream = Parameters.resumeOutput("out.immunity");
+			if (immuneStream == null) {
+				immuneStream = Parameters.openOutput("out.immunity");
+				immuneStream.print("year,hostID,hostAge,numInfections,numPreviousInfections,segments....\n");
+			}
 		} catch(IOException ex) {
-			System.out.println("Could not write to file out.immunity!"); 
-			System.exit(0);
+			throw new SimulationException("Could not write to file out.immunity!", ex);
 		}		
 	}
 
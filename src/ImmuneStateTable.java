@@ -0,0 +1,220 @@
+/* Interned immune states shared by hosts in compact host pools */
+/* Each distinct immune history is stored once and referred to by an integer id */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ImmuneStateTable {
+
+	private static final int NAIVE = 0;
+
+	private List<ImmuneSystem> states = new ArrayList<ImmuneSystem>();
+	private Map<ImmuneSystem,Integer> ids = new HashMap<ImmuneSystem,Integer>();
+	private int[] counts = new int[16];			// number of hosts holding each state
+	private int[] generations = new int[16];	// incremented every time a state id is recycled
+	private List<Map<BitSet,Long>> transitions = new ArrayList<Map<BitSet,Long>>(); // cached results of add(), keyed by immunogenic segments of the added virus
+	private int[] free = new int[16];
+	private int numFree = 0;
+
+	public ImmuneStateTable() {
+		intern(Host.newImmuneSystem());
+		counts[NAIVE] = 1; // naive state is never recycled
+	}
+
+	public int naive() {
+		return NAIVE;
+	}
+
+	public ImmuneSystem get(int id) {
+		return states.get(id);
+	}
+
+	public int count(int id) {
+		return counts[id];
+	}
+
+	// number of ids in use, including free ones
+	public int capacity() {
+		return states.size();
+	}
+
+	// number of distinct states held by at least one host
+	public int size() {
+		return states.size() - numFree;
+	}
+
+	// returns id of state equal to s, storing a copy of s if it is new
+	public int intern(ImmuneSystem s) {
+		Integer id = ids.get(s);
+		if (id != null) {
+			return id;
+		}
+		ImmuneSystem copy = s.copy();
+		int newId;
+		if (numFree > 0) {
+			numFree--;
+			newId = free[numFree];
+			states.set(newId, copy);
+		}
+		else {
+			newId = states.size();
+			states.add(copy);
+			transitions.add(null);
+			if (newId >= counts.length) {
+				counts = Arrays.copyOf(counts, counts.length*2);
+				generations = Arrays.copyOf(generations, generations.length*2);
+			}
+		}
+		ids.put(copy, newId);
+		return newId;
+	}
+
+	// returns id of the state reached by adding virus v to state id
+	public int add(int id, Virus v) {
+		BitSet key = v.getImmunogenicSegmentIndices();
+		Map<BitSet,Long> stateTransitions = transitions.get(id);
+		if (stateTransitions == null) {
+			stateTransitions = new IdentityHashMap<BitSet,Long>();
+			transitions.set(id, stateTransitions);
+		}
+		Long cached = stateTransitions.get(key);
+		if (cached != null) {
+			int target = (int) (cached >>> 32);
+			if (generations[target] == (int) (long) cached) {
+				return target;
+			}
+		}
+		ImmuneSystem next = states.get(id).copy();
+		next.add(v);
+		int target = intern(next);
+		stateTransitions.put(key, (((long) target) << 32) | (generations[target] & 0xFFFFFFFFL));
+		return target;
+	}
+
+	public void retain(int id) {
+		counts[id]++;
+	}
+
+	public void retain(int id, int n) {
+		counts[id]+=n;
+	}
+
+	public void release(int id) {
+		release(id, 1);
+	}
+
+	// drop memory of the given immune indices from every state
+	// states that become equal keep their ids, the first one found is the one new hosts are interned to
+	public void forget(BitSet indices) {
+		ids.clear();
+		for (int id = 0; id < states.size(); id++) {
+			ImmuneSystem s = states.get(id);
+			transitions.set(id, null);
+			if (s != null) {
+				s.forget(indices);
+				if (!ids.containsKey(s)) {
+					ids.put(s, id);
+				}
+			}
+		}
+	}
+
+	public void release(int id, int n) {
+		counts[id]-=n;
+		if (counts[id] == 0) {
+			Integer canonical = ids.get(states.get(id));
+			if (canonical != null && canonical == id) {
+				ids.remove(states.get(id));
+			}
+			states.set(id, null);
+			transitions.set(id, null);
+			generations[id]++;
+			if (numFree == free.length) {
+				free = Arrays.copyOf(free, free.length*2);
+			}
+			free[numFree] = id;
+			numFree++;
+		}
+	}
+
+	// states with their counts, recycling order and cached transitions whose virus is in the checkpoint
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(states.size());
+		for (int id = 0; id < states.size(); id++) {
+			ImmuneSystem s = states.get(id);
+			out.writeBoolean(s != null);
+			if (s != null) {
+				s.write(out);
+				Integer canonical = ids.get(s);
+				out.writeBoolean(canonical != null && canonical == id);
+			}
+		}
+		out.writeInts(counts, 0, states.size());
+		out.writeInts(generations, 0, states.size());
+		out.writeInt(numFree);
+		out.writeInts(free, 0, numFree);
+		for (int id = 0; id < states.size(); id++) {
+			Map<BitSet,Long> stateTransitions = transitions.get(id);
+			int numTransitions = 0;
+			if (stateTransitions != null) {
+				for (BitSet key : stateTransitions.keySet()) {
+					numTransitions += out.isRegistered(key) ? 1 : 0;
+				}
+			}
+			out.writeInt(numTransitions);
+			if (numTransitions > 0) {
+				for (Map.Entry<BitSet,Long> entry : stateTransitions.entrySet()) {
+					if (out.isRegistered(entry.getKey())) {
+						out.writeRef(entry.getKey());
+						out.writeLong(entry.getValue());
+					}
+				}
+			}
+		}
+	}
+
+	// replaces the contents of the table, after the viruses of the checkpoint are read
+	public void read(CheckpointInput in) throws IOException {
+		int capacity = in.readInt();
+		states = new ArrayList<ImmuneSystem>(capacity);
+		ids = new HashMap<ImmuneSystem,Integer>();
+		for (int id = 0; id < capacity; id++) {
+			ImmuneSystem s = null;
+			if (in.readBoolean()) {
+				s = Host.newImmuneSystem();
+				s.read(in);
+				if (in.readBoolean()) {
+					ids.put(s, id);
+				}
+			}
+			states.add(s);
+		}
+		counts = new int[Math.max(16, capacity)];
+		generations = new int[counts.length];
+		in.readInts(counts, 0, capacity);
+		in.readInts(generations, 0, capacity);
+		numFree = in.readInt();
+		free = new int[Math.max(16, numFree)];
+		in.readInts(free, 0, numFree);
+		transitions = new ArrayList<Map<BitSet,Long>>(capacity);
+		for (int id = 0; id < capacity; id++) {
+			int numTransitions = in.readInt();
+			Map<BitSet,Long> stateTransitions = null;
+			if (numTransitions > 0) {
+				stateTransitions = new IdentityHashMap<BitSet,Long>();
+				for (int i = 0; i < numTransitions; i++) {
+					BitSet key = (BitSet) in.readRef();
+					stateTransitions.put(key, in.readLong());
+				}
+			}
+			transitions.add(stateTransitions);
+		}
+	}
+
+}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.List;
 
 
@@ -9,10 +11,23 @@ public interface ImmuneSystem {
 
 	void add(Virus v);
 
-	String print();
+	// ,numPreviousInfections,segment numbers... of an out.immunity row
+	void print(AsyncOutput out);
 	
 	void vaccinate(List<Virus> v);
 
 	double riskOfTransmission(Virus v);
 
+	// independent copy with the same immune history
+	ImmuneSystem copy();
+
+	// drop memory of alleles at the given immune indices, previous infection count is kept
+	void forget(BitSet indices);
+
+	// immune history for checkpoints
+	void write(CheckpointOutput out) throws IOException;
+
+	// replace immune history with the one written by write
+	void read(CheckpointInput in) throws IOException;
+
 }
@@ -1,4 +1,5 @@
 
+import java.io.IOException;
 import java.util.BitSet;
 import java.util.List;
 
@@ -17,6 +18,8 @@ public class ImmuneSystemDiscrete implements ImmuneSystem{
 		@Setting (description ="infectivity at first infection"
 				+ "transmission risk=infectivity_at_first_infection x exp(-xi_reduced_infection x #previous_infections) x fitness"	)
 		static double infectivity_at_first_infection = 0.47;//0.47;
+		@Setting (description ="immune system implementation DISCRETE/KERNEL (same model without allocation, using precomputed exponentials)" )
+		static ImmuneSystemType immuneSystemType = ImmuneSystemType.DISCRETE;
 	}
 
 	int numPreviousInfections = 0;
@@ -35,13 +38,19 @@ public class ImmuneSystemDiscrete implements ImmuneSystem{
 	}
 
 	public double riskOfInfection(Virus v) {
+		// Specific immunity = Exp[-beta x num_seen_segments / nImmunogenicSegments]
+		BitSet seenViralSegments = (BitSet) exposedToImmunogenicSegments.clone();
+		seenViralSegments.and(v.getImmunogenicSegmentIndices());
+		return riskOfInfection(numPreviousInfections, seenViralSegments.cardinality());
+	}
+
+	// risk of infection given number of previous infections and number of the virus's immunogenic segments seen before
+	static double riskOfInfection(int numPreviousInfections, int numSeenSegments) {
 		// Generalized immunity = Exp[-alpha x num_previous_infections]
 		double generalizedimmunityExp = - ImmunityParameters.sigma_gen*numPreviousInfections;
 
 		// Specific immunity = Exp[-beta x num_seen_segments / nImmunogenicSegments]
-		BitSet seenViralSegments = (BitSet) exposedToImmunogenicSegments.clone();
-		seenViralSegments.and(v.getImmunogenicSegmentIndices());
-		double specificImmunityExp = - ImmunityParameters.sigma_spec*(double)seenViralSegments.cardinality()/(double)Parameters.SegmentParameters.nImmunogenicSegments;
+		double specificImmunityExp = - ImmunityParameters.sigma_spec*(double)numSeenSegments/(double)Parameters.SegmentParameters.nImmunogenicSegments;
 
 		// MAYBEDO: Drift		
 		// double driftImmuntiy = -xi_drift*getDriftDistance(v,previousInfections);
@@ -55,13 +64,11 @@ public class ImmuneSystemDiscrete implements ImmuneSystem{
 		numPreviousInfections+=1;
 	}
 
-	public String print() {
-		String returnValue=","+Integer.toString(numPreviousInfections); 
+	public void print(AsyncOutput out) {
+		out.print(',').print(numPreviousInfections);
 		for (int i = exposedToImmunogenicSegments.nextSetBit(0); i >= 0; i = exposedToImmunogenicSegments.nextSetBit(i+1)) {
-			returnValue=returnValue+","+Integer.toString(i);
+			out.print(',').print(AlleleRegistry.segmentNumber(i));
 		}
-
-		return returnValue;		
 	}
 
 	public void vaccinate(List<Virus> virusList) {
@@ -71,9 +78,49 @@ public class ImmuneSystemDiscrete implements ImmuneSystem{
 		numPreviousInfections+=1;		
 	}
 
+	public ImmuneSystem copy() {
+		ImmuneSystemDiscrete returnValue = new ImmuneSystemDiscrete();
+		returnValue.numPreviousInfections = numPreviousInfections;
+		returnValue.exposedToImmunogenicSegments.or(exposedToImmunogenicSegments);
+		return returnValue;
+	}
+
+	public void forget(BitSet indices) {
+		exposedToImmunogenicSegments.andNot(indices);
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(numPreviousInfections);
+		out.writeBitSet(exposedToImmunogenicSegments);
+	}
+
+	public void read(CheckpointInput in) throws IOException {
+		numPreviousInfections = in.readInt();
+		exposedToImmunogenicSegments = in.readBitSet();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ImmuneSystemDiscrete)) {
+			return false;
+		}
+		ImmuneSystemDiscrete other = (ImmuneSystemDiscrete) o;
+		return numPreviousInfections == other.numPreviousInfections && exposedToImmunogenicSegments.equals(other.exposedToImmunogenicSegments);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31*numPreviousInfections + exposedToImmunogenicSegments.hashCode();
+	}
+
 	@Override
 	public double riskOfTransmission(Virus v) {
-		return ImmunityParameters.infectivity_at_first_infection * Math.exp(-ImmunityParameters.xi_reduced_infectivity*numPreviousInfections)*v.getFitness();
+		return infectivity(numPreviousInfections)*v.getFitness();
+	}
+
+	// transmission risk before multiplying by viral fitness
+	static double infectivity(int numPreviousInfections) {
+		return ImmunityParameters.infectivity_at_first_infection * Math.exp(-ImmunityParameters.xi_reduced_infectivity*numPreviousInfections);
 	}
 
 }
@@ -0,0 +1,177 @@
+/* Immune system with the same model as ImmuneSystemDiscrete, evaluated without allocation */
+/* Exposure is a primitive mask compared with popcount, and exponentials are looked up in tables precomputed from sigma_gen, sigma_spec, */
+/* xi_reduced_infectivity and nImmunogenicSegments. Table entries are computed with the ImmuneSystemDiscrete expressions, so results are bit for bit identical */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+public class ImmuneSystemKernel implements ImmuneSystem {
+
+	// riskOfInfectionTable[n*(nImmunogenicSegments+1)+k] - risk with n previous infections and k previously seen segments
+	private static double[] riskOfInfectionTable = new double[0];
+	// infectivityTable[n] - infectivity with n previous infections before multiplying by viral fitness
+	private static double[] infectivityTable = new double[0];
+	private static volatile int tableInfections = 0;	// read before the tables, so tasks evaluating immunity in parallel see tables at least this large
+	private static int tableSegments = 0;
+
+	private int numPreviousInfections = 0;
+	private long[] exposedToImmunogenicSegments = new long[1];
+
+	// recompute tables after immunity or segment parameters are applied
+	public static synchronized void updateTables(int nImmunogenicSegments) {
+		tableSegments = nImmunogenicSegments+1;
+		tableInfections = 0;
+		riskOfInfectionTable = new double[0];
+		infectivityTable = new double[0];
+		growTables(64);
+	}
+
+	private static synchronized void growTables(int numInfections) {
+		if (numInfections <= tableInfections) {
+			return;
+		}
+		double[] newRiskOfInfectionTable = Arrays.copyOf(riskOfInfectionTable, numInfections*tableSegments);
+		double[] newInfectivityTable = Arrays.copyOf(infectivityTable, numInfections);
+		for (int n = tableInfections; n < numInfections; n++) {
+			for (int k = 0; k < tableSegments; k++) {
+				newRiskOfInfectionTable[n*tableSegments+k] = ImmuneSystemDiscrete.riskOfInfection(n, k);
+			}
+			newInfectivityTable[n] = ImmuneSystemDiscrete.infectivity(n);
+		}
+		// publish arrays before the bound that guards them
+		riskOfInfectionTable = newRiskOfInfectionTable;
+		infectivityTable = newInfectivityTable;
+		tableInfections = numInfections;
+	}
+
+	public ImmuneSystemKernel() {
+
+	}
+
+	public void reset() {
+		numPreviousInfections=0;
+		Arrays.fill(exposedToImmunogenicSegments, 0);
+	}
+
+	public double riskOfInfection(Virus v) {
+		long[] virusMask = v.getImmunogenicSegmentMask();
+		int words = Math.min(virusMask.length, exposedToImmunogenicSegments.length);
+		int seenViralSegments = 0;
+		for (int i = 0; i < words; i++) {
+			seenViralSegments += Long.bitCount(exposedToImmunogenicSegments[i] & virusMask[i]);
+		}
+		if (numPreviousInfections >= tableInfections) {
+			growTables(Math.max(numPreviousInfections+1, tableInfections*2));
+		}
+		return riskOfInfectionTable[numPreviousInfections*tableSegments+seenViralSegments];
+	}
+
+	public void add(Virus v) {
+		expose(v);
+		numPreviousInfections+=1;
+	}
+
+	public void print(AsyncOutput out) {
+		out.print(',').print(numPreviousInfections);
+		for (int w = 0; w < exposedToImmunogenicSegments.length; w++) {
+			long word = exposedToImmunogenicSegments[w];
+			while (word != 0) {
+				out.print(',').print(AlleleRegistry.segmentNumber(w*64 + Long.numberOfTrailingZeros(word)));
+				word &= word - 1;
+			}
+		}
+	}
+
+	public void vaccinate(List<Virus> virusList) {
+		for (Virus v : virusList) {
+			expose(v);
+		}
+		numPreviousInfections+=1;		
+	}
+
+	public double riskOfTransmission(Virus v) {
+		if (numPreviousInfections >= tableInfections) {
+			growTables(Math.max(numPreviousInfections+1, tableInfections*2));
+		}
+		return infectivityTable[numPreviousInfections]*v.getFitness();
+	}
+
+	public ImmuneSystem copy() {
+		ImmuneSystemKernel returnValue = new ImmuneSystemKernel();
+		returnValue.numPreviousInfections = numPreviousInfections;
+		returnValue.exposedToImmunogenicSegments = exposedToImmunogenicSegments.clone();
+		return returnValue;
+	}
+
+	public void forget(BitSet indices) {
+		long[] mask = indices.toLongArray();
+		int words = Math.min(mask.length, exposedToImmunogenicSegments.length);
+		for (int i = 0; i < words; i++) {
+			exposedToImmunogenicSegments[i] &= ~mask[i];
+		}
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(numPreviousInfections);
+		out.writeInt(exposedToImmunogenicSegments.length);
+		out.writeLongs(exposedToImmunogenicSegments, 0, exposedToImmunogenicSegments.length);
+	}
+
+	public void read(CheckpointInput in) throws IOException {
+		numPreviousInfections = in.readInt();
+		exposedToImmunogenicSegments = new long[in.readInt()];
+		in.readLongs(exposedToImmunogenicSegments, 0, exposedToImmunogenicSegments.length);
+	}
+
+	private void expose(Virus v) {
+		long[] virusMask = v.getImmunogenicSegmentMask();
+		if (virusMask.length > exposedToImmunogenicSegments.length) {
+			exposedToImmunogenicSegments = Arrays.copyOf(exposedToImmunogenicSegments, virusMask.length);
+		}
+		for (int i = 0; i < virusMask.length; i++) {
+			exposedToImmunogenicSegments[i] |= virusMask[i];
+		}
+	}
+
+	// number of mask words up to the last non zero word
+	private int usedWords() {
+		int words = exposedToImmunogenicSegments.length;
+		while (words > 0 && exposedToImmunogenicSegments[words-1] == 0) {
+			words--;
+		}
+		return words;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ImmuneSystemKernel)) {
+			return false;
+		}
+		ImmuneSystemKernel other = (ImmuneSystemKernel) o;
+		if (numPreviousInfections != other.numPreviousInfections) {
+			return false;
+		}
+		int words = usedWords();
+		if (words != other.usedWords()) {
+			return false;
+		}
+		for (int i = 0; i < words; i++) {
+			if (exposedToImmunogenicSegments[i] != other.exposedToImmunogenicSegments[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		long h = 1234;
+		for (int i = usedWords(); --i >= 0; ) {
+			h ^= exposedToImmunogenicSegments[i] * (i + 1);
+		}
+		return 31*numPreviousInfections + (int) ((h >> 32) ^ h);
+	}
+
+}
@@ -0,0 +1,3 @@
+/* Immune system implementation, see ImmuneSystemDiscrete.immuneSystemType */
+
+enum ImmuneSystemType {DISCRETE, KERNEL};
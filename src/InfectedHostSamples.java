@@ -1,21 +1,25 @@
-import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
 
 
 public class InfectedHostSamples {
 	
-	PrintStream infectedStream = null;
-	File infectedFile = null;
+	AsyncOutput infectedStream = null;
 	long numHostsSampled = 0;
 	Host lastHostSampled = null; 
 	
+	// the stream is opened by reset()
 	InfectedHostSamples() {
-		reset();
 	}
 	
 	void close() {
-		infectedStream.close();
+		if (infectedStream != null) {
+			infectedStream.close();
+			infectedStream = null;
+		}
+	}
+
+	void flush() {
+		infectedStream.flush();
 	}
 	
 	public void add(Host h_, Virus v_, Segment s) {
@@ -24,7 +28,8 @@ public class InfectedHostSamples {
 		Host h=h_; 
 		Virus v=v_;
 		
-		infectedStream.printf("%f,\"%s\",\"%s\",%s,%f,%d\n",Parameters.getDate(),h,v,s.getSegmentName(), Parameters.getDate()-h.getBirthInYears(),h.getInfections().size());
+		infectedStream.print(Parameters.getDate(),6).print(",\"").printIdentity(h).print("\",\"").printIdentity(v).print("\",").print(s.getSegmentNumber());
+		infectedStream.print(',').print(Parameters.getDate()-h.getBirthInYears(),6).print(',').print(h.getInfections().size()).println();
 		if (h!=lastHostSampled) {
 			lastHostSampled=h;
 			numHostsSampled+=1;
@@ -37,15 +42,15 @@ public class InfectedHostSamples {
 
 	public void reset() {
 		numHostsSampled=0;
+		close();
 		try {
-			infectedFile = new File("out.infected");
-			infectedFile.delete();
-			infectedFile.createNewFile();
-			infectedStream = new PrintStream(infectedFile);	
-			infectedStream.printf("year,hostID,genomeID,segmentID,hostAge,numInfections\n",5);
+			infectedStream = Parameters.resumeOutput("out.infected");
+			if (infectedStream == null) {
+				infectedStream = Parameters.openOutput("out.infected");
+				infectedStream.print("year,hostID,genomeID,segmentID,hostAge,numInfections\n");
+			}
 		} catch(IOException ex) {
-			System.out.println("Could not write to file out.infected!"); 
-			System.exit(0);
+			throw new SimulationException("Could not write to file out.infected!", ex);
 		}		
 	}
 
@@ -0,0 +1,3 @@
+/* Initial host state, see EpidemiologicalParameters.initialState */
+
+enum InitialStateType {SEEDED, EQUILIBRIUM};
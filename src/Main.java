@@ -2,6 +2,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.GregorianCalendar;
+import java.util.Map;
 
 
 /* Implements an individual-based model in which the infection's genealogical history is tracked through time */
@@ -16,6 +17,38 @@ class Main {
 			}
 		}
 
+		Parameters.applyArgs(args);
+		Parameters.s.apply(Parameters.EnsembleParameters.class);
+		Parameters.s.apply(Parameters.SweepParameters.class);
+		Parameters.s.apply(Parameters.ForkParameters.class);
+		if (Parameters.SweepParameters.sweepFile != null) {
+			SweepRunner.run(args);
+			return;
+		}
+		if (Parameters.ForkParameters.forkFile != null) {
+			ForkRunner.run(args);
+			return;
+		}
+		if (Parameters.EnsembleParameters.replicates > 1) {
+			EnsembleRunner.run(args);
+			return;
+		}
+
+		Map<String,Double> summary;
+		try {
+			summary = run(args);
+		} catch (SimulationException ex) {
+			System.out.println(ex);
+			System.exit(1);
+			return;
+		}
+		System.out.printf("inc: %f",summary.get("inc"));	
+	}
+
+	// single simulation with settings args, returns summary of the time series
+	// replicates and sweep points call this in their own simulation context
+	static Map<String,Double> run(String[] args) {
+
 		// initialize random  number generator
 		cern.jet.random.AbstractDistribution.makeDefaultGenerator();		
 				
@@ -24,29 +57,32 @@ class Main {
 		Parameters.init();
 		
 		Simulation sim = new Simulation();
-		sim.reset();
+		if (Parameters.CheckpointParameters.restoreFile != null) {
+			sim.restore(new File(Parameters.CheckpointParameters.restoreFile));
+		}
+		else {
+			sim.reset();
+		}
 		
 		Parameters.printParams();
 
 		sim.run();
 		
 		try {
-			File resultFile = new File("out.results");
-			resultFile.delete();
-			resultFile.createNewFile();
-			PrintStream resultStream = new PrintStream(resultFile);
+			PrintStream resultStream = new PrintStream(Parameters.openOutput("out.results"));
 			
 			resultStream.printf("inc: %f\n",sim.getYearlyIncidancePercent());
+			resultStream.printf("restarts: %d\n",sim.getRestarts());
+			resultStream.printf("wastedDays: %d\n",sim.getWastedDays());
 			
 			resultStream.print((new GregorianCalendar()).getTime());
 												
 			resultStream.close();
 		} catch(IOException ex) {
-			System.out.println("Could not write to file out.results!"); 
-			System.exit(0);
+			throw new SimulationException("Could not write to file out.results!", ex);
 		}
 		
-		System.out.printf("inc: %f",sim.getYearlyIncidancePercent());	
+		return sim.getSummary();
 	}
 
 
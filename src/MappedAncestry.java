@@ -0,0 +1,95 @@
+/* Segments of a checkpoint file restored on demand from its segment records, mapped read-only instead of read into the heap */
+/* Forks restoring the same checkpoint map the same file, so the ancestry they have not reached is held once in the page cache */
+/* A segment is copied into the run, with its parent left as a row, the first time a reference, a parent pointer or the restored tips lead to it */
+/* Walks over the whole ancestry (maintenance passes, checkpoints and snapshots, and the tree at the end of the run) copy what they reach */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MappedAncestry {
+
+	// segments of rows, copied as they are got, followed by segments added to the list
+	public static class SegmentList extends AbstractList<Segment> {
+		private int[] rows;
+		private List<Segment> added = new ArrayList<Segment>();
+
+		SegmentList(int[] rows_) {
+			rows=rows_;
+		}
+
+		public Segment get(int i) {
+			return i < rows.length ? MappedAncestry.get(rows[i]) : added.get(i - rows.length);
+		}
+
+		public int size() {
+			return rows.length + added.size();
+		}
+
+		// appends only
+		public void add(int i, Segment s) {
+			if (i != size()) {
+				throw new UnsupportedOperationException();
+			}
+			added.add(s);
+			modCount++;
+		}
+
+		public void clear() {
+			rows = new int[0];
+			added.clear();
+			modCount++;
+		}
+	}
+
+	private static final int CHUNK_ROWS = 1 << 24;	// rows per mapping, mappings are limited to 2GB
+
+	private static ByteBuffer[] chunks = new ByteBuffer[0];
+	private static Segment[] segments = new Segment[0];	// segments copied so far, by row
+	private static int firstId = 0;						// checkpoint id of row 0
+
+	// map the next numRows segment records of in, false if in is not a file
+	public static boolean map(CheckpointInput in, int numRows) throws IOException {
+		clear();
+		if (!in.isMappable()) {
+			return false;
+		}
+		ByteBuffer[] mapped = new ByteBuffer[(numRows + CHUNK_ROWS - 1) / CHUNK_ROWS];
+		for (int c = 0; c < mapped.length; c++) {
+			int rows = Math.min(CHUNK_ROWS, numRows - c*CHUNK_ROWS);
+			mapped[c] = in.map((long) rows * Segment.RECORD_BYTES);
+		}
+		chunks = mapped;
+		segments = new Segment[numRows];
+		firstId = in.registerMapped(numRows);
+		return true;
+	}
+
+	public static boolean isMapped() {
+		return chunks.length > 0;
+	}
+
+	public static void clear() {
+		chunks = new ByteBuffer[0];
+		segments = new Segment[0];
+		firstId = 0;
+	}
+
+	// segment of row, copied from its record the first time
+	public static Segment get(int row) {
+		Segment s = segments[row];
+		if (s == null) {
+			s = Segment.read(chunks[row / CHUNK_ROWS], (row % CHUNK_ROWS) * Segment.RECORD_BYTES);
+			segments[row] = s;
+		}
+		return s;
+	}
+
+	// row of the segment with checkpoint id, -1 for null
+	static int getRow(int id) {
+		return id < 0 ? -1 : id - firstId;
+	}
+
+}
@@ -0,0 +1,159 @@
+/* Susceptible pool keeping naive hosts as birth days only, in front of a pool of experienced hosts (lazyNaiveHosts) */
+/* Indices below the number of naive hosts are naive, the others are those of the experienced pool, so uniform draws sample the mixture */
+/* A naive host is stored in the experienced pool once it is immunized, and returns to the birth days when it is reset */
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class NaiveHostPool extends AbstractHostPool {
+
+	private HostPool experienced;
+	private ImmuneSystem naive = Host.newImmuneSystem();
+	private int[] births = new int[16];	// birth days of naive hosts
+	private int numNaive = 0;
+
+	public NaiveHostPool(HostPool experienced_) {
+		experienced = experienced_;
+	}
+
+	public int size() {
+		return numNaive + experienced.size();
+	}
+
+	public int getNumNaive() {
+		return numNaive;
+	}
+
+	public Host get(int i) {
+		if (i < numNaive) {
+			return new Host(births[i], naive.copy());
+		}
+		return experienced.get(i - numNaive);
+	}
+
+	public void add(Host h) {
+		if (h.getImmuneSystem().equals(naive)) {
+			addNaive(h.getBirth());
+		}
+		else {
+			experienced.add(h);
+		}
+	}
+
+	public void addNaive(int birth) {
+		if (numNaive == births.length) {
+			births = Arrays.copyOf(births, births.length*2);
+		}
+		births[numNaive] = birth;
+		numNaive++;
+	}
+
+	// naive states are kept as birth days, the others are added to the experienced pool together
+	public void addAll(int[] births_, ImmuneSystem[] states, int from, int to) {
+		int[] experiencedBirths = new int[to - from];
+		ImmuneSystem[] experiencedStates = new ImmuneSystem[to - from];
+		int numExperienced = 0;
+		for (int k = from; k < to; k++) {
+			if (states[k].equals(naive)) {
+				addNaive(births_[k]);
+			}
+			else {
+				experiencedBirths[numExperienced] = births_[k];
+				experiencedStates[numExperienced] = states[k];
+				numExperienced++;
+			}
+		}
+		experienced.addAll(experiencedBirths, experiencedStates, 0, numExperienced);
+	}
+
+	public Host remove(int i) {
+		if (i < numNaive) {
+			Host h = new Host(births[i], naive.copy());
+			deleteNaive(i);
+			return h;
+		}
+		return experienced.remove(i - numNaive);
+	}
+
+	public void transfer(int i, HostPool to) {
+		if (i < numNaive) {
+			to.addNaive(births[i]);
+			deleteNaive(i);
+		}
+		else {
+			experienced.transfer(i - numNaive, to);
+		}
+	}
+
+	public void clear() {
+		numNaive = 0;
+		experienced.clear();
+	}
+
+	public void close() {
+		experienced.close();
+	}
+
+	public double riskOfInfection(int i, Virus v) {
+		if (i < numNaive) {
+			return naive.riskOfInfection(v);
+		}
+		return experienced.riskOfInfection(i - numNaive, v);
+	}
+
+	// a naive host moves to the experienced pool, which changes indices as a removal does
+	public void addToImmuneHistory(int i, Virus v) {
+		if (i < numNaive) {
+			Host h = remove(i);
+			h.addToImmuneHistory(v);
+			experienced.add(h);
+		}
+		else {
+			experienced.addToImmuneHistory(i - numNaive, v);
+		}
+	}
+
+	// an experienced host moves to the birth days, which changes indices as a removal does
+	public void reset(int i) {
+		if (i < numNaive) {
+			births[i] = Parameters.getDay();
+		}
+		else {
+			experienced.remove(i - numNaive);
+			addNaive(Parameters.getDay());
+		}
+	}
+
+	public void transferAll(HostPool to) {
+		for (int i = 0; i < numNaive; i++) {
+			to.addNaive(births[i]);
+		}
+		numNaive = 0;
+		experienced.transferAll(to);
+	}
+
+	public void forget(BitSet indices) {
+		experienced.forget(indices);
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(numNaive);
+		out.writeInts(births, 0, numNaive);
+		experienced.write(out);
+	}
+
+	public void read(CheckpointInput in) throws IOException {
+		numNaive = in.readInt();
+		births = new int[Math.max(16, numNaive)];
+		in.readInts(births, 0, numNaive);
+		experienced.read(in);
+	}
+
+	// remove by moving last naive host to location i
+	private void deleteNaive(int i) {
+		numNaive--;
+		births[i] = births[numNaive];
+	}
+
+}
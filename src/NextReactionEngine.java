@@ -0,0 +1,140 @@
+/* Event driven simulation of a host population in continuous time (next reaction method of Gibson & Bruck 2000) */
+/* Each event channel of HostPopulation holds the time of its next event in an indexed binary heap */
+/* After an event, next event times of other channels are rescaled to their new rates instead of being redrawn */
+
+import java.io.IOException;
+
+public class NextReactionEngine {
+
+	private HostPopulation hp;
+	private boolean started = false;
+	private double time;	// in days
+	private double[] rates = new double[HostPopulation.NUM_CHANNELS];
+	private double[] newRates = new double[HostPopulation.NUM_CHANNELS];
+	private double[] times = new double[HostPopulation.NUM_CHANNELS];
+	private int[] heap = new int[HostPopulation.NUM_CHANNELS];		// channels ordered by time of next event
+	private int[] position = new int[HostPopulation.NUM_CHANNELS];	// index of each channel in heap
+
+	public NextReactionEngine(HostPopulation hp_) {
+		hp = hp_;
+	}
+
+	// carry out all events before time until (in days)
+	public void advance(double until) {
+		if (!started) {
+			start();
+		}
+		else {
+			update(-1); // rates may have changed between calls, e.g. by disruptions
+		}
+		while (times[heap[0]] < until) {
+			int channel = heap[0];
+			time = times[channel];
+			hp.fire(channel);
+			update(channel);
+		}
+		time = until;
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeBoolean(started);
+		out.writeDouble(time);
+		out.writeDoubles(rates, 0, rates.length);
+		out.writeDoubles(times, 0, times.length);
+		out.writeInts(heap, 0, heap.length);
+		out.writeInts(position, 0, position.length);
+	}
+
+	public void read(CheckpointInput in) throws IOException {
+		started = in.readBoolean();
+		time = in.readDouble();
+		in.readDoubles(rates, 0, rates.length);
+		in.readDoubles(times, 0, times.length);
+		in.readInts(heap, 0, heap.length);
+		in.readInts(position, 0, position.length);
+	}
+
+	private void start() {
+		started = true;
+		time = Parameters.getDay();
+		hp.getRates(rates);
+		for (int channel = 0; channel < rates.length; channel++) {
+			times[channel] = nextTime(rates[channel]);
+			heap[channel] = channel;
+			position[channel] = channel;
+		}
+		for (int i = heap.length/2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	// draw a new time for the fired channel and rescale the others to their new rates
+	private void update(int fired) {
+		hp.getRates(newRates);
+		for (int channel = 0; channel < rates.length; channel++) {
+			double oldTime = times[channel];
+			if (channel == fired || rates[channel] == 0) {
+				times[channel] = nextTime(newRates[channel]);
+			}
+			else if (newRates[channel] == 0) {
+				times[channel] = Double.POSITIVE_INFINITY;
+			}
+			else if (newRates[channel] != rates[channel]) {
+				times[channel] = time + (rates[channel]/newRates[channel])*(times[channel]-time);
+			}
+			rates[channel] = newRates[channel];
+			if (times[channel] < oldTime) {
+				siftUp(position[channel]);
+			}
+			else if (times[channel] > oldTime) {
+				siftDown(position[channel]);
+			}
+		}
+	}
+
+	private double nextTime(double rate) {
+		if (rate > 0) {
+			return time + Random.nextExponential(1.0)/rate;
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i-1)/2;
+			if (times[heap[parent]] <= times[heap[i]]) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int smallest = i;
+			int left = 2*i + 1;
+			int right = left + 1;
+			if (left < heap.length && times[heap[left]] < times[heap[smallest]]) {
+				smallest = left;
+			}
+			if (right < heap.length && times[heap[right]] < times[heap[smallest]]) {
+				smallest = right;
+			}
+			if (smallest == i) {
+				break;
+			}
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int channel = heap[i];
+		heap[i] = heap[j];
+		heap[j] = channel;
+		position[heap[i]] = i;
+		position[heap[j]] = j;
+	}
+
+}
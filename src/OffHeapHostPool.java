@@ -0,0 +1,131 @@
+/* Host pool storing host records outside the Java heap */
+/* Records are 8 bytes (birth day, immune state id) in fixed size chunks of direct or memory-mapped buffers */
+/* Memory-mapped chunks are backed by an unlinked temporary file, so the OS can page them out when RAM is short */
+/* Direct chunks count against -XX:MaxDirectMemorySize, which defaults to the maximum heap size */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class OffHeapHostPool extends RecordHostPool {
+
+	private static final int RECORD_BYTES = 8;
+	private static final int CHUNK_SHIFT = 22; // 4M records (32MB) per chunk
+	private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+	private ByteBuffer[] chunks = new ByteBuffer[0];
+	private RandomAccessFile records = null; // null for direct buffers
+	private FileChannel channel = null;
+
+	public OffHeapHostPool(ImmuneStateTable immuneStates_, int initialCapacity, String directory) {
+		super(immuneStates_);
+		if (directory != null) {
+			try {
+				File file = File.createTempFile("hosts", ".bin", new File(directory));
+				records = new RandomAccessFile(file, "rw");
+				channel = records.getChannel();
+				if (!file.delete()) { // mappings stay valid after unlinking
+					file.deleteOnExit();
+				}
+			} catch (IOException ex) {
+				throw new SimulationException("Could not create host record file in " + directory, ex);
+			}
+		}
+		ensureCapacity(initialCapacity);
+	}
+
+	protected int getBirth(int i) {
+		return chunks[i >>> CHUNK_SHIFT].getInt((i & CHUNK_MASK) * RECORD_BYTES);
+	}
+
+	protected int getState(int i) {
+		return chunks[i >>> CHUNK_SHIFT].getInt((i & CHUNK_MASK) * RECORD_BYTES + 4);
+	}
+
+	protected void setRecord(int i, int birth, int state) {
+		ByteBuffer chunk = chunks[i >>> CHUNK_SHIFT];
+		int offset = (i & CHUNK_MASK) * RECORD_BYTES;
+		chunk.putInt(offset, birth);
+		chunk.putInt(offset + 4, state);
+	}
+
+	protected void setState(int i, int state) {
+		chunks[i >>> CHUNK_SHIFT].putInt((i & CHUNK_MASK) * RECORD_BYTES + 4, state);
+	}
+
+	// adds whole chunks, existing records are never copied
+	protected void ensureCapacity(int capacity) {
+		int neededChunks = (int) ((((long) capacity) + CHUNK_MASK) >>> CHUNK_SHIFT);
+		if (neededChunks > chunks.length) {
+			int oldLength = chunks.length;
+			chunks = Arrays.copyOf(chunks, neededChunks);
+			for (int c = oldLength; c < neededChunks; c++) {
+				chunks[c] = allocateChunk(c);
+			}
+		}
+	}
+
+	private ByteBuffer allocateChunk(int c) {
+		long chunkBytes = ((long) CHUNK_RECORDS) * RECORD_BYTES;
+		if (channel == null) {
+			try {
+				return ByteBuffer.allocateDirect((int) chunkBytes).order(ByteOrder.nativeOrder());
+			} catch (OutOfMemoryError ex) {
+				throw new SimulationException("Could not allocate host records, raise -XX:MaxDirectMemorySize or set offHeapDirectory", ex);
+			}
+		}
+		try {
+			return channel.map(FileChannel.MapMode.READ_WRITE, c * chunkBytes, chunkBytes).order(ByteOrder.nativeOrder());
+		} catch (IOException ex) {
+			throw new SimulationException("Could not map host records", ex);
+		}
+	}
+
+	// unmaps or frees the chunks and closes the record file, records are no longer accessible but the size is kept for summaries
+	public void close() {
+		for (ByteBuffer chunk : chunks) {
+			free(chunk);
+		}
+		chunks = new ByteBuffer[0];
+		if (records != null) {
+			try {
+				records.close();
+			} catch (IOException ex) {
+				System.out.println("Could not close host record file"); 
+			}
+			records = null;
+			channel = null;
+		}
+	}
+
+	// direct and mapped buffers are otherwise only released once collected, the cleaner is reached through
+	// sun.misc.Unsafe.invokeCleaner from Java 9 and through DirectByteBuffer.cleaner before, if neither is available the collector frees it
+	private static void free(ByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} catch (NoSuchMethodException ex) {
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (Exception ex) {
+			// left to the garbage collector
+		}
+	}
+
+}
@@ -0,0 +1,195 @@
+/* Contact phase of HostPopulation evaluated in parallel (contactMode=PARALLEL) */
+/* Contacts are split into fixed size batches, each evaluated with its own random stream against the population at the start of the phase */
+/* Successful transmissions are then applied in contact order, a susceptible taken by an earlier contact is not infected by later ones */
+/* Batches and their streams do not depend on the number of threads, so a seed gives the same output for any number of threads */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelContactPhase {
+
+	static final int BATCH_SIZE = 4096;
+
+	private ForkJoinPool pool;
+	private BitSet claimed = new BitSet();	// susceptible indices taken in the current phase
+
+	// successful transmission of a contact to the host at index target
+	private static class Transmission {
+		int contact;
+		int target;
+		Virus virus;
+		Virus[] sources;
+
+		Transmission(int contact_, int target_, Virus virus_, Virus[] sources_) {
+			contact=contact_;
+			target=target_;
+			virus=virus_;
+			sources=sources_;
+		}
+	}
+
+	public ParallelContactPhase(int threads) {
+		pool = new ForkJoinPool(threads);
+	}
+
+	public int getThreads() {
+		return pool.getParallelism();
+	}
+
+	public void close() {
+		pool.shutdown();
+	}
+
+	// contacts of infecteds with susceptibles, returns number of cases
+	public int contactSusceptibles(final int contacts, final HostPool susceptibles, final List<Host> infecteds) {
+		if (contacts == 0 || susceptibles.size() == 0) {
+			return 0;
+		}
+		final int numS = susceptibles.size();
+		final int numI = infecteds.size();
+		List<Transmission> transmissions = evaluate(contacts, new Evaluator() {
+			public void evaluate(int contact, RandomStream rng, List<Transmission> accepted) {
+				Host iH = infecteds.get(rng.nextInt(0, numI-1));
+				int sndex = rng.nextInt(0, numS-1);
+				for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
+					Virus v = iH.getInfections().get(rng.nextInt(0, iH.getInfections().size()-1));
+					Virus[] sources = v.reassortmentSources(iH.getInfections(), rng);
+					Virus candidate = v.candidate(sources);
+					double chanceOfSuccess = susceptibles.riskOfInfection(sndex, candidate)*iH.getRiskOfTransmission(candidate);
+					if (rng.nextDouble() < chanceOfSuccess) {
+						accepted.add(new Transmission(contact, sndex, v, sources));
+					}
+				}
+			}
+		});
+
+		// first contact to reach a susceptible infects it, hosts are taken out of the pool after all infections
+		List<Host> infected = new ArrayList<Host>();
+		List<Integer> targets = new ArrayList<Integer>();
+		int winner = -1;
+		Host sH = null;
+		for (Transmission t : transmissions) {
+			if (t.contact != winner) {
+				if (claimed.get(t.target)) {
+					continue;
+				}
+				claimed.set(t.target);
+				winner = t.contact;
+				sH = susceptibles.get(t.target);
+				infected.add(sH);
+				targets.add(t.target);
+			}
+			sH.infect(t.virus.reassort(t.sources));
+		}
+		claimed.clear();
+
+		int[] sorted = new int[targets.size()];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = targets.get(i);
+		}
+		Arrays.sort(sorted);
+		for (int i = sorted.length-1; i >= 0; i--) {
+			susceptibles.remove(sorted[i]);
+		}
+		infecteds.addAll(infected);
+		return infected.size();
+	}
+
+	// contacts of infecteds with infecteds, returns number of cases
+	public int contactInfecteds(final int contacts, final List<Host> infecteds) {
+		if (contacts == 0) {
+			return 0;
+		}
+		final int numI = infecteds.size();
+		List<Transmission> transmissions = evaluate(contacts, new Evaluator() {
+			public void evaluate(int contact, RandomStream rng, List<Transmission> accepted) {
+				Host fromH = infecteds.get(rng.nextInt(0, numI-1));
+				int index = rng.nextInt(0, numI-1);
+				Host toH = infecteds.get(index);
+				for (int j=0; j<Parameters.MutationAndReassortmentParameters.n_bottleNeck; j++) {
+					Virus v = fromH.getInfections().get(rng.nextInt(0, fromH.getInfections().size()-1));
+					Virus[] sources = v.reassortmentSources(fromH.getInfections(), rng);
+					Virus candidate = v.candidate(sources);
+					double chanceOfSuccess = toH.riskOfInfection(candidate)*fromH.getRiskOfTransmission(candidate);
+					if (rng.nextDouble() < chanceOfSuccess) {
+						accepted.add(new Transmission(contact, index, v, sources));
+					}
+				}
+			}
+		});
+
+		int cases = 0;
+		int last = -1;
+		for (Transmission t : transmissions) {
+			infecteds.get(t.target).infect(t.virus.reassort(t.sources));
+			if (t.contact != last) {
+				cases++;
+				last = t.contact;
+			}
+		}
+		return cases;
+	}
+
+	private interface Evaluator {
+		// evaluate a single contact, adding successful transmissions to accepted in order
+		void evaluate(int contact, RandomStream rng, List<Transmission> accepted);
+	}
+
+	// evaluate contacts in batches, returns successful transmissions in contact order
+	private List<Transmission> evaluate(int contacts, Evaluator evaluator) {
+		int numBatches = (contacts + BATCH_SIZE - 1) / BATCH_SIZE;
+		RandomStream phase = Random.newStream(Random.nextInt(0, Integer.MAX_VALUE-1));
+		List<List<Transmission>> results = new ArrayList<List<Transmission>>();
+		for (int b = 0; b < numBatches; b++) {
+			results.add(new ArrayList<Transmission>());
+		}
+		pool.invoke(new BatchTask(0, numBatches, contacts, phase, evaluator, results));
+		List<Transmission> transmissions = new ArrayList<Transmission>();
+		for (List<Transmission> result : results) {
+			transmissions.addAll(result);
+		}
+		return transmissions;
+	}
+
+	// evaluates batches [from,to), splitting until a single batch is left
+	private static class BatchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int from;
+		private int to;
+		private int contacts;
+		private RandomStream phase;
+		private Evaluator evaluator;
+		private List<List<Transmission>> results;
+
+		BatchTask(int from_, int to_, int contacts_, RandomStream phase_, Evaluator evaluator_, List<List<Transmission>> results_) {
+			from=from_;
+			to=to_;
+			contacts=contacts_;
+			phase=phase_;
+			evaluator=evaluator_;
+			results=results_;
+		}
+
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BatchTask(from, middle, contacts, phase, evaluator, results),
+						new BatchTask(middle, to, contacts, phase, evaluator, results));
+				return;
+			}
+			RandomStream rng = phase.split(from);
+			List<Transmission> accepted = results.get(from);
+			int end = Math.min(contacts, (from+1)*BATCH_SIZE);
+			for (int contact = from*BATCH_SIZE; contact < end; contact++) {
+				evaluator.evaluate(contact, rng, accepted);
+			}
+		}
+	}
+
+}
@@ -5,9 +5,13 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 enum PhenotypeType {SEGMENTED};
 //enum VaccineMakeup {NONE, PREVALENT_SEGMENTS, PREVALENT_STRAINS, MAXIMUM_COVERAGE};
@@ -25,10 +29,76 @@ public class Parameters {
 		static int endDay = 365*300; 	
 		@Setting (description ="Repeat simulation following a stochastic extinction until endDay is reached."	) 
 		static boolean repeatSim = true;		
+		@Setting (description ="days between in-memory snapshots that a repeated simulation restarts from after an extinction, with a fresh random stream (0 to restart from day 0)" )
+		static int snapshotInterval = 0;
 		@Setting (description ="Prevent stochastic extinction during burn-in period by maintaining at least one infected individual...." ) 
 		static boolean keepAliveDuringBurnin = true; 	
 		@Setting (description = "Prevent stochastic extinction by maintaining at least one infected individual.... " )
 		static boolean keepAlive = true;
+		@Setting (description ="time stepping DAILY (one day per step)/TAU_LEAP (adaptive steps chosen by a tau-leaping error criterion, ending on output, disruption and burn-in days)/NEXT_REACTION (exact continuous time events, for small populations and low prevalence)" )
+		static EngineType engine = EngineType.DAILY;
+		@Setting (description ="tau-leaping error tolerance, largest expected relative change of S, I or R in one step" )
+		static double tauLeapEpsilon = 0.03;
+		@Setting (description ="longest tau-leaping step in days" )
+		static int maxLeap = 30;
+		@Setting (description ="largest number of tau-leaping steps per day when rates change quickly (1 for steps of at least a day, as with DAILY)" )
+		static int maxSubsteps = 1;
+		@Setting (description ="births, deaths and waning are taken at their expected value rather than drawn while the whole S or R compartment is larger than this, not per immune class; infections from S (contacts), recoveries and which hosts are affected stay stochastic (0 for fully stochastic, DAILY and TAU_LEAP engines)" )
+		static int deterministicThreshold = 0;
+		@Setting (description ="threads evaluating contacts with contactMode=PARALLEL (output for a seed does not depend on the number of threads)" )
+		static int contactThreads = 1;
+		@Setting (description ="threads constructing the initial susceptibles in blocks with their own random streams, immune histories spread over hosts multinomially (1 to construct them host by host as before, output for a seed does not depend on the number of threads above 1)" )
+		static int constructionThreads = 1;
+		@Setting (description ="contacts of infecteds with susceptibles INDIVIDUAL (each contact drawn and evaluated in turn)/PARALLEL (contacts evaluated in fixed batches with their own random streams against the population at the start of the phase, on contactThreads threads, a different trajectory from INDIVIDUAL for the same seed)/BATCHED (successful contacts drawn per genotype and immune class, immune classes need hostStore=COHORT, DAILY and TAU_LEAP engines)" )
+		static ContactType contactMode = ContactType.INDIVIDUAL;
+		@Setting (description ="directory for output files (working directory if not set)" )
+		static String outputDirectory = null;
+		@Setting (description ="write out.* output files (false to only collect summary statistics, as sweeps do)" )
+		static boolean outputFiles = true;
+	}
+
+	public static class EnsembleParameters {
+		// Ensemble Parameters
+		@Setting (description ="number of replicates run in this JVM, each in its own simulation context with seed seed+i and output in outputDirectory/replicateDirectory+i" )
+		static int replicates = 1;
+		@Setting (description ="threads running replicates concurrently (0 for one per processor)" )
+		static int ensembleThreads = 0;
+		@Setting (description ="prefix of replicate output directories" )
+		static String replicateDirectory = "replicate";
+	}
+
+	public static class SweepParameters {
+		// Sweep Parameters
+		@Setting (description ="file with a line setting=from,to,step for each swept setting, runs a sweep writing one row per point to out.sweep (no sweep if not set)" )
+		static String sweepFile = null;
+		@Setting (description ="sweep points GRID (every step of every setting)/LATIN_HYPERCUBE/SOBOL (sweepPoints points between from and to, steps are not used)" )
+		static SweepDesign sweepDesign = SweepDesign.GRID;
+		@Setting (description ="number of points of LATIN_HYPERCUBE and SOBOL sweeps" )
+		static int sweepPoints = 64;
+		@Setting (description ="threads running sweep points, idle threads steal points from busy ones (0 for one per processor)" )
+		static int sweepThreads = 0;
+	}
+
+	public static class CheckpointParameters {
+		// Checkpoint Parameters
+		@Setting (description ="file in outputDirectory to write checkpoints of the full simulation state to (no checkpoints if not set)" )
+		static String checkpointFile = null;
+		@Setting (description ="days between checkpoints, replacing the previous one (0 for a single checkpoint at the end of burn-in)" )
+		static int checkpointInterval = 0;
+		@Setting (description ="checkpoint to continue a run from, settings are taken from the checkpoint except endDay, outputDirectory, outputFiles, contactThreads, checkpoint settings and disruption settings that are given (new run if not set)" )
+		static String restoreFile = null;
+		@Setting (description ="continue a restored run with independent random stream restoreStream split from the checkpoint's (0 to continue the checkpoint's own stream)" )
+		static int restoreStream = 0;
+	}
+
+	public static class ForkParameters {
+		// Fork Parameters
+		@Setting (description ="file with a line of disruption settings (and optionally endDay) per fork, runs burn-in once and continues each fork from its checkpoint concurrently, writing a summary per fork to out.forks (no forks if not set)" )
+		static String forkFile = null;
+		@Setting (description ="threads running forks concurrently (0 for one per processor)" )
+		static int forkThreads = 0;
+		@Setting (description ="prefix of fork output directories" )
+		static String forkDirectory = "fork";
 	}
 
 	public static class SamplingParameters {
@@ -55,10 +125,16 @@ public class Parameters {
 		static double infectedHostSamplingRate = 2E-4; 
 		@Setting (description = "Host sampling rate for out.immunity" )
 		static double immunityHostSamplingRate = 1E-6;
+		@Setting (description ="keep an index of current infections by genotype and print the prevalence of each genotype to out.genotypes with out.timeseries" )
+		static boolean genotypeIndex = false;
+		@Setting (description ="tree output TEXT (out.tips and out.branches)/COLUMNAR (compressed binary columns in out.tree, converted back to text by ColumnarTree)" )
+		static TreeFormat treeFormat = TreeFormat.TEXT;
 		
 		// Memory Optimization Parameters
-//		@Setting (description ="interval at which to streamline tree (optimize memory usage)" )
-//		static int treeStreamlineInterval = 5000;
+		@Setting (description ="ancestry recording FULL (new segments on every infection)/COMPRESSED (infections link to the parent virus, segments are created on mutation, reassortment, introduction and sampling)/TABLES (node and edge tables simplified every treeStreamlineInterval, also written to out.nodes and out.edges)" )
+		static AncestryType ancestry = AncestryType.FULL;
+		@Setting (description ="interval in days at which to streamline ancestry of tips and current infections during the run (optimize memory usage, unary segments removed during the run are missing from out.branches and tip layout can differ, 0 for only at the end, where the heap keeps every segment on the lineages of tips and current infections and grows with the length of the run)" )
+		static int treeStreamlineInterval = 0;
 	}
 
 	public static class DemographicParameters {
@@ -71,6 +147,12 @@ public class Parameters {
 		static double deathRate = 1.0/(30.0*365.0);	
 		@Setting (description ="whether to keep overall population size constant" )
 		static boolean swapDemography = true;	
+		@Setting (description ="storage for susceptible and recoverd hosts OBJECTS/COMPACT (birth day and shared immune state in primitive arrays)/OFF_HEAP (same records outside the java heap)/COHORT (host counts per immune state)" )
+		static HostStoreType hostStore = HostStoreType.OBJECTS;
+		@Setting (description ="keep naive susceptibles as birth days only, hosts go to hostStore once first immunized (COHORT stores already count naive hosts)" )
+		static boolean lazyNaiveHosts = false;
+		@Setting (description ="directory for memory-mapped host records when hostStore=OFF_HEAP (direct buffers if not set, limited by the JVM option -XX:MaxDirectMemorySize which defaults to the maximum heap size -Xmx)" )
+		static String offHeapDirectory = null;
 	}
 
 
@@ -80,6 +162,8 @@ public class Parameters {
 		static int initialI = 1;
 		@Setting (description ="proportion recovered to intial virus/es (multiple recoveries for value greater than 1)" )
 		static double initialPrR = 4.0; 
+		@Setting (description ="initial state SEEDED (initialI infected and initialPrR immune histories) or EQUILIBRIUM (hosts by number of previous infections at the endemic equilibrium, so that burn-in can be short)" )
+		static InitialStateType initialState = InitialStateType.SEEDED;
 		@Setting (description ="in contacts per individual per day" )
 		static double beta = 24.6/7.0; //3.72/7.0 or 24.6/7.0 
 		@Setting (description ="in recoveries per individual per day" )
@@ -104,6 +188,10 @@ public class Parameters {
 		static double segmentFitnessParam1 = 1; 
 		@Setting (description ="segment fitness parameter 2" ) 
 		static double segmentFitnessParam2 = 1;
+		@Setting (description ="index immune memory by per locus allele slots which are reused after alleles go extinct (vs. global segment numbers)" ) 
+		static boolean denseAlleleIndices = true;
+		@Setting (description ="interval in days between censuses of circulating alleles when denseAlleleIndices is set" ) 
+		static int alleleCensusInterval = 365;
 	}
 	
 	public static class VirusParameters {
@@ -193,6 +281,9 @@ public class Parameters {
 	// Settings
 	static Settings s;
 
+	// output files continued from a restored checkpoint, with their length at the checkpoint
+	private static Map<String,Long> resumedOutputs = new HashMap<String,Long>();
+
 	// measured in years, starting at Parameters.SimulationParameters.burnin
 	public static float getDate() {
 		return (float) (((float) getDay() - (float) Parameters.SimulationParameters.burnin ) / 365.0 );
@@ -203,6 +294,10 @@ public class Parameters {
 		day = 0;
 
 		s.apply(SimulationParameters.class);
+		s.apply(EnsembleParameters.class);
+		s.apply(SweepParameters.class);
+		s.apply(CheckpointParameters.class);
+		s.apply(ForkParameters.class);
 		s.apply(SamplingParameters.class);
 		s.apply(EpidemiologicalParameters.class);
 		s.apply(DemographicParameters.class);
@@ -218,7 +313,10 @@ public class Parameters {
 
 		s.apply(ImmuneSystemDiscrete.ImmunityParameters.class);		
 		ImmuneSystemDiscrete.updateImmunogenicSegmentMask(Parameters.SegmentParameters.nImmunogenicSegments);
+		ImmuneSystemKernel.updateTables(Parameters.SegmentParameters.nImmunogenicSegments);
 
+		AlleleRegistry.init();
+		TreeSequence.init();
 		setUrSegment(new Segment()); // root to all segments		
 		setInitialViruses(new ArrayList<Virus>());
 
@@ -241,10 +339,19 @@ public class Parameters {
 				viralSegments[j]=initialSegments.get(j).get(Random.nextInt(0, Parameters.SegmentParameters.nInitialSegmentAllels[j]-1));
 			}
 			Parameters.getInitialViruses().add(new Virus(viralSegments,0));
+			AlleleRegistry.pin(Parameters.getInitialViruses().get(i));
 		}
 
 	}
 
+	// classes holding @Setting fields
+	public static List<Class<?>> getSettingClasses() {
+		List<Class<?>> classes = new ArrayList<Class<?>>(Arrays.asList(Parameters.class.getDeclaredClasses()));
+		classes.add(Random.class);
+		classes.add(ImmuneSystemDiscrete.ImmunityParameters.class);
+		return classes;
+	}
+
 	public static void applyArgs(String[] args) {
 		s = new Settings(args);
 		s.apply(Parameters.class);
@@ -253,12 +360,13 @@ public class Parameters {
 	public static void printParams() {
 
 		try {
-			File paramFile = new File("out.params");
-			paramFile.delete();
-			paramFile.createNewFile();
-			PrintStream paramStream = new PrintStream(paramFile);
+			PrintStream paramStream = new PrintStream(openOutput("out.params"));
 			Settings.printSettings(Parameters.class, paramStream);
 			Settings.printSettings(SimulationParameters.class, paramStream);
+			Settings.printSettings(EnsembleParameters.class, paramStream);
+			Settings.printSettings(SweepParameters.class, paramStream);
+			Settings.printSettings(CheckpointParameters.class, paramStream);
+			Settings.printSettings(ForkParameters.class, paramStream);
 			Settings.printSettings(Parameters.SamplingParameters.class, paramStream);
 			Settings.printSettings(Parameters.DemographicParameters.class, paramStream);
 			Settings.printSettings(Parameters.EpidemiologicalParameters.class, paramStream);
@@ -273,9 +381,58 @@ public class Parameters {
 			paramStream.print((new GregorianCalendar()).getTime());												
 			paramStream.close();
 		} catch(IOException ex) {
-			System.out.println("Could not write to file out.params!"); 
-			System.exit(0);
+			throw new SimulationException("Could not write to file out.params!", ex);
+		}
+	}
+
+	// output file in outputDirectory, created if missing
+	public static File getOutputFile(String name) {
+		if (SimulationParameters.outputDirectory == null) {
+			return new File(name);
+		}
+		File directory = new File(SimulationParameters.outputDirectory);
+		directory.mkdirs();
+		return new File(directory, name);
+	}
+
+	// new output file in outputDirectory, writes are discarded when outputFiles is false
+	public static AsyncOutput openOutput(String name) throws IOException {
+		if (!SimulationParameters.outputFiles) {
+			return new AsyncOutput(null);
+		}
+		File file = getOutputFile(name);
+		file.delete();
+		file.createNewFile();
+		return new AsyncOutput(file);
+	}
+
+	// output file continued from a restored checkpoint, cut back to its length at the checkpoint and opened for appending
+	// null if the file is not continued or not there, in which case it is opened with openOutput
+	public static AsyncOutput resumeOutput(String name) throws IOException {
+		Long length = resumedOutputs.remove(name);
+		if (length == null) {
+			return null;
 		}
+		if (!SimulationParameters.outputFiles) {
+			return openOutput(name);
+		}
+		File file = getOutputFile(name);
+		if (!file.exists()) {
+			return null;
+		}
+		if (file.length() < length) {
+			System.out.println(name + " is shorter than at the checkpoint, continuing it as it is");
+		}
+		else {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(length);
+			raf.close();
+		}
+		return new AsyncOutput(file);
+	}
+
+	public static void setResumedOutputs(Map<String,Long> resumedOutputs_) {
+		resumedOutputs = resumedOutputs_;
 	}
 
 	public static int getDay() {
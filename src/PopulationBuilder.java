@@ -0,0 +1,110 @@
+/* Parallel construction of the initial susceptibles of HostPopulation.reset() (constructionThreads > 1) */
+/* Hosts are built in fixed size blocks, each with its own random stream, with births drawn from the age distribution and initial immune histories */
+/* Immune history additions are spread over hosts multinomially, as when each goes to a random host, first over blocks and then over the hosts of a block */
+/* Equal immune states of a block are one object, so record and cohort stores intern each once; blocks and their streams do not depend on the number of threads */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class PopulationBuilder {
+
+	static final int BLOCK_SIZE = 1 << 16;
+
+	// add n hosts to pool, immunized by additions random initial viruses in total
+	public static void addSusceptibles(HostPool pool, int n, int additions, int threads) {
+		int numBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		RandomStream phase = Random.newStream(Random.nextInt(0, Integer.MAX_VALUE-1));
+		int[] blockAdditions = new int[numBlocks];
+		int left = additions;
+		for (int b = 0; b < numBlocks; b++) {
+			int hostsLeft = n - b*BLOCK_SIZE;
+			blockAdditions[b] = b < numBlocks-1 ? Random.nextBinomial(left, (double) blockSize(n, b) / hostsLeft) : left;
+			left -= blockAdditions[b];
+		}
+
+		// masks are filled on first use, before blocks read them concurrently
+		List<Virus> viruses = Parameters.getInitialViruses();
+		for (Virus v : viruses) {
+			v.getImmunogenicSegmentMask();
+		}
+
+		int[][] births = new int[numBlocks][];
+		ImmuneSystem[][] states = new ImmuneSystem[numBlocks][];
+		ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+		forkJoinPool.invoke(new BlockTask(0, numBlocks, n, blockAdditions, phase, births, states));
+		forkJoinPool.shutdown();
+
+		for (int b = 0; b < numBlocks; b++) {
+			pool.addAll(births[b], states[b], 0, births[b].length);
+			births[b] = null;
+			states[b] = null;
+			System.out.println("adding hosts: " + Math.min(n, (b+1)*BLOCK_SIZE) + " out of " + n); 	// display
+		}
+	}
+
+	private static int blockSize(int n, int b) {
+		return Math.min(BLOCK_SIZE, n - b*BLOCK_SIZE);
+	}
+
+	// builds blocks [from,to), splitting until a single block is left
+	private static class BlockTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int from;
+		private int to;
+		private int n;
+		private int[] blockAdditions;
+		private RandomStream phase;
+		private int[][] births;
+		private ImmuneSystem[][] states;
+
+		BlockTask(int from_, int to_, int n_, int[] blockAdditions_, RandomStream phase_, int[][] births_, ImmuneSystem[][] states_) {
+			from=from_;
+			to=to_;
+			n=n_;
+			blockAdditions=blockAdditions_;
+			phase=phase_;
+			births=births_;
+			states=states_;
+		}
+
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BlockTask(from, middle, n, blockAdditions, phase, births, states),
+						new BlockTask(middle, to, n, blockAdditions, phase, births, states));
+				return;
+			}
+			RandomStream rng = phase.split(from);
+			List<Virus> viruses = Parameters.getInitialViruses();
+			int size = blockSize(n, from);
+			int[] blockBirths = new int[size];
+			ImmuneSystem[] blockStates = new ImmuneSystem[size];
+			Map<ImmuneSystem,ImmuneSystem> distinct = new HashMap<ImmuneSystem,ImmuneSystem>();
+			ImmuneSystem scratch = Host.newImmuneSystem();
+			int left = blockAdditions[from];
+			for (int j = 0; j < size; j++) {
+				blockBirths[j] = Host.randomBirth(rng);
+				int k = j < size-1 ? rng.nextBinomial(left, 1.0 / (size - j)) : left;
+				left -= k;
+				scratch.reset();
+				for (int m = 0; m < k; m++) {
+					scratch.add(viruses.get(rng.nextInt(0, viruses.size()-1)));
+				}
+				ImmuneSystem state = distinct.get(scratch);
+				if (state == null) {
+					state = scratch.copy();
+					distinct.put(state, state);
+				}
+				blockStates[j] = state;
+			}
+			births[from] = blockBirths;
+			states[from] = blockStates;
+		}
+	}
+
+}
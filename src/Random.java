@@ -2,84 +2,104 @@
 /* Trying to encapsulate this, so the RNG particulars can be changed if necessary */ 
 /* Completely static class, allows no instances to be instantiated */
 
-//import cern.jet.random.*;
-import cern.jet.random.Exponential;
-import cern.jet.random.Gamma;
-import cern.jet.random.Normal;
-import cern.jet.random.Poisson;
-import cern.jet.random.Uniform;
-import cern.jet.random.engine.*;
+import java.io.IOException;
+
+import cern.jet.random.engine.MersenneTwister;
 
 
 public class Random {
 				
 	// methods
-	static RandomEngine rng = null;
 	@Setting static Integer seed = null;
+	@Setting (description ="random number generator, MERSENNE_TWISTER (Colt, as before streams)/SPLITMIX (counter-based, cheap independent streams)")
+	static GeneratorType generator = GeneratorType.MERSENNE_TWISTER;
 	
-	static Uniform myUniform = null;
-	static Exponential myExp = null;
-	static Normal myNormal = null;
-	static Gamma myGamma = null;
-	static Poisson myPoisson = null;
+	static RandomStream stream = null;	// main stream, drawn from by the static methods
 		
 	public static void init() {
-		if (seed!=null)
-			rng = new MersenneTwister(seed);
-		else 
-			rng = new MersenneTwister();
-		
-		myUniform = new Uniform(rng);
-		myExp = new Exponential(1,rng);
-		myNormal = new Normal(1,1,rng);
-		myGamma = new Gamma(1, 1, rng);
-		myPoisson = new Poisson(1, rng);
-		
+		stream = newStream(seed!=null ? seed : MersenneTwister.DEFAULT_SEED);
+	}
+
+	// state of the main stream for checkpoints, the generator is a setting
+	public static void write(CheckpointOutput out) throws IOException {
+		stream.write(out);
+	}
+
+	public static void read(CheckpointInput in) throws IOException {
+		stream.read(in);
+	}
+
+	// continue with the independent stream of index split from the main stream
+	public static void splitStream(long index) {
+		stream = stream.split(index);
+	}
+
+	// stream the static methods draw from, for code that takes a stream
+	public static RandomStream getStream() {
+		return stream;
+	}
+
+	// stream of the configured generator for the given seed, independent streams for parallel tasks, demes or replicates are split from it
+	public static RandomStream newStream(int seed) {
+		if (generator == GeneratorType.SPLITMIX)
+			return new SplitMixStream(seed);
+		return new ColtStream(seed);
 	}
 
 	public static int nextInt(int from, int to) { // closed interval [form,to] (including form and to)
-		return myUniform.nextIntFromTo(from, to);
+		return stream.nextInt(from, to);
 	}	
 	
 	public static byte nextByte(byte from, byte to) {
-		return (byte) myUniform.nextIntFromTo(from, to);
+		return (byte) stream.nextInt(from, to);
 	}	
 	
 	
 	public static double nextDouble() {
-		return myUniform.nextDouble();		
+		return stream.nextDouble();		
 	}
 	
 	public static double nextDouble(double from, double to) {
-		return myUniform.nextDoubleFromTo(from, to);		
+		return stream.nextDouble(from, to);		
 	}	
 
+	// fill values with uniforms on [0,1)
+	public static void nextDoubles(double[] values) {
+		stream.nextDoubles(values);
+	}
+
 	// tuned with mean
 	public static double nextExponential(double lambda) {
-		return myExp.nextDouble(1.0/lambda);
+		return stream.nextExponential(lambda);
 	}
 	
 	// tuned with alpha and beta, matching Mathematica's notation
 	public static double nextGamma(double alpha, double beta) {
-		return myGamma.nextDouble(alpha, 1/beta);
+		return stream.nextGamma(alpha, beta);
 	}	
 	
 	public static int nextPoisson(double lambda) {
-		return myPoisson.nextInt(lambda);
+		return stream.nextPoisson(lambda);
+	}
+
+	// number of successes in n trials with success probability p
+	public static int nextBinomial(int n, double p) {
+		return stream.nextBinomial(n, p);
+	}
+
+	// number of marked items in n draws without replacement from total items of which marked are marked
+	public static int nextHypergeometric(int total, int marked, int n) {
+		return stream.nextHypergeometric(total, marked, n);
 	}
 	
 	
 	// return true with probability p
 	public static boolean nextBoolean(double p) {
-		boolean x = false;
-		if (myUniform.nextDouble() < p) {
-			x = true;
-		}
-		return x;
+		return stream.nextBoolean(p);
 	}
 
 	public static double nextNormal(double mu, double sigma) {
-		return myNormal.nextDouble(mu,sigma);
+		return stream.nextNormal(mu,sigma);
 	}	
 	
 	
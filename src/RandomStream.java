@@ -0,0 +1,257 @@
+/* Stream of random numbers with samplers for the distributions used by the simulation */
+/* Samplers only use nextLong and nextDouble and do not allocate, generators override them where they have their own */
+/* Independent streams (per thread, deme or replicate) are derived with split, which does not draw from the parent stream */
+
+import java.io.IOException;
+
+public abstract class RandomStream {
+
+	private boolean hasSpare = false;	// second normal deviate of the last polar draw
+	private double spare = 0;
+
+	public abstract long nextLong();
+
+	// independent stream derived from this stream and index, the same index always gives the same stream
+	public abstract RandomStream split(long index);
+
+	// state of the stream for checkpoints, generators add their own state
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeBoolean(hasSpare);
+		out.writeDouble(spare);
+	}
+
+	// continue from the state written by write
+	public void read(CheckpointInput in) throws IOException {
+		hasSpare = in.readBoolean();
+		spare = in.readDouble();
+	}
+
+	// uniform on [0,1)
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	public double nextDouble(double from, double to) {
+		return from + (to-from)*nextDouble();
+	}
+
+	// closed interval [from,to], unbiased by rejection
+	public int nextInt(int from, int to) {
+		long range = (long) to - from + 1;
+		long threshold = (1L << 32) % range;
+		while (true) {
+			long product = (nextLong() >>> 32) * range;
+			if ((product & 0xFFFFFFFFL) >= threshold) {
+				return (int) (from + (product >>> 32));
+			}
+		}
+	}
+
+	// return true with probability p
+	public boolean nextBoolean(double p) {
+		return nextDouble() < p;
+	}
+
+	// fill values[from,to) with uniforms on [0,1)
+	public void nextDoubles(double[] values, int from, int to) {
+		for (int i = from; i < to; i++) {
+			values[i] = nextDouble();
+		}
+	}
+
+	public void nextDoubles(double[] values) {
+		nextDoubles(values, 0, values.length);
+	}
+
+	// tuned with mean
+	public double nextExponential(double mean) {
+		return -mean*Math.log(1.0 - nextDouble());
+	}
+
+	// polar method, keeps the second deviate for the next call
+	public double nextNormal(double mu, double sigma) {
+		if (hasSpare) {
+			hasSpare = false;
+			return mu + sigma*spare;
+		}
+		double u, v, s;
+		do {
+			u = 2.0*nextDouble() - 1.0;
+			v = 2.0*nextDouble() - 1.0;
+			s = u*u + v*v;
+		} while (s >= 1.0 || s == 0.0);
+		double factor = Math.sqrt(-2.0*Math.log(s)/s);
+		spare = v*factor;
+		hasSpare = true;
+		return mu + sigma*u*factor;
+	}
+
+	// tuned with alpha and beta, matching Mathematica's notation (shape alpha, scale beta)
+	// Marsaglia and Tsang, shapes below 1 are boosted by one
+	public double nextGamma(double alpha, double beta) {
+		if (alpha < 1.0) {
+			double u = nextDouble();
+			return nextGamma(alpha + 1.0, beta)*Math.pow(1.0 - u, 1.0/alpha);
+		}
+		double d = alpha - 1.0/3.0;
+		double c = 1.0/Math.sqrt(9.0*d);
+		while (true) {
+			double x, v;
+			do {
+				x = nextNormal(0, 1);
+				v = 1.0 + c*x;
+			} while (v <= 0);
+			v = v*v*v;
+			double u = nextDouble();
+			if (u < 1.0 - 0.0331*x*x*x*x || Math.log(u) < 0.5*x*x + d*(1.0 - v + Math.log(v))) {
+				return beta*d*v;
+			}
+		}
+	}
+
+	// inversion for small means, transformed rejection (Hormann's PTRS) for large ones
+	public int nextPoisson(double lambda) {
+		if (lambda <= 0) {
+			return 0;
+		}
+		if (lambda < 10) {
+			double p = Math.exp(-lambda);
+			double u = nextDouble();
+			int k = 0;
+			while (u > p) {
+				u -= p;
+				k++;
+				p *= lambda/k;
+				if (p == 0) {
+					break;
+				}
+			}
+			return k;
+		}
+		double root = Math.sqrt(lambda);
+		double logLambda = Math.log(lambda);
+		double b = 0.931 + 2.53*root;
+		double a = -0.059 + 0.02483*b;
+		double invAlpha = 1.1239 + 1.1328/(b - 3.4);
+		double vr = 0.9277 - 3.6224/(b - 2);
+		while (true) {
+			double u = nextDouble() - 0.5;
+			double v = nextDouble();
+			double us = 0.5 - Math.abs(u);
+			double k = Math.floor((2*a/us + b)*u + lambda + 0.43);
+			if (us >= 0.07 && v <= vr) {
+				return (int) k;
+			}
+			if (k < 0 || (us < 0.013 && v > us)) {
+				continue;
+			}
+			if (Math.log(v) + Math.log(invAlpha) - Math.log(a/(us*us) + b) <= -lambda + k*logLambda - logFactorial(k)) {
+				return (int) k;
+			}
+		}
+	}
+
+	// number of successes in n trials with success probability p
+	// inversion for small means, transformed rejection (Hormann's BTRS) for large ones
+	public int nextBinomial(int n, double p) {
+		if (n <= 0 || p <= 0)
+			return 0;
+		if (p >= 1)
+			return n;
+		if (p > 0.5) {
+			return n - nextBinomial(n, 1.0 - p);
+		}
+		double q = 1.0 - p;
+		if (n*p < 10) {
+			double s = p/q;
+			double a = (n + 1)*s;
+			double r = Math.pow(q, n);
+			double u = nextDouble();
+			int k = 0;
+			while (u > r && k < n) {
+				u -= r;
+				k++;
+				r *= a/k - s;
+			}
+			return k;
+		}
+		double spq = Math.sqrt(n*p*q);
+		double b = 1.15 + 2.53*spq;
+		double a = -0.0873 + 0.0248*b + 0.01*p;
+		double c = n*p + 0.5;
+		double vr = 0.92 - 4.2/b;
+		double alpha = (2.83 + 5.1/b)*spq;
+		double lpq = Math.log(p/q);
+		double m = Math.floor((n + 1)*p);
+		double h = logFactorial(m) + logFactorial(n - m);
+		while (true) {
+			double u = nextDouble() - 0.5;
+			double v = nextDouble();
+			double us = 0.5 - Math.abs(u);
+			double k = Math.floor((2*a/us + b)*u + c);
+			if (k < 0 || k > n) {
+				continue;
+			}
+			if (us >= 0.07 && v <= vr) {
+				return (int) k;
+			}
+			v = Math.log(v*alpha/(a/(us*us) + b));
+			if (v <= h - logFactorial(k) - logFactorial(n - k) + (k - m)*lpq) {
+				return (int) k;
+			}
+		}
+	}
+
+	// number of marked items in n draws without replacement from total items of which marked are marked
+	// inversion searching outwards from the mode, taking about one standard deviation of steps
+	public int nextHypergeometric(int total, int marked, int n) {
+		if (n <= 0 || marked <= 0)
+			return 0;
+		if (marked >= total)
+			return n;
+		if (n >= total)
+			return marked;
+		double unmarked = total - marked;
+		int lo = Math.max(0, n - (total - marked));
+		int hi = Math.min(n, marked);
+		int mode = (int) Math.floor((n + 1.0)*(marked + 1.0)/(total + 2.0));
+		mode = Math.min(hi, Math.max(lo, mode));
+		double pMode = Math.exp(logChoose(marked, mode) + logChoose(total - marked, n - mode) - logChoose(total, n));
+		double u = nextDouble() - pMode;
+		if (u < 0) {
+			return mode;
+		}
+		double pLeft = pMode;
+		double pRight = pMode;
+		int left = mode;
+		int right = mode;
+		while (left > lo || right < hi) {
+			if (left > lo) {
+				pLeft *= left*(unmarked - n + left)/((marked - left + 1.0)*(n - left + 1.0));
+				left--;
+				u -= pLeft;
+				if (u < 0) {
+					return left;
+				}
+			}
+			if (right < hi) {
+				pRight *= (marked - right)*(double) (n - right)/((right + 1.0)*(unmarked - n + right + 1.0));
+				right++;
+				u -= pRight;
+				if (u < 0) {
+					return right;
+				}
+			}
+		}
+		return mode; // rounding left the probabilities a little short of one
+	}
+
+	private static double logFactorial(double k) {
+		return cern.jet.stat.Gamma.logGamma(k + 1.0);
+	}
+
+	private static double logChoose(double n, double k) {
+		return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+	}
+
+}
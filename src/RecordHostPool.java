@@ -0,0 +1,138 @@
+/* Host pool storing each host as a fixed width record of birth day and interned immune state */
+/* Subclasses provide the record storage, hosts are materialized as Host objects only when they are taken out of the pool */
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public abstract class RecordHostPool extends AbstractHostPool {
+
+	protected ImmuneStateTable immuneStates;
+	protected int size = 0;
+
+	public RecordHostPool(ImmuneStateTable immuneStates_) {
+		immuneStates = immuneStates_;
+	}
+
+	// record storage
+	protected abstract int getBirth(int i);		// measured in days
+	protected abstract int getState(int i);		// id in immuneStates
+	protected abstract void setRecord(int i, int birth, int state);
+	protected abstract void setState(int i, int state);
+	protected abstract void ensureCapacity(int capacity);
+
+	public int size() {
+		return size;
+	}
+
+	public Host get(int i) {
+		return new Host(getBirth(i), immuneStates.get(getState(i)).copy());
+	}
+
+	public void add(Host h) {
+		int id = immuneStates.intern(h.getImmuneSystem());
+		immuneStates.retain(id);
+		append(h.getBirth(), id);
+	}
+
+	public void addNaive(int birth) {
+		immuneStates.retain(immuneStates.naive());
+		append(birth, immuneStates.naive());
+	}
+
+	// each distinct state object is interned once
+	public void addAll(int[] births, ImmuneSystem[] states, int from, int to) {
+		Map<ImmuneSystem,Integer> ids = new IdentityHashMap<ImmuneSystem,Integer>();
+		ensureCapacity(size + to - from);
+		for (int k = from; k < to; k++) {
+			Integer id = ids.get(states[k]);
+			if (id == null) {
+				id = immuneStates.intern(states[k]);
+				ids.put(states[k], id);
+			}
+			immuneStates.retain(id);
+			append(births[k], id);
+		}
+	}
+
+	public Host remove(int i) {
+		Host h = get(i);
+		delete(i);
+		return h;
+	}
+
+	public void transfer(int i, HostPool to) {
+		if (to instanceof RecordHostPool && ((RecordHostPool) to).immuneStates == immuneStates) {
+			// move the record without materializing, state reference moves with it
+			int state = getState(i);
+			immuneStates.retain(state);
+			((RecordHostPool) to).append(getBirth(i), state);
+			delete(i);
+		}
+		else {
+			to.add(remove(i));
+		}
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			immuneStates.release(getState(i));
+		}
+		size = 0;
+	}
+
+	public double riskOfInfection(int i, Virus v) {
+		return immuneStates.get(getState(i)).riskOfInfection(v);
+	}
+
+	public void addToImmuneHistory(int i, Virus v) {
+		int state = getState(i);
+		int next = immuneStates.add(state, v);
+		immuneStates.retain(next);
+		immuneStates.release(state);
+		setState(i, next);
+	}
+
+	public void reset(int i) {
+		immuneStates.retain(immuneStates.naive());
+		immuneStates.release(getState(i));
+		setRecord(i, Parameters.getDay(), immuneStates.naive());
+	}
+
+	public void forget(BitSet indices) {
+		immuneStates.forget(indices);
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeInt(getBirth(i));
+			out.writeInt(getState(i));
+		}
+	}
+
+	// immune state counts are restored with the table
+	public void read(CheckpointInput in) throws IOException {
+		int n = in.readInt();
+		ensureCapacity(size+n);
+		for (int i = 0; i < n; i++) {
+			append(in.readInt(), in.readInt());
+		}
+	}
+
+	// append a record, caller is responsible for retaining its immune state
+	protected void append(int birth, int state) {
+		ensureCapacity(size+1);
+		setRecord(size, birth, state);
+		size++;
+	}
+
+	// remove by moving last record to location i
+	protected void delete(int i) {
+		immuneStates.release(getState(i));
+		size--;
+		setRecord(i, getBirth(size), getState(size));
+	}
+
+}
@@ -1,13 +1,22 @@
 /* Segment infection that has genotype, phenotype and ancestry */
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class Segment {
 
+	// checkpoint record size, see write()
+	static final int RECORD_BYTES = 67;
+
 	// simulation fields
 	private Segment parent;
+	private int parentRow = -1;	// parent in MappedAncestry, until it is first followed
+	private int node = -1;		// id in TreeSequence when ancestry=TABLES, parent is not set then
+	private long id;			// creation number, the same in every run with the same settings and seed
 	private long wholeGenomeID;	
 	private int segmentNumber;
+	private int immuneIndex;	// bit in immune memory, -1 for non immunogenic loci (see AlleleRegistry)
 	private short loci;
 	private double fitness;
 		
@@ -22,8 +31,13 @@ public class Segment {
 	private float layout;
 	private int coverage;		// how many times this Segment has been covered in tracing the tree backwards	
 	
+	// ancestry maintenance during the run (see SegmentTree.maintain)
+	private int epoch;			// last maintenance pass that reached this Segment
+	private int references;		// children on paths to tips and infections, plus one if held directly
+	
 	// segment unique number generator
 	static private int lastSegmentNumber = -2; // -1 is root, 0 is first etc...
+	static private long lastId = -1;
 		
 	//	create new segment type for root 
 	public Segment() {
@@ -32,13 +46,14 @@ public class Segment {
 		birth = (float) Parameters.getDate();
 		wholeGenomeID=-1;
 		loci=-1;
+		immuneIndex=-1;
 		switch (Parameters.SegmentParameters.segmentFitnessType) {
 			case EQUAL_FITNESS : fitness=1; break;
 			case RANDOM_EXPONENTIAL : fitness=Random.nextExponential(Parameters.SegmentParameters.segmentFitnessParam1); break;
 			case RANDOM_TRUNCATED_NORMAL :fitness=Math.min(Parameters.SegmentParameters.segmentFitnessParam1*2,Math.max(0, Random.nextNormal(Parameters.SegmentParameters.segmentFitnessParam1,Parameters.SegmentParameters.segmentFitnessParam2))); break;
 			default : fitness=1;
 		}
-		parent=null;		
+		setAncestry(null);
 	}
 	
 	//	create new segment type for mutations
@@ -48,45 +63,96 @@ public class Segment {
 		birth = (float) Parameters.getDate();
 		wholeGenomeID=wholeGenomeID_;
 		loci=loci_;
+		immuneIndex=AlleleRegistry.allocate(loci_, segmentNumber);
 		switch (Parameters.SegmentParameters.segmentFitnessType) {
 			case EQUAL_FITNESS : fitness=1; break;
 			case RANDOM_EXPONENTIAL : fitness=Random.nextExponential(Parameters.SegmentParameters.segmentFitnessParam1); break;
 			case RANDOM_TRUNCATED_NORMAL : fitness=Math.min(Parameters.SegmentParameters.segmentFitnessParam1*2,Math.max(0, Random.nextNormal(Parameters.SegmentParameters.segmentFitnessParam1,Parameters.SegmentParameters.segmentFitnessParam2))); break;
 			default : fitness=1;
 		}
-		parent=pS;
-		
+		setAncestry(pS);
 	}
 	
 	// replication, copies the segment, and adds ancestry
 	public Segment(Segment pS, float hostAge_, long wholeGenomeID_) {
-		parent = pS;		
 		segmentNumber=pS.segmentNumber;
 		birth = Parameters.getDate();
 		hostAge = hostAge_;
 		wholeGenomeID=wholeGenomeID_;
 		loci=pS.getLoci();
+		immuneIndex=pS.immuneIndex;
 		fitness=pS.getFitness();
+		setAncestry(pS);
 	}
 	
 	double getFitness() {
 		return fitness;
 	}
 
+	// replication at an earlier date, used when materializing compressed ancestry
+	public Segment(Segment pS, long wholeGenomeID_, float birth_, float hostAge_) {
+		segmentNumber=pS.segmentNumber;
+		birth = birth_;
+		hostAge = hostAge_;
+		wholeGenomeID=wholeGenomeID_;
+		loci=pS.getLoci();
+		immuneIndex=pS.immuneIndex;
+		fitness=pS.getFitness();
+		setAncestry(pS);
+	}
+
+	// ancestral segment rebuilt from TreeSequence at the end of a run
+	Segment(int node_, long id_, float birth_, float hostAge_, long wholeGenomeID_, int segmentNumber_, short loci_, double fitness_) {
+		node=node_;
+		id=id_;
+		birth=birth_;
+		hostAge=hostAge_;
+		wholeGenomeID=wholeGenomeID_;
+		segmentNumber=segmentNumber_;
+		loci=loci_;
+		immuneIndex=-1;
+		fitness=fitness_;
+	}
+
 	// replication, copies the segment, and adds ancestry
 	public Segment(Segment pS, float hostAge_, int segmentNumber_, long wholeGenomeID_) {
-		parent = pS;		
 		segmentNumber=pS.segmentNumber;		
 		birth = Parameters.getDate();
 		hostAge = hostAge_;
 		wholeGenomeID=wholeGenomeID_;
 		loci=pS.getLoci();
+		immuneIndex=pS.immuneIndex;
 		fitness=pS.getFitness();
 		segmentNumber=segmentNumber_;
+		setAncestry(pS);
 	}		
+
+	// link to parent, or record a node row with its edge when ancestry=TABLES
+	private void setAncestry(Segment pS) {
+		id=++lastId;
+		if (Parameters.SamplingParameters.ancestry==AncestryType.TABLES) {
+			node=TreeSequence.addNode(this, pS!=null ? pS.node : -1);
+		}
+		else {
+			parent=pS;
+		}
+	}
+
+	long getId() {
+		return id;
+	}
+
+	int getNode() {
+		return node;
+	}
+
+	void setNode(int node_) {
+		node=node_;
+	}
 	
 	public void setParent(Segment parent_) {
 		parent=parent_;
+		parentRow=-1;
 	}
 	
 	public float getBirth() {
@@ -94,6 +160,10 @@ public class Segment {
 	}
 	
 	public Segment getParent() {
+		if (parentRow>=0) {
+			parent=MappedAncestry.get(parentRow);
+			parentRow=-1;
+		}
 		return parent;
 	}
 	
@@ -187,6 +257,9 @@ public class Segment {
 	}
 	
 	public double distance(Segment virusB) {
+		if (Parameters.SamplingParameters.ancestry==AncestryType.TABLES) {
+			return TreeSequence.distance(node, virusB.node);
+		}
 		Segment ancestor = commonAncestor(virusB);
 		double distA = getBirth() - ancestor.getBirth();
 		double distB = virusB.getBirth() - ancestor.getBirth();
@@ -205,15 +278,17 @@ public class Segment {
 		return segmentNumber;
 	}
 
+	public int getImmuneIndex() {		
+		return immuneIndex;
+	}
+
 	public Segment mutate() {				
 		Segment s = new Segment(this,hostAge,wholeGenomeID,loci); 
-		s.parent=this;				
 		return s;			
 	}
 	
 	public Segment mutate(short newloci) {				
 		Segment s = new Segment(this,hostAge,wholeGenomeID,newloci); 
-		s.parent=this;				
 		return s;			
 	}
 
@@ -254,4 +329,121 @@ public class Segment {
 		coverage--;		
 	}
 
+	int getEpoch() {
+		return epoch;
+	}
+
+	int getReferences() {
+		return references;
+	}
+
+	// first visit in a maintenance pass starts a new count
+	void reference(int epoch_) {
+		if (epoch!=epoch_) {
+			epoch=epoch_;
+			references=0;
+		}
+		references++;
+	}
+
+	void setEpoch(int epoch_) {
+		epoch=epoch_;
+	}
+
+	static int getLastSegmentNumber() {
+		return lastSegmentNumber;
+	}
+
+	static void setLastSegmentNumber(int lastSegmentNumber_) {
+		lastSegmentNumber=lastSegmentNumber_;
+	}
+
+	static long getLastId() {
+		return lastId;
+	}
+
+	static void setLastId(long lastId_) {
+		lastId=lastId_;
+	}
+
+	// segments and their ancestors, each once and parents before children
+	static List<Segment> withAncestors(List<Segment> segments) {
+		List<Segment> returnValue = new ArrayList<Segment>();
+		Set<Segment> seen = Collections.newSetFromMap(new IdentityHashMap<Segment,Boolean>());
+		List<Segment> lineage = new ArrayList<Segment>();
+		for (Segment s : segments) {
+			while (s != null && seen.add(s)) {
+				lineage.add(s);
+				s = s.getParent();
+			}
+			for (int i = lineage.size()-1; i >= 0; i--) {
+				returnValue.add(lineage.get(i));
+			}
+			lineage.clear();
+		}
+		return returnValue;
+	}
+
+	// checkpoint record of RECORD_BYTES, the parent must have been written before
+	void write(CheckpointOutput out) throws IOException {
+		out.writeRef(getParent());
+		out.writeInt(node);
+		out.writeLong(id);
+		out.writeLong(wholeGenomeID);
+		out.writeInt(segmentNumber);
+		out.writeInt(immuneIndex);
+		out.writeShort(loci);
+		out.writeDouble(fitness);
+		out.writeFloat(birth);
+		out.writeFloat(hostAge);
+		out.writeByte((byte) ((active ? 1 : 0) | (marked ? 2 : 0) | (trunk ? 4 : 0)));
+		out.writeFloat(layout);
+		out.writeInt(coverage);
+		out.writeInt(epoch);
+		out.writeInt(references);
+		out.register(this);
+	}
+
+	static Segment read(CheckpointInput in) throws IOException {
+		Segment parent = (Segment) in.readRef();
+		Segment s = new Segment(in.readInt(), in.readLong(), 0, 0, in.readLong(), in.readInt(), (short) 0, 0);
+		s.parent = parent;
+		s.immuneIndex = in.readInt();
+		s.loci = in.readShort();
+		s.fitness = in.readDouble();
+		s.birth = in.readFloat();
+		s.hostAge = in.readFloat();
+		byte flags = in.readByte();
+		s.active = (flags & 1) != 0;
+		s.marked = (flags & 2) != 0;
+		s.trunk = (flags & 4) != 0;
+		s.layout = in.readFloat();
+		s.coverage = in.readInt();
+		s.epoch = in.readInt();
+		s.references = in.readInt();
+		in.register(s);
+		return s;
+	}
+
+	// checkpoint record at offset of mapped records, the parent is only followed when it is needed
+	static Segment read(ByteBuffer records, int offset) {
+		int parentId = records.getInt(offset);
+		Segment s = new Segment(records.getInt(offset+4), records.getLong(offset+8), 0, 0, records.getLong(offset+16), records.getInt(offset+24), (short) 0, 0);
+		s.parentRow = MappedAncestry.getRow(parentId);
+		s.immuneIndex = records.getInt(offset+28);
+		s.loci = records.getShort(offset+32);
+		s.fitness = records.getDouble(offset+34);
+		s.birth = records.getFloat(offset+42);
+		s.hostAge = records.getFloat(offset+46);
+		byte flags = records.get(offset+50);
+		s.active = (flags & 1) != 0;
+		s.marked = (flags & 2) != 0;
+		s.trunk = (flags & 4) != 0;
+		s.layout = records.getFloat(offset+51);
+		s.coverage = records.getInt(offset+55);
+		s.epoch = records.getInt(offset+59);
+		s.references = records.getInt(offset+63);
+		return s;
+	}
+
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ public class SegmentTree {
 	// fields
 	private static Segment root = Parameters.getUrSegment();	
 	private static List<Segment> tips = new ArrayList<Segment>();
+	private static int epoch = 0; // of ancestry maintenance passes, two per pass
 
 	static final Comparator<Segment> descendantOrder = new Comparator<Segment>() {
 		public int compare(Segment v1, Segment v2) {
@@ -18,8 +19,11 @@ public class SegmentTree {
 	};	
 
 	// static methods
-	public static void add(Segment s) {		
+	public static synchronized void add(Segment s) {		
 		tips.add(s);
+		if (Parameters.SamplingParameters.ancestry==AncestryType.TABLES) {
+			TreeSequence.markSample(s.getNode());
+		}
 	}
 	public static void clear() {
 		tips.clear();
@@ -355,46 +359,121 @@ public class SegmentTree {
 
 	}
 
+	// ancestry maintenance during the run, safe alongside tips and current infections
+	// counts references of segments on paths to tips, infections and initial viruses, then bypasses unreferenced unary segments 
+	// that carry the same allele as their child, which unlike streamline() at the end also removes segments where the trunk 
+	// would later start and changes the descendant counts that order children for the layout 
+	// segments of extinct lineages are no longer reachable and are reclaimed by the garbage collector
+	// no bypass keeps the tree output unchanged: streamline() collapses part of a unary run depending on how many pruned tips pass it,
+	// and the counts that order the layout include every unary segment, so without passes the ancestry of living lineages grows with the run
+	// with ancestry=TABLES the tables are simplified instead
+	public static void maintain(HostPopulation hp) {
+		List<Segment> held = heldSegments(hp);
+		if (Parameters.SamplingParameters.ancestry==AncestryType.TABLES) {
+			TreeSequence.simplify(held);
+			return;
+		}
+
+		// count references
+		epoch+=2;
+		for (Segment s : held) {
+			boolean reached = s.getEpoch()==epoch; 
+			s.reference(epoch);
+			if (!reached) {
+				Segment child = s;
+				Segment parent = child.getParent();
+				while (parent != null) {
+					reached = parent.getEpoch()==epoch;
+					parent.reference(epoch);
+					if (reached) {
+						break;
+					}
+					child = parent;
+					parent = child.getParent();
+				}
+			}
+		}
+
+		// bypass unary segments
+		for (Segment s : held) {
+			Segment child = s;
+			while (child != null && child.getEpoch() != epoch+1) {
+				child.setEpoch(epoch+1);
+				Segment parent = child.getParent();
+				while (parent != null && parent.getParent() != null && parent.getReferences() == 1 
+						&& parent.getSegmentNumber() == child.getSegmentNumber() && !parent.isActive()) {
+					parent = parent.getParent();
+				}
+				child.setParent(parent);
+				child = parent;
+			}
+		}
+	}
+
+	// segments that tips, initial viruses and current infections refer to, and the root
+	private static List<Segment> heldSegments(HostPopulation hp) {
+		List<Segment> held = new ArrayList<Segment>(tips);
+		held.add(Parameters.getUrSegment());
+		for (Virus v : Parameters.getInitialViruses()) {
+			held.addAll(Arrays.asList(v.getSegments()));
+		}
+		for (List<Host> hosts : Arrays.asList(hp.getIs(), hp.getReservoir())) {
+			for (Host h : hosts) {
+				for (Virus v : h.getInfections()) {
+					held.addAll(Arrays.asList(v.getAncestralSegments()));
+				}
+			}
+		}
+		return held;
+	}
+
+	// rebuild parent pointers of tips and current infections from TreeSequence (ancestry=TABLES) 
+	public static void reconstruct(HostPopulation hp) {
+		TreeSequence.reconstruct(heldSegments(hp));
+	}
+
 	public static void printTips() {
 
 		try {
-			File tipFile = new File("out.tips");
-			tipFile.delete();
-			tipFile.createNewFile();
-			PrintStream tipStream = new PrintStream(tipFile);
-			tipStream.printf("{\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\"}\n", "name", "wholegenome", "year", "trunk", "tip", "mark", "hostAge", "layout","segmentID","loci","fitness");							
+			AsyncOutput tipStream = Parameters.openOutput("out.tips");
+			tipStream.print("{\"name\",\"wholegenome\",\"year\",\"trunk\",\"tip\",\"mark\",\"hostAge\",\"layout\",\"segmentID\",\"loci\",\"fitness\"}\n");
 			for (int i = 0; i < tips.size(); i++) {
 				Segment s = tips.get(i);		
-				tipStream.printf("{\"%s\",%d,%.4f,%d,%d,%d,%.4f,%.4f,%s,%d,%.4f}\n", s, s.getWholeGenomeID(),s.getBirth(), s.isTrunk()?1:0, s.isTip()?1:0, s.isMarked()?1:0,s.getHostAge(), s.getLayout(), s.getSegmentName(),s.getLoci(),s.getFitness());
+				printSegment(tipStream, s, s, 4);
+				tipStream.println();
 			}
 			tipStream.close();
 		} catch(IOException ex) {
-			System.out.println("Could not write to file"); 
-			System.exit(0);
+			throw new SimulationException("Could not write to file out.tips!", ex);
 		}
 
 	}
 
+	// {name,wholegenome,year,trunk,tip,mark,hostAge,layout,segmentID,loci,fitness} of s, with mark, loci and fitness of child, year and layout to decimals
+	private static void printSegment(AsyncOutput stream, Segment s, Segment child, int decimals) {
+		stream.print("{\"").printHex(s.hashCode()).print("\",").print(s.getWholeGenomeID()).print(',').print(s.getBirth(),decimals);
+		stream.print(',').print(s.isTrunk()?1:0).print(',').print(s.isTip()?1:0).print(',').print(child.isMarked()?1:0);
+		stream.print(',').print(s.getHostAge(),4).print(',').print(s.getLayout(),decimals).print(',').print(s.getSegmentNumber());
+		stream.print(',').print(child.getLoci()).print(',').print(child.getFitness(),4).print('}');
+	}
+
 	public static void printBranches() {
 
 		try {
-			File branchFile = new File("out.branches");
-			branchFile.delete();
-			branchFile.createNewFile();
-			PrintStream branchStream = new PrintStream(branchFile);			
+			AsyncOutput branchStream = Parameters.openOutput("out.branches");
 			for (Segment s : postOrderNodes(root)) {
 				if (s.getParent() != null) {
 					Segment sp = s.getParent();
-					branchStream.printf("{\"%s\",%d,%.3f,%d,%d,%d,%.4f,%.3f,%s,%d,%.4f}\t", s, s.getWholeGenomeID(), s.getBirth(), s.isTrunk()?1:0, s.isTip()?1:0, s.isMarked()?1:0,  s.getHostAge(), s.getLayout(), s.getSegmentName(), s.getLoci(),s.getFitness());
-					branchStream.printf("{\"%s\",%d,%.3f,%d,%d,%d,%.4f,%.3f,%s,%d,%.4f}\t", sp, sp.getWholeGenomeID(), sp.getBirth(), sp.isTrunk()?1:0, sp.isTip()?1:0, s.isMarked()?1:0,  sp.getHostAge(), sp.getLayout(), sp.getSegmentName(), s.getLoci(),s.getFitness());
-					branchStream.printf("%d\n", sp.getCoverage());
+					printSegment(branchStream, s, s, 3);
+					branchStream.print('\t');
+					printSegment(branchStream, sp, s, 3);
+					branchStream.print('\t').print(sp.getCoverage()).println();
 				}
 			}
 			branchStream.close();					
 
 		} catch(IOException ex) {
-			System.out.println("Could not write to file"); 
-			System.exit(0);
+			throw new SimulationException("Could not write to file out.branches!", ex);
 		}
 
 	}
@@ -453,13 +532,19 @@ public class SegmentTree {
 		return time;
 	}		
 
+	// tips and tree as binary columns
+	public static void printTree() {
+		try {
+			new ColumnarTree(root, tips).write(Parameters.openOutput("out.tree"));
+		} catch(IOException ex) {
+			throw new SimulationException("Could not write to file out.tree!", ex);
+		}
+	}
+
 	public static void printMK() {
 
 		try {
-			File mkFile = new File("out.mk");
-			mkFile.delete();
-			mkFile.createNewFile();
-			PrintStream mkStream = new PrintStream(mkFile);
+			PrintStream mkStream = new PrintStream(Parameters.openOutput("out.mk"));
 			mkStream.printf("sideBranchMut,sideBranchOpp ,sideBranchRate,trunkMut,trunkOpp,trunkRate,mk\n");
 			int sideBranchMut = sideBranchMutations();
 			double sideBranchOpp = sideBranchOpportunity();
@@ -471,15 +556,43 @@ public class SegmentTree {
 			mkStream.printf("%d,%.4f,%.4f,%d,%.4f,%.4f,%.4f\n", sideBranchMut, sideBranchOpp, sideBranchRate, trunkMut, trunkOpp, trunkRate, mk);
 			mkStream.close();
 		} catch(IOException ex) {
-			System.out.println("Could not write to file"); 
-			System.exit(0);
+			throw new SimulationException("Could not write to file out.mk!", ex);
 		}
 
 	}
 	public static void init() {
+		MappedAncestry.clear();
 		root = Parameters.getUrSegment();	
 		tips = new ArrayList<Segment>();		
 	}
+
+	// tips and maintenance epoch, segments must have been written before
+	public static void write(CheckpointOutput out) throws IOException {
+		out.writeInt(epoch);
+		out.writeInt(tips.size());
+		for (Segment s : tips) {
+			out.writeRef(s);
+		}
+	}
+
+	public static void read(CheckpointInput in) throws IOException {
+		root = Parameters.getUrSegment();
+		epoch = in.readInt();
+		int numTips = in.readInt();
+		if (MappedAncestry.isMapped()) {
+			// tips are mapped segments, kept as rows until they are got
+			int[] rows = new int[numTips];
+			for (int i = 0; i < numTips; i++) {
+				rows[i] = MappedAncestry.getRow(in.readInt());
+			}
+			tips = new MappedAncestry.SegmentList(rows);
+			return;
+		}
+		tips = new ArrayList<Segment>(numTips);
+		for (int i = 0; i < numTips; i++) {
+			tips.add((Segment) in.readRef());
+		}
+	}
 	
 
 }
\ No newline at end of file
@@ -165,6 +165,11 @@ public class Settings
 		hm.put(setting.toLowerCase(), value);
 	}
 
+	public Set<String> getSettings()
+	{
+		return hm.keySet();
+	}
+
 	public void apply(Object obj)
 	{
 		if(obj instanceof Class)
@@ -291,7 +296,7 @@ public class Settings
 		}
 	}
 
-	private static Field getSettingField(Class<?> objClass, String setting)
+	static Field getSettingField(Class<?> objClass, String setting)
 	{
 		Map<String, Field> classSettingFields = settingFields.get(objClass);
 		if(classSettingFields == null)
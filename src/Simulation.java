@@ -1,13 +1,34 @@
 /* Simulation functions, holds the host population */
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
 
 public class Simulation {
 
 	// fields
 	private HostPopulation hp = new HostPopulation();
+	private NextReactionEngine nextReactionEngine = new NextReactionEngine(hp);
 	private double diversity;
 	private int totalCases=0;
+	private int firstDay=0;	// loop counter run() starts from, later than 0 for restored checkpoints
+
+	// restarts after extinction with repeatSim, from the last in-memory snapshot when snapshotInterval is set
+	private static final int MAX_SNAPSHOT_RESTARTS = 10;	// consecutive restarts from one snapshot before starting over from day 0
+	private byte[] snapshot = null;
+	private int snapshotRestarts = 0;	// restarts from the current snapshot
+	private int restarts = 0;
+	private int wastedDays = 0;	// simulated days thrown away by restarts
+
+	// summary of the recorded (post burn-in) time series
+	static final String[] SUMMARY_COLUMNS = {"inc", "meanS", "meanI", "sdI", "maxI", "meanR", "meanDiversity", "lastDay"};
+	private int samples=0;
+	private double sumS=0;
+	private double sumI=0;
+	private double sumSquaresI=0;
+	private double sumR=0;
+	private double sumDiversity=0;
+	private int maxI=0;
 
 
 	// constructor
@@ -60,16 +81,24 @@ public class Simulation {
 		System.out.printf("%d\t%.3f\t%d\t%d\t%d\t%d\t%d\n", Parameters.getDay(), getDiversity(), getN(), getS(), getI(), getR() , getCases());
 	}
 
-	public void printHeader(PrintStream stream) {
+	public void printHeader(AsyncOutput stream) {
 		stream.print("date\tdiversity\ttotalN\ttotalS\ttotalI\ttotalR\ttotalCases");
 		stream.println();
 	}
 
-	public void printState(PrintStream stream) {
+	public void printState(AsyncOutput stream) {
 		if (Parameters.getDay() > Parameters.SimulationParameters.burnin) {
-			stream.printf("%.4f\t%.4f\t%d\t%d\t%d\t%d\t%d", Parameters.getDate(), getDiversity(), getN(), getS(), getI(), getR(), getCases());
+			stream.print(Parameters.getDate(),4).print('\t').print(getDiversity(),4).print('\t').print(getN()).print('\t').print(getS());
+			stream.print('\t').print(getI()).print('\t').print(getR()).print('\t').print(getCases());
 			totalCases+=getCases();
 			stream.println();
+			samples++;
+			sumS+=getS();
+			sumI+=getI();
+			sumSquaresI+=(double) getI()*getI();
+			sumR+=getR();
+			sumDiversity+=getDiversity();
+			maxI=Math.max(maxI, getI());
 		}
 	}	
 
@@ -78,6 +107,9 @@ public class Simulation {
 		// Diversity
 		diversity = 0.0;
 		int sampleCount = Parameters.SamplingParameters.diversitySamplingCount;
+		if (getI()==0) {
+			return; // extinct on a printing day, before run() restarts or stops
+		}
 		for (int i = 0; i < sampleCount; i++) {
 			Segment vA = getRandomInfection().getSegments()[0];
 			Segment vB = getRandomInfection().getSegments()[0];;
@@ -92,30 +124,80 @@ public class Simulation {
 		hp.resetCases();
 	}
 
-	public void stepForward() {
+	// advance population dynamics by at most maxDays, returns the number of days advanced
+	public int stepForward(int maxDays) {
+		if (Parameters.SimulationParameters.engine==EngineType.NEXT_REACTION) {
+			nextReactionEngine.advance(Parameters.getDay() + 1);
+			hp.endDay();
+			Parameters.setDay(Parameters.getDay() + 1);
+			return 1;
+		}
+		if (Parameters.SimulationParameters.engine==EngineType.TAU_LEAP) {
+			double tau = hp.getLeapSize(Parameters.SimulationParameters.tauLeapEpsilon);
+			if (tau < 1) {
+				int substeps = (int) Math.min(Math.ceil(1/tau), Parameters.SimulationParameters.maxSubsteps);
+				for (int k = 0; k < substeps; k++) {
+					hp.stepForward(1.0/substeps, k==0);
+				}
+				Parameters.setDay(Parameters.getDay() + 1);
+				return 1;
+			}
+			int days = (int) Math.min(Math.min(tau, Parameters.SimulationParameters.maxLeap), Math.min(maxDays, daysToNextEvent()));
+			hp.stepForward(days, true);
+			Parameters.setDay(Parameters.getDay() + days);
+			return days;
+		}
 		hp.stepForward();
 		Parameters.setDay(Parameters.getDay() + 1);
+		return 1;
+	}
+
+	// days until output, streamlining, allele census, disruption or the end of burn-in is next due
+	private int daysToNextEvent() {
+		int day = Parameters.getDay();
+		int next = nextMultiple(day, Parameters.SamplingParameters.printStepTimeseries);
+		if (Parameters.SamplingParameters.treeStreamlineInterval>0) {
+			next = Math.min(next, nextMultiple(day, Parameters.SamplingParameters.treeStreamlineInterval));
+		}
+		if (AlleleRegistry.isDense() && Parameters.SegmentParameters.alleleCensusInterval>0) {
+			next = Math.min(next, nextMultiple(day, Parameters.SegmentParameters.alleleCensusInterval));
+		}
+		int[] days = {Parameters.SimulationParameters.burnin, Parameters.SimulationParameters.burnin+1, 
+				Parameters.DisruptionParameters.disruptionTime1, Parameters.DisruptionParameters.disruptionTime2, 
+				Parameters.DisruptionParameters.disruptionTime3, Parameters.DisruptionParameters.disruptionTime4};
+		for (int d : days) {
+			if (d > day) {
+				next = Math.min(next, d);
+			}
+		}
+		return next - day;
+	}
+
+	private static int nextMultiple(int day, int interval) {
+		return (day/interval + 1)*interval;
 	}
 
 	public void run() {
 
 		try {
 
-			File seriesFile = new File("out.timeseries");		
-			seriesFile.delete();
-			seriesFile.createNewFile();
-			PrintStream seriesStream = new PrintStream(seriesFile);	
+			AsyncOutput seriesStream = Parameters.resumeOutput("out.timeseries");
 			System.out.println("day\t\tdiversity\tN\tS\tI\tR\tcases");
-			printHeader(seriesStream);
+			if (seriesStream == null) {
+				seriesStream = Parameters.openOutput("out.timeseries");
+				printHeader(seriesStream);
+			}
 
-			for (int i = 0; i < Parameters.SimulationParameters.endDay; i++) {
+			int days = 1;
+			for (int i = firstDay; i < Parameters.SimulationParameters.endDay; i+=days) {
 
-				stepForward(); // population dynamics
+				days = stepForward(Parameters.SimulationParameters.endDay - i); // population dynamics
 
 				if (Parameters.getDay() % Parameters.SamplingParameters.printStepTimeseries == 0) { // output
 					updateDiversity();
 					printState();
 					printState(seriesStream);
+					hp.printGenotypes();
 					resetCases();
 				}
 				
@@ -125,47 +207,87 @@ public class Simulation {
 
 				if (getI()==0) {
 					if (Parameters.SimulationParameters.repeatSim) {
-						reset();
-						i = 0; 
-						seriesFile.delete();
-						seriesFile.createNewFile();						
-						seriesStream = new PrintStream(seriesFile);
-						printHeader(seriesStream);
+						restarts++;
+						if (snapshot != null && snapshotRestarts < MAX_SNAPSHOT_RESTARTS) {
+							seriesStream.close();
+							restart();
+							i = firstDay;
+							days = 0;
+							seriesStream = Parameters.resumeOutput("out.timeseries");
+						}
+						else {
+							wastedDays += Parameters.getDay();
+							seriesStream.close();
+							reset();
+							i = 0; 
+							days = 1;
+							seriesStream = Parameters.openOutput("out.timeseries");
+							printHeader(seriesStream);
+						}
 					} else {
 						break;
 					}
 				}
 				
-//				if ((Parameters.day % Parameters.SamplingParameters.treeStreamlineInterval) == 0 && (Parameters.day>=Parameters.SimulationParameters.burnin)) {
-//					SegmentTree.fillBackward();
-//					SegmentTree.streamline();
-//					SegmentTree.removeBackward();
-//				}
+				if (Parameters.SamplingParameters.treeStreamlineInterval>0 && (Parameters.getDay() % Parameters.SamplingParameters.treeStreamlineInterval) == 0) {
+					SegmentTree.maintain(hp);
+				}
+
+				if (isSnapshotDue(days)) {
+					seriesStream.flush();
+					hp.flush();
+					firstDay = i+days;
+					snapshot = null;
+					snapshot = Checkpoint.write(this, hp);
+					snapshotRestarts = 0;
+				}
+
+				if (isCheckpointDue(days)) {
+					seriesStream.flush();
+					hp.flush();
+					firstDay = i+days;
+					Checkpoint.write(Parameters.getOutputFile(Parameters.CheckpointParameters.checkpointFile), this, hp);
+				}
 			}
 
 			seriesStream.close();
 		} catch(IOException ex) {
-			System.out.println("Could not write to file"); 
-			System.exit(0);
+			throw new SimulationException("Could not write to file out.timeseries!", ex);
 		}	
 		
-		// tree reduction
-		SegmentTree.pruneTips(); 
-		SegmentTree.markTips();		
-
-		// tree prep
-		makeTrunk();
-		SegmentTree.fillBackward();			
-		SegmentTree.sortChildrenByDescendants();
-		SegmentTree.setLayoutByDescendants();
-		SegmentTree.streamline();
+		// trees are only reconstructed for output
+		if (Parameters.SimulationParameters.outputFiles) {
+			// tree reduction
+			if (Parameters.SamplingParameters.ancestry==AncestryType.TABLES) {
+				SegmentTree.reconstruct(hp);
+			}
+			SegmentTree.pruneTips(); 
+			SegmentTree.markTips();		
+
+			// tree prep
+			makeTrunk();
+			SegmentTree.fillBackward();			
+			SegmentTree.sortChildrenByDescendants();
+			SegmentTree.setLayoutByDescendants();
+			SegmentTree.streamline();
 	
-		// tip and tree output
-		SegmentTree.printTips();
-		SegmentTree.printBranches();	
+			// tip and tree output
+			if (Parameters.SamplingParameters.treeFormat==TreeFormat.COLUMNAR) {
+				SegmentTree.printTree();
+			}
+			else {
+				SegmentTree.printTips();
+				SegmentTree.printBranches();	
+			}
 
-		// mk output
-		SegmentTree.printMK();
+			// mk output
+			SegmentTree.printMK();
+
+			// tree sequence output
+			if (Parameters.SamplingParameters.ancestry==AncestryType.TABLES) {
+				TreeSequence.printTables();
+			}
+		}
 		
 		// vaccine output
 //		hp.printVaccine();
@@ -179,18 +301,144 @@ public class Simulation {
 //		hp.determineVaccineComposition();				
 //	}
 
+	// checkpoint after a step of days days that reached the end of burn-in, or a multiple of checkpointInterval
+	private boolean isCheckpointDue(int days) {
+		if (Parameters.CheckpointParameters.checkpointFile == null) {
+			return false;
+		}
+		int day = Parameters.getDay();
+		if (Parameters.CheckpointParameters.checkpointInterval > 0) {
+			return day / Parameters.CheckpointParameters.checkpointInterval > (day - days) / Parameters.CheckpointParameters.checkpointInterval;
+		}
+		return day >= Parameters.SimulationParameters.burnin && day - days < Parameters.SimulationParameters.burnin;
+	}
+
+	private boolean isSnapshotDue(int days) {
+		if (!Parameters.SimulationParameters.repeatSim || Parameters.SimulationParameters.snapshotInterval <= 0) {
+			return false;
+		}
+		int day = Parameters.getDay();
+		return day / Parameters.SimulationParameters.snapshotInterval > (day - days) / Parameters.SimulationParameters.snapshotInterval;
+	}
+
+	// continue from the last snapshot with a fresh random stream, output files are cut back to their length at the snapshot
+	private void restart() {
+		byte[] snapshot_ = snapshot;
+		int snapshotRestarts_ = snapshotRestarts + 1;
+		int restarts_ = restarts;
+		int wastedDays_ = wastedDays + Parameters.getDay();
+		hp.close();
+		Checkpoint.read(snapshot, this);
+		Random.splitStream(restarts_);
+		snapshot = snapshot_;
+		snapshotRestarts = snapshotRestarts_;
+		restarts = restarts_;
+		wastedDays = wastedDays_ - Parameters.getDay();
+		System.out.println("extinction, restarting from day " + Parameters.getDay() + " (restart " + restarts + ")");
+	}
+
 	public void reset() {
+		snapshot = null;
 		Parameters.init();
 		SegmentTree.init();	
 		diversity = 0;
 		hp.reset();		
+		nextReactionEngine = new NextReactionEngine(hp);
 		diversity =0;
 		totalCases=0;
+		firstDay=0;
+		samples=0;
+		sumS=0;
+		sumI=0;
+		sumSquaresI=0;
+		sumR=0;
+		sumDiversity=0;
+		maxI=0;
 	}
 
 
+	// continue from the checkpoint in file, in place of reset()
+	public void restore(File file) {
+		Checkpoint.read(file, this);
+		if (Parameters.CheckpointParameters.restoreStream > 0) {
+			Random.splitStream(Parameters.CheckpointParameters.restoreStream);
+		}
+	}
+
+	// state of the run for checkpoints, with the host population and event engine
+	void write(CheckpointOutput out) throws IOException {
+		out.writeInt(firstDay);
+		out.writeDouble(diversity);
+		out.writeInt(totalCases);
+		out.writeInt(samples);
+		out.writeDouble(sumS);
+		out.writeDouble(sumI);
+		out.writeDouble(sumSquaresI);
+		out.writeDouble(sumR);
+		out.writeDouble(sumDiversity);
+		out.writeInt(maxI);
+		out.writeInt(restarts);
+		out.writeInt(wastedDays);
+		// last snapshot, not held by snapshots themselves
+		out.writeInt(snapshot != null ? snapshot.length : -1);
+		if (snapshot != null) {
+			out.writeBytes(snapshot, 0, snapshot.length);
+			out.writeInt(snapshotRestarts);
+		}
+		hp.write(out);
+		nextReactionEngine.write(out);
+	}
+
+	void read(CheckpointInput in) throws IOException {
+		firstDay = in.readInt();
+		diversity = in.readDouble();
+		totalCases = in.readInt();
+		samples = in.readInt();
+		sumS = in.readDouble();
+		sumI = in.readDouble();
+		sumSquaresI = in.readDouble();
+		sumR = in.readDouble();
+		sumDiversity = in.readDouble();
+		maxI = in.readInt();
+		restarts = in.readInt();
+		wastedDays = in.readInt();
+		int snapshotLength = in.readInt();
+		snapshot = null;
+		if (snapshotLength >= 0) {
+			snapshot = new byte[snapshotLength];
+			in.readBytes(snapshot, 0, snapshotLength);
+			snapshotRestarts = in.readInt();
+		}
+		hp.restore(in);
+		nextReactionEngine = new NextReactionEngine(hp);
+		nextReactionEngine.read(in);
+	}
+
+	public int getRestarts() {
+		return restarts;
+	}
+
+	public int getWastedDays() {
+		return wastedDays;
+	}
+
 	public double getYearlyIncidancePercent() {	
 		return ((double)totalCases)*365.0/(Parameters.SimulationParameters.endDay-Parameters.SimulationParameters.burnin)/getN()*100;
 	}
 
+	// SUMMARY_COLUMNS: yearly incidence and means over the recorded time series, lastDay is below endDay after an extinction without repeatSim
+	public Map<String,Double> getSummary() {
+		Map<String,Double> summary = new HashMap<String,Double>();
+		double meanI = sumI/samples;
+		summary.put("inc", getYearlyIncidancePercent());
+		summary.put("meanS", sumS/samples);
+		summary.put("meanI", meanI);
+		summary.put("sdI", Math.sqrt(Math.max(0, sumSquaresI/samples - meanI*meanI)));
+		summary.put("maxI", (double) maxI);
+		summary.put("meanR", sumR/samples);
+		summary.put("meanDiversity", sumDiversity/samples);
+		summary.put("lastDay", (double) Parameters.getDay());
+		return summary;
+	}
+
 }
\ No newline at end of file
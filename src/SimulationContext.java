@@ -0,0 +1,116 @@
+/* Context of a single simulation run, with its settings, output directory and console */
+/* The simulation keeps its parameters, random number generator, segment tree and id counters in static fields, not in this object, */
+/* so a context loads the simulation classes (and Colt) again in a class loader of its own, and they are loaded and compiled once per run */
+/* Runs in different contexts share nothing but the JVM and can execute concurrently, console output of a run goes to out.console in its directory */
+/* A run that fails (SimulationException or any other exception) throws from run(), its runner reports it and the other runs continue */
+/* A context without a directory discards console output, as do sweep points which also set outputFiles=false */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class SimulationContext {
+
+	// console of the running context of a thread, System.out of the JVM otherwise
+	private static final InheritableThreadLocal<PrintStream> console = new InheritableThreadLocal<PrintStream>();
+	private static PrintStream systemOut = null;
+	private static final PrintStream discard = new PrintStream(new OutputStream() {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	private String[] args;
+	private File directory;
+
+	// run with settings args, writing output to directory (none if null)
+	public SimulationContext(String[] args_, File directory_) {
+		directory=directory_;
+		args=args_;
+		if (directory != null) {
+			args=Arrays.copyOf(args_, args_.length+1);
+			args[args_.length]="outputDirectory="+directory.getPath();
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	// runs the simulation in this context, returns summary of its time series
+	@SuppressWarnings("unchecked")
+	public Map<String,Double> run() throws Exception {
+		routeConsole();
+		PrintStream out = discard;
+		if (directory != null) {
+			directory.mkdirs();
+			out = new PrintStream(new File(directory, "out.console"));
+		}
+		URLClassLoader loader = new URLClassLoader(classPath(), ClassLoader.getSystemClassLoader().getParent());
+		ClassLoader previous = Thread.currentThread().getContextClassLoader();
+		console.set(out);
+		Thread.currentThread().setContextClassLoader(loader);
+		try {
+			Method run = loader.loadClass("Main").getDeclaredMethod("run", String[].class);
+			run.setAccessible(true);
+			return (Map<String,Double>) run.invoke(null, (Object) args);
+		} catch (InvocationTargetException ex) {
+			throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+		} finally {
+			Thread.currentThread().setContextClassLoader(previous);
+			console.remove();
+			if (out != discard) {
+				out.close();
+			}
+			loader.close();
+		}
+	}
+
+	// class path of this JVM, from which each context loads its own classes
+	private static URL[] classPath() throws MalformedURLException {
+		List<URL> urls = new ArrayList<URL>();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			urls.add(new File(entry).toURI().toURL());
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+
+	// System.out is shared by all class loaders, writes are sent to the console of the writing thread's context
+	private static synchronized void routeConsole() {
+		if (systemOut != null) {
+			return;
+		}
+		systemOut = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) throws IOException {
+				target().write(b);
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				target().write(b, off, len);
+			}
+
+			public void flush() throws IOException {
+				target().flush();
+			}
+
+			private PrintStream target() {
+				PrintStream out = console.get();
+				return out != null ? out : systemOut;
+			}
+		}, true));
+	}
+
+}
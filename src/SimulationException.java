@@ -0,0 +1,21 @@
+/* Failure of a simulation run, such as an output, checkpoint or host record file that cannot be used */
+/* Thrown rather than exiting, so that a runner of concurrent runs reports the failed run and the others continue, Main exits for a single run */
+
+public class SimulationException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SimulationException(String message) {
+		super(message);
+	}
+
+	public SimulationException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	// message and cause, as the console and runners report it
+	public String toString() {
+		return getCause() != null ? getMessage() + " (" + getCause() + ")" : getMessage();
+	}
+
+}
@@ -0,0 +1,77 @@
+/* Sobol low-discrepancy sequence on [0,1)^d, for sweep designs */
+/* Direction numbers of Joe and Kuo (2008), points are generated in Gray code order starting after the origin */
+
+public class SobolSequence {
+
+	private static final int BITS = 31;
+
+	// s, a and m_1..m_s of the primitive polynomial of each dimension after the first
+	private static final int[][] DIRECTIONS = {
+		{1, 0, 1},
+		{2, 1, 1, 3},
+		{3, 1, 1, 3, 1},
+		{3, 2, 1, 1, 1},
+		{4, 1, 1, 1, 3, 3},
+		{4, 4, 1, 3, 5, 13},
+		{5, 2, 1, 1, 5, 5, 17},
+		{5, 4, 1, 1, 5, 5, 5},
+		{5, 7, 1, 1, 7, 11, 19},
+		{5, 11, 1, 1, 5, 1, 1},
+		{5, 13, 1, 1, 1, 3, 11},
+		{5, 14, 1, 3, 5, 5, 31},
+		{6, 1, 1, 3, 3, 9, 7, 49},
+		{6, 13, 1, 1, 1, 15, 21, 21},
+		{6, 16, 1, 3, 1, 13, 27, 49},
+		{6, 19, 1, 1, 1, 15, 7, 5},
+		{6, 22, 1, 3, 1, 15, 13, 25},
+		{6, 25, 1, 1, 5, 5, 19, 61},
+		{7, 1, 1, 3, 7, 11, 23, 15, 103},
+		{7, 4, 1, 3, 7, 13, 13, 15, 69}
+	};
+
+	private int[][] v;	// direction numbers per dimension and bit
+	private int[] x;	// current point
+	private int n = 0;	// index of the current point
+
+	public SobolSequence(int dimensions) {
+		v = new int[dimensions][BITS];
+		x = new int[dimensions];
+		for (int k = 0; k < BITS; k++) {
+			v[0][k] = 1 << (BITS-1-k);
+		}
+		for (int j = 1; j < dimensions; j++) {
+			int[] direction = DIRECTIONS[j-1];
+			int s = direction[0];
+			int a = direction[1];
+			for (int k = 0; k < BITS; k++) {
+				if (k < s) {
+					v[j][k] = direction[2+k] << (BITS-1-k);
+					continue;
+				}
+				v[j][k] = v[j][k-s] ^ (v[j][k-s] >>> s);
+				for (int l = 1; l < s; l++) {
+					if (((a >>> (s-1-l)) & 1) == 1) {
+						v[j][k] ^= v[j][k-l];
+					}
+				}
+			}
+		}
+	}
+
+	public static int getMaxDimensions() {
+		return DIRECTIONS.length + 1;
+	}
+
+	// next point of the sequence
+	public double[] next() {
+		int c = Integer.numberOfTrailingZeros(~n);	// bit changed in Gray code
+		n++;
+		double[] point = new double[x.length];
+		for (int j = 0; j < x.length; j++) {
+			x[j] ^= v[j][c];
+			point[j] = x[j] * 0x1.0p-31;
+		}
+		return point;
+	}
+
+}
@@ -0,0 +1,63 @@
+/* Counter-based random stream (generator=SPLITMIX), the n-th number of a stream is the SplitMix64 hash of its key and n */
+/* Streams hold only a key and a counter, so they are cheap to create and to split per thread, deme or replicate */
+
+import java.io.IOException;
+
+public class SplitMixStream extends RandomStream {
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long key;
+	private long counter = 0;
+
+	public SplitMixStream(long seed) {
+		key = mix(seed);
+	}
+
+	// key of a split stream is hashed from the parent key and index
+	public RandomStream split(long index) {
+		return new SplitMixStream(key ^ mix(index + GOLDEN_GAMMA));
+	}
+
+	public long getCounter() {
+		return counter;
+	}
+
+	// move to position counter of the stream, the next number drawn is the one that followed it
+	public void setCounter(long counter_) {
+		counter = counter_;
+	}
+
+	public void write(CheckpointOutput out) throws IOException {
+		super.write(out);
+		out.writeLong(key);
+		out.writeLong(counter);
+	}
+
+	public void read(CheckpointInput in) throws IOException {
+		super.read(in);
+		key = in.readLong();
+		counter = in.readLong();
+	}
+
+	public long nextLong() {
+		counter++;
+		return mix(key + counter*GOLDEN_GAMMA);
+	}
+
+	public void nextDoubles(double[] values, int from, int to) {
+		long c = counter;
+		for (int i = from; i < to; i++) {
+			c++;
+			values[i] = (mix(key + c*GOLDEN_GAMMA) >>> 11) * 0x1.0p-53;
+		}
+		counter = c;
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,3 @@
+/* Design of parameter sweeps, see SweepParameters.sweepDesign */
+
+enum SweepDesign {GRID, LATIN_HYPERCUBE, SOBOL};
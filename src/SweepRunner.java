@@ -0,0 +1,236 @@
+/* Parameter sweep over @Setting fields (sweepFile set) */
+/* sweepFile has a line setting=from,to,step per swept setting, points are a GRID of the steps or LATIN_HYPERCUBE/SOBOL samples between from and to */
+/* Each point runs in its own SimulationContext with seed seed+point and outputFiles=false, on a work-stealing pool */
+/* out.sweep gets one row per point with the swept values and the summary of the run */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import cern.jet.random.engine.MersenneTwister;
+
+public class SweepRunner {
+
+	// swept setting with its range
+	private static class Dimension {
+		String name;
+		boolean integer;	// field takes whole numbers, values are rounded
+		double from;
+		double to;
+		double step;
+
+		Dimension(String name_, boolean integer_, double from_, double to_, double step_) {
+			name=name_;
+			integer=integer_;
+			from=from_;
+			to=to_;
+			step=step_;
+		}
+
+		String format(double value) {
+			return integer ? Long.toString(Math.round(value)) : Double.toString(value);
+		}
+	}
+
+	// runs the sweep of settings args, writes a row per point to out.sweep
+	public static void run(String[] args) {
+		Parameters.s.apply(Parameters.SimulationParameters.class);
+		Parameters.s.apply(Random.class);
+		Random.init();
+		List<Dimension> dimensions = readDimensions(Parameters.SweepParameters.sweepFile);
+		List<double[]> points = design(dimensions);
+		int threads = Parameters.SweepParameters.sweepThreads > 0 ? Parameters.SweepParameters.sweepThreads : Runtime.getRuntime().availableProcessors();
+		int seed = Random.seed != null ? Random.seed : MersenneTwister.DEFAULT_SEED;
+
+		String[][] pointArgs = new String[points.size()][];
+		for (int i = 0; i < points.size(); i++) {
+			pointArgs[i] = Arrays.copyOf(args, args.length+dimensions.size()+2);
+			for (int j = 0; j < dimensions.size(); j++) {
+				pointArgs[i][args.length+j] = dimensions.get(j).name+"="+dimensions.get(j).format(points.get(i)[j]);
+			}
+			pointArgs[i][args.length+dimensions.size()] = "seed="+(seed+i);
+			pointArgs[i][args.length+dimensions.size()+1] = "outputFiles=false";
+		}
+		System.out.printf("sweep of %d points over %d settings\n", points.size(), dimensions.size());
+
+		List<Map<String,Double>> results = new ArrayList<Map<String,Double>>();
+		for (int i = 0; i < points.size(); i++) {
+			results.add(null);
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		pool.invoke(new PointTask(0, points.size(), pointArgs, results));
+		pool.shutdown();
+
+		try {
+			PrintStream sweepStream = new PrintStream(Parameters.openOutput("out.sweep"));
+			sweepStream.print("point\tseed");
+			for (Dimension dimension : dimensions) {
+				sweepStream.print("\t" + dimension.name);
+			}
+			EnsembleRunner.printSummaryHeader(sweepStream);
+			for (int i = 0; i < points.size(); i++) {
+				sweepStream.printf("%d\t%d", i, seed+i);
+				for (int j = 0; j < dimensions.size(); j++) {
+					sweepStream.print("\t" + dimensions.get(j).format(points.get(i)[j]));
+				}
+				EnsembleRunner.printSummary(sweepStream, results.get(i));
+			}
+			sweepStream.close();
+		} catch(IOException ex) {
+			System.out.println("Could not write to file out.sweep!");
+			System.exit(0);
+		}
+	}
+
+	// runs points [from,to), splitting until a single point is left
+	private static class PointTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private int from;
+		private int to;
+		private String[][] pointArgs;
+		private List<Map<String,Double>> results;
+
+		PointTask(int from_, int to_, String[][] pointArgs_, List<Map<String,Double>> results_) {
+			from=from_;
+			to=to_;
+			pointArgs=pointArgs_;
+			results=results_;
+		}
+
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new PointTask(from, middle, pointArgs, results), new PointTask(middle, to, pointArgs, results));
+				return;
+			}
+			try {
+				Map<String,Double> summary = new SimulationContext(pointArgs[from], null).run();
+				results.set(from, summary);
+				System.out.printf("point %d inc: %f\n", from, summary.get("inc"));
+			} catch (Exception ex) {
+				System.out.println("point " + from + " failed: " + ex);
+			}
+		}
+	}
+
+	// swept settings of sweepFile, in file order
+	private static List<Dimension> readDimensions(String sweepFile) {
+		List<Dimension> dimensions = new ArrayList<Dimension>();
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(sweepFile));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] pieces = line.split("=");
+				double[] range = pieces.length == 2 ? Settings.toDoubleArray(pieces[1]) : null;
+				Field field = settingField(pieces[0].trim());
+				if (range == null || range.length < 2 || field == null || !isNumeric(field.getType())) {
+					System.out.println("Could not sweep " + line + ", expected numeric setting=from,to,step");
+					System.exit(0);
+				}
+				boolean integer = field.getType() != double.class && field.getType() != Double.class && field.getType() != float.class && field.getType() != Float.class;
+				dimensions.add(new Dimension(field.getName(), integer, range[0], range[1], range.length > 2 ? range[2] : 0));
+			}
+			reader.close();
+		} catch(IOException ex) {
+			System.out.println("Could not read sweep file " + sweepFile + "!");
+			System.exit(0);
+		}
+		if (Parameters.SweepParameters.sweepDesign == SweepDesign.SOBOL && dimensions.size() > SobolSequence.getMaxDimensions()) {
+			System.out.println("SOBOL sweeps are limited to " + SobolSequence.getMaxDimensions() + " settings");
+			System.exit(0);
+		}
+		return dimensions;
+	}
+
+	// @Setting field of name in the parameter classes
+	private static Field settingField(String name) {
+		for (Class<?> settingClass : Parameters.getSettingClasses()) {
+			Field field = Settings.getSettingField(settingClass, name);
+			if (field != null) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isNumeric(Class<?> type) {
+		return type == int.class || type == Integer.class || type == long.class || type == Long.class || type == short.class || type == Short.class
+				|| type == double.class || type == Double.class || type == float.class || type == Float.class;
+	}
+
+	// values of the swept settings at each point
+	private static List<double[]> design(List<Dimension> dimensions) {
+		List<double[]> points = new ArrayList<double[]>();
+		int d = dimensions.size();
+		int n = Parameters.SweepParameters.sweepPoints;
+		switch (Parameters.SweepParameters.sweepDesign) {
+		case GRID:
+			points.add(new double[d]);
+			for (int j = 0; j < d; j++) {
+				Dimension dimension = dimensions.get(j);
+				int steps = dimension.step > 0 ? (int) Math.floor((dimension.to - dimension.from)/dimension.step + 1e-9) + 1 : 1;
+				List<double[]> product = new ArrayList<double[]>();
+				for (double[] point : points) {
+					for (int k = 0; k < steps; k++) {
+						double[] next = point.clone();
+						next[j] = dimension.from + k*dimension.step;
+						product.add(next);
+					}
+				}
+				points = product;
+			}
+			break;
+		case LATIN_HYPERCUBE:
+			// one point in each of n strata of every setting, strata matched by random permutations
+			for (int i = 0; i < n; i++) {
+				points.add(new double[d]);
+			}
+			int[] strata = new int[n];
+			for (int j = 0; j < d; j++) {
+				for (int i = 0; i < n; i++) {
+					strata[i] = i;
+				}
+				for (int i = n-1; i > 0; i--) {
+					int k = Random.nextInt(0, i);
+					int swap = strata[i];
+					strata[i] = strata[k];
+					strata[k] = swap;
+				}
+				for (int i = 0; i < n; i++) {
+					points.get(i)[j] = scale(dimensions.get(j), (strata[i] + Random.nextDouble())/n);
+				}
+			}
+			break;
+		case SOBOL:
+			SobolSequence sobol = new SobolSequence(d);
+			for (int i = 0; i < n; i++) {
+				double[] u = sobol.next();
+				for (int j = 0; j < d; j++) {
+					u[j] = scale(dimensions.get(j), u[j]);
+				}
+				points.add(u);
+			}
+			break;
+		}
+		return points;
+	}
+
+	private static double scale(Dimension dimension, double u) {
+		return dimension.from + u*(dimension.to - dimension.from);
+	}
+
+}
@@ -0,0 +1,3 @@
+/* Tree output format, see SamplingParameters.treeFormat */
+
+enum TreeFormat {TEXT, COLUMNAR};
@@ -0,0 +1,273 @@
+/* Genealogy recorded as rows of primitive node and edge tables instead of parent pointers (ancestry=TABLES) */
+/* Each segment is a node, its edge links it to its parent node over the interval [locus,locus+1) */
+/* As a node spans a single locus it has at most one edge, so the edge table is stored as a parent column of the node table */
+/* Tables are periodically simplified to the ancestry of tips and current infections */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TreeSequence {
+
+	private static final byte SAMPLE = 1;
+
+	// node table
+	private static int numNodes = 0;
+	private static long[] ids = new long[0];
+	private static float[] births = new float[0];
+	private static float[] hostAges = new float[0];
+	private static long[] wholeGenomeIDs = new long[0];
+	private static int[] segmentNumbers = new int[0];
+	private static short[] loci = new short[0];
+	private static double[] fitnesses = new double[0];
+	private static byte[] flags = new byte[0];
+	private static int[] parents = new int[0];	// edge to parent node, -1 for roots
+
+	public static void init() {
+		numNodes = 0;
+		ids = new long[1024];
+		births = new float[1024];
+		hostAges = new float[1024];
+		wholeGenomeIDs = new long[1024];
+		segmentNumbers = new int[1024];
+		loci = new short[1024];
+		fitnesses = new double[1024];
+		flags = new byte[1024];
+		parents = new int[1024];
+	}
+
+	public static int getNumNodes() {
+		return numNodes;
+	}
+
+	// append a node for segment s with an edge to parent (-1 for none), returns its id
+	public static int addNode(Segment s, int parent) {
+		if (numNodes == births.length) {
+			growNodes(numNodes*2);
+		}
+		ids[numNodes] = s.getId();
+		births[numNodes] = s.getBirth();
+		hostAges[numNodes] = (float) s.getHostAge();
+		wholeGenomeIDs[numNodes] = s.getWholeGenomeID();
+		segmentNumbers[numNodes] = s.getSegmentNumber();
+		loci[numNodes] = s.getLoci();
+		fitnesses[numNodes] = s.getFitness();
+		flags[numNodes] = 0;
+		parents[numNodes] = parent;
+		numNodes++;
+		return numNodes-1;
+	}
+
+	public static void markSample(int node) {
+		flags[node] |= SAMPLE;
+	}
+
+	// keep only nodes on paths from held segments to the roots, bypassing nodes with a single child that carry the child's allele
+	// node ids of held segments are updated, held must include every segment object that is still in use
+	public static void simplify(List<Segment> held) {
+		int[] parentOf = parents;
+
+		// count references, children on paths to held nodes plus one if held directly
+		Segment[] objects = new Segment[numNodes];
+		int[] references = new int[numNodes];
+		for (Segment s : held) {
+			int node = s.getNode();
+			objects[node] = s;
+			if (references[node] > 0) {
+				references[node]++;
+				continue;
+			}
+			references[node] = 1;
+			int parent = parentOf[node];
+			while (parent >= 0) {
+				references[parent]++;
+				if (references[parent] > 1) {
+					break;
+				}
+				parent = parentOf[parent];
+			}
+		}
+
+		// bypass unary nodes, newParent of kept nodes is an old id
+		int[] newParent = new int[numNodes];
+		boolean[] kept = new boolean[numNodes];
+		for (Segment s : held) {
+			int child = s.getNode();
+			while (child >= 0 && !kept[child]) {
+				kept[child] = true;
+				int parent = parentOf[child];
+				while (parent >= 0 && parentOf[parent] >= 0 && references[parent] == 1 && segmentNumbers[parent] == segmentNumbers[child]) {
+					parent = parentOf[parent];
+				}
+				newParent[child] = parent;
+				child = parent;
+			}
+		}
+
+		// compact, nodes keep their order so parents still precede children
+		parents = new int[parentOf.length];
+		int[] newId = new int[numNodes];
+		int numKept = 0;
+		for (int node = 0; node < numNodes; node++) {
+			if (kept[node]) {
+				newId[node] = numKept;
+				ids[numKept] = ids[node];
+				births[numKept] = births[node];
+				hostAges[numKept] = hostAges[node];
+				wholeGenomeIDs[numKept] = wholeGenomeIDs[node];
+				segmentNumbers[numKept] = segmentNumbers[node];
+				loci[numKept] = loci[node];
+				fitnesses[numKept] = fitnesses[node];
+				flags[numKept] = flags[node];
+				parents[numKept] = newParent[node] >= 0 ? newId[newParent[node]] : -1;
+				numKept++;
+			}
+		}
+		for (int node = 0; node < numNodes; node++) {
+			if (objects[node] != null) {
+				objects[node].setNode(newId[node]);
+			}
+		}
+		numNodes = numKept;
+
+		// release space after large reductions
+		if (numNodes < births.length/4 && births.length > 1024) {
+			growNodes(Math.max(1024, numNodes*2));
+		}
+	}
+
+	// time in years between two nodes through their common ancestor, walking both lineages as Segment.commonAncestor does
+	public static double distance(int nodeA, int nodeB) {
+		Set<Integer> ancestry = new HashSet<Integer>();
+		int lineageA = nodeA;
+		int lineageB = nodeB;
+		int commonAnc = -1;
+		while (true) {
+			if (parents[lineageA] >= 0) {
+				lineageA = parents[lineageA];
+				if (!ancestry.add(lineageA)) {
+					commonAnc = lineageA;
+					break;
+				}
+			}
+			if (parents[lineageB] >= 0) {
+				lineageB = parents[lineageB];
+				if (!ancestry.add(lineageB)) {
+					commonAnc = lineageB;
+					break;
+				}
+			}
+		}
+		return (births[nodeA] - births[commonAnc]) + (births[nodeB] - births[commonAnc]);
+	}
+
+	// build a Segment graph of the simplified tables, using held segment objects for their nodes
+	// afterwards SegmentTree can reduce, lay out and print the tree as when ancestry is recorded by parent pointers
+	public static void reconstruct(List<Segment> held) {
+		simplify(held);
+		Segment[] objects = new Segment[numNodes];
+		for (Segment s : held) {
+			objects[s.getNode()] = s;
+		}
+		for (int node = 0; node < numNodes; node++) {
+			if (objects[node] == null) {
+				objects[node] = new Segment(node, ids[node], births[node], hostAges[node], wholeGenomeIDs[node], segmentNumbers[node], loci[node], fitnesses[node]);
+			}
+		}
+		for (int node = 0; node < numNodes; node++) {
+			if (parents[node] >= 0) {
+				objects[node].setParent(objects[parents[node]]);
+			}
+		}
+	}
+
+	// tables in tskit text format, times are years before the end of the run
+	// children born on the same day as their parent are placed a small interval after it, as tskit requires parents to be strictly older
+	public static void printTables() {
+		double endDate = Parameters.getDate();
+		final double[] times = new double[numNodes];
+		List<Integer> edges = new ArrayList<Integer>(); // by child node
+		for (int node = 0; node < numNodes; node++) {
+			times[node] = endDate - births[node];
+			if (parents[node] >= 0) {
+				times[node] = Math.min(times[node], times[parents[node]] - 1E-9);
+				edges.add(node);
+			}
+		}
+
+		// edges sorted by parent time, then parent and child
+		Collections.sort(edges, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(times[parents[a]], times[parents[b]]);
+				if (c == 0) c = Integer.compare(parents[a], parents[b]);
+				if (c == 0) c = Integer.compare(a, b);
+				return c;
+			}
+		});
+
+		try {
+			AsyncOutput nodeStream = Parameters.openOutput("out.nodes");
+			nodeStream.print("id\tis_sample\ttime\n");
+			for (int node = 0; node < numNodes; node++) {
+				nodeStream.print(node).print('\t').print(flags[node] & SAMPLE).print('\t').print(times[node],12).println();
+			}
+			nodeStream.close();
+
+			AsyncOutput edgeStream = Parameters.openOutput("out.edges");
+			edgeStream.print("id\tleft\tright\tparent\tchild\n");
+			for (int e = 0; e < edges.size(); e++) {
+				int child = edges.get(e);
+				edgeStream.print(e).print('\t').print(loci[child]).print('\t').print(loci[child]+1).print('\t').print(parents[child]).print('\t').print(child).println();
+			}
+			edgeStream.close();
+		} catch(IOException ex) {
+			throw new SimulationException("Could not write to file out.nodes or out.edges!", ex);
+		}
+	}
+
+	public static void write(CheckpointOutput out) throws IOException {
+		out.writeInt(numNodes);
+		out.writeLongs(ids, 0, numNodes);
+		out.writeFloats(births, 0, numNodes);
+		out.writeFloats(hostAges, 0, numNodes);
+		out.writeLongs(wholeGenomeIDs, 0, numNodes);
+		out.writeInts(segmentNumbers, 0, numNodes);
+		out.writeShorts(loci, 0, numNodes);
+		out.writeDoubles(fitnesses, 0, numNodes);
+		out.writeBytes(flags, 0, numNodes);
+		out.writeInts(parents, 0, numNodes);
+	}
+
+	// replaces the tables, after init
+	public static void read(CheckpointInput in) throws IOException {
+		numNodes = in.readInt();
+		growNodes(Math.max(births.length, numNodes));
+		in.readLongs(ids, 0, numNodes);
+		in.readFloats(births, 0, numNodes);
+		in.readFloats(hostAges, 0, numNodes);
+		in.readLongs(wholeGenomeIDs, 0, numNodes);
+		in.readInts(segmentNumbers, 0, numNodes);
+		in.readShorts(loci, 0, numNodes);
+		in.readDoubles(fitnesses, 0, numNodes);
+		in.readBytes(flags, 0, numNodes);
+		in.readInts(parents, 0, numNodes);
+	}
+
+	private static void growNodes(int capacity) {
+		ids = Arrays.copyOf(ids, capacity);
+		births = Arrays.copyOf(births, capacity);
+		hostAges = Arrays.copyOf(hostAges, capacity);
+		wholeGenomeIDs = Arrays.copyOf(wholeGenomeIDs, capacity);
+		segmentNumbers = Arrays.copyOf(segmentNumbers, capacity);
+		loci = Arrays.copyOf(loci, capacity);
+		fitnesses = Arrays.copyOf(fitnesses, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		parents = Arrays.copyOf(parents, capacity);
+	}
+
+}
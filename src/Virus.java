@@ -1,5 +1,10 @@
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /* Virus infection that has a phenotype */
 
@@ -9,7 +14,19 @@ public class Virus {
 	private float hostAge;		// age of host in years at time of infection
 	//BitSet segmentIndices = new BitSet(); // Virus segment indices in bit form 	
 	BitSet immunogenicSegmentIndices =null; // Virus segments which are immunogenic in bit form
-	Segment[] segments = null; // List of virus segments
+	long[] immunogenicSegmentMask = null; // immunogenicSegmentIndices as words, filled on first use
+	private double fitness;	// fixed for EQUAL_FITNESS and SEGMENT_FITNESS
+	Segment[] segments = null; // List of virus segments, null until materialized under compressed ancestry
+	private int wholeGenomeID;	// id given to segments of this virus
+
+	// compressed ancestry - copies link to their parent virus and segments are created only when needed
+	private Virus parentVirus = null;	// nearest kept ancestor, null once segments are materialized
+	private int children = 0;			// linked viruses that are carried by a host or have children themselves
+	private boolean released = false;	// no longer carried by a host
+
+	// position in GenotypeIndex while carried by a host
+	private GenotypeIndex.Genotype genotype = null;	// null if not indexed
+	private int genotypeSlot = 0;		// among infections of its genotype
 	//private long virusNumber = 0;
 	//static long lastVirusNumber = -1;
 
@@ -19,25 +36,67 @@ public class Virus {
 		hostAge=hostAge_;
 		birth = Parameters.getDate();
 		immunogenicSegmentIndices=(BitSet) pV.immunogenicSegmentIndices;
-		segments = new Segment[Parameters.SegmentParameters.nSegments];
-		for (int i=0;i<segments.length;i++) {
-			segments[i]=new Segment(pV.segments[i],hostAge_,this.hashCode());
+		immunogenicSegmentMask=pV.immunogenicSegmentMask;
+		fitness=pV.fitness;
+		wholeGenomeID=this.hashCode();
+		if (Parameters.SamplingParameters.ancestry==AncestryType.COMPRESSED) {
+			link(pV);
+		}
+		else {
+			segments = new Segment[Parameters.SegmentParameters.nSegments];
+			for (int i=0;i<segments.length;i++) {
+				segments[i]=new Segment(pV.getSegments()[i],hostAge_,wholeGenomeID);
+			}
 		}
 		//virusNumber=lastVirusNumber+1;
 		//lastVirusNumber+=1;
 	}
 
+	// transient copy of pV standing for a reassortant that took all its segments from pV, never carried by a host
+	private Virus(Virus pV) {
+		hostAge=pV.hostAge;
+		birth = Parameters.getDate();
+		immunogenicSegmentIndices=pV.immunogenicSegmentIndices;
+		immunogenicSegmentMask=pV.immunogenicSegmentMask;
+		fitness=pV.fitness;
+		wholeGenomeID=this.hashCode();
+		released=true;
+		parentVirus=pV;
+	}
+
+	// candidate reassortant of pV, see candidate()
+	private Virus(Virus pV, Virus[] sources) {
+		hostAge=pV.hostAge;
+		birth = Parameters.getDate();
+		immunogenicSegmentIndices = new BitSet();
+		wholeGenomeID=this.hashCode();
+		released=true;
+		Segment[] candidateSegments = new Segment[sources.length];
+		for (int i=0;i<sources.length;i++) {
+			candidateSegments[i]=sources[i].getAncestralSegments()[i];
+			if (candidateSegments[i].getLoci()<Parameters.SegmentParameters.nImmunogenicSegments)
+				immunogenicSegmentIndices.set(candidateSegments[i].getImmuneIndex());
+		}
+		fitness=computeFitness(candidateSegments);
+	}
+
 	// generate new virus from parent viral segments (for reassortment or initial virus construction)
 	public Virus(Segment[] pSegments, float hostAge_) {
 		hostAge=hostAge_;
 		birth = Parameters.getDate();
 		immunogenicSegmentIndices = new BitSet();
+		wholeGenomeID=this.hashCode();
 		segments = new Segment[Parameters.SegmentParameters.nSegments];
 		for (int i=0;i<pSegments.length;i++) {
 			if (pSegments[i].getLoci()<Parameters.SegmentParameters.nImmunogenicSegments)
-				immunogenicSegmentIndices.set(pSegments[i].getSegmentNumber());
-			segments[i]=new Segment(pSegments[i],hostAge_,pSegments[i].getSegmentNumber(),this.hashCode());
+				immunogenicSegmentIndices.set(pSegments[i].getImmuneIndex());
+			segments[i]=new Segment(pSegments[i],hostAge_,pSegments[i].getSegmentNumber(),wholeGenomeID);
 		}		
+		fitness=computeFitness();
+	}
+
+	// restored from a checkpoint, see read()
+	private Virus() {
 	}
 
 	// METHODS
@@ -54,6 +113,7 @@ public class Virus {
 
 		String returnValue = "";
 
+		Segment[] segments = getSegments();
 		for (int i=0; i<segments.length-1;i++) {
 			returnValue+=(segments[i].toString()+seperator);
 		}
@@ -63,29 +123,142 @@ public class Virus {
 	}
 
 	public Segment getRandomSegment() {		
-		return segments[Random.nextInt(0, segments.length-1)];
+		return getSegments()[Random.nextInt(0, Parameters.SegmentParameters.nSegments-1)];
 	}
 
 	public Segment[] getSegments() {		
+		if (segments==null) {
+			materialize();
+		}
 		return segments;
 	}
 
+	// segments this virus will descend from, its own or under compressed ancestry those of the nearest ancestor with segments
+	public Segment[] getAncestralSegments() {
+		Virus v = this;
+		while (v.segments==null) {
+			v=v.parentVirus;
+		}
+		return v.segments;
+	}
+
+	// virus is no longer carried by a host
+	public void release() {
+		released=true;
+		// viruses that are released and childless no longer count as children of their parent
+		Virus v = this;
+		while (v.segments==null && v.released && v.children==0) {
+			v.parentVirus.children--;
+			v=v.parentVirus;
+		}
+	}
+
+	// link a copy to pV, or to the nearest ancestor that is kept if pV is not
+	private void link(Virus pV) {
+		Virus p = pV;
+		while (p.segments==null && p.released && p.children==0) {
+			p=p.parentVirus;
+		}
+		parentVirus=p;
+		p.children++;
+		if (p.segments==null) {
+			p.splice();
+		}
+	}
+
+	// bypass released ancestors whose only child is this virus
+	private void splice() {
+		int counted = (!released || children>0) ? 1 : 0;
+		while (parentVirus.segments==null && parentVirus.released && parentVirus.children==counted) {
+			parentVirus=parentVirus.parentVirus;
+		}
+	}
+
+	// create segments for this virus and for kept ancestors back to the nearest virus with segments
+	private void materialize() {
+		List<Virus> chain = new ArrayList<Virus>();
+		Virus v = this;
+		while (v.segments==null) {
+			v.splice();
+			chain.add(v);
+			v=v.parentVirus;
+		}
+		for (int j=chain.size()-1;j>=0;j--) {
+			v=chain.get(j);
+			Segment[] pSegments = v.parentVirus.segments;
+			Segment[] newSegments = new Segment[pSegments.length];
+			for (int i=0;i<pSegments.length;i++) {
+				newSegments[i]=new Segment(pSegments[i],v.wholeGenomeID,v.birth,v.hostAge);
+			}
+			v.segments=newSegments;
+			v.parentVirus=null;
+		}
+	}
+
+	public GenotypeIndex.Genotype getGenotype() {
+		return genotype;
+	}
+
+	public int getGenotypeSlot() {
+		return genotypeSlot;
+	}
+
+	public void setGenotype(GenotypeIndex.Genotype genotype_, int genotypeSlot_) {
+		genotype = genotype_;
+		genotypeSlot = genotypeSlot_;
+	}
+
 	public BitSet getImmunogenicSegmentIndices() {
 		return immunogenicSegmentIndices;
 	}
 
+	public long[] getImmunogenicSegmentMask() {
+		if (immunogenicSegmentMask==null) {
+			immunogenicSegmentMask=immunogenicSegmentIndices.toLongArray();
+		}
+		return immunogenicSegmentMask;
+	}
+
 	public Virus reassort(List<Virus> coinfectingViruses) { 
-		Segment[] reassortedSegments = new Segment[Parameters.SegmentParameters.nSegments];
-		for (int i=0; i<segments.length;i++) {
-			if (Random.nextBoolean(Parameters.MutationAndReassortmentParameters.rho))  
-				reassortedSegments[i]=coinfectingViruses.get(Random.nextInt(0, coinfectingViruses.size()-1)).getSegments()[i];				
+		return reassort(reassortmentSources(coinfectingViruses, Random.getStream()));
+	}
+
+	// virus each segment of a reassortant is taken from, drawn from rng
+	public Virus[] reassortmentSources(List<Virus> coinfectingViruses, RandomStream rng) {
+		Virus[] sources = new Virus[Parameters.SegmentParameters.nSegments];
+		for (int i=0; i<sources.length;i++) {
+			if (rng.nextDouble() < Parameters.MutationAndReassortmentParameters.rho)  
+				sources[i]=coinfectingViruses.get(rng.nextInt(0, coinfectingViruses.size()-1));				
 			else
-				reassortedSegments[i]=segments[i];
+				sources[i]=this;
+		}
+		return sources;
+	}
+
+	// stand-in for reassort(sources), with the immunogenic segments and fitness of the reassortant but no segments of its own
+	// used to evaluate transmission before the reassortant is created, reads but does not change the sources
+	public Virus candidate(Virus[] sources) {
+		return new Virus(this, sources);
+	}
+
+	// reassortant taking segment i from sources[i]
+	public Virus reassort(Virus[] sources) {
+		boolean reassorted = false;
+		for (int i=0; i<sources.length;i++) {
+			reassorted |= sources[i]!=this;
+		}
+		if (!reassorted && Parameters.SamplingParameters.ancestry==AncestryType.COMPRESSED) {
+			return new Virus(this);
+		}
+		Segment[] reassortedSegments = new Segment[sources.length];
+		for (int i=0; i<sources.length;i++) {
+			reassortedSegments[i]=sources[i].getSegments()[i];
 		}
 		return new Virus(reassortedSegments,hostAge);
 	}
 
 	public Virus mutate() {			
+		Segment[] segments = getSegments();
 		Segment[] mutatedSegments = new Segment[Parameters.SegmentParameters.nSegments];
 		for (int i=0;i<Parameters.SegmentParameters.nSegments;i++) {
 			mutatedSegments[i]=new Segment(segments[i],hostAge, this.hashCode());
@@ -96,6 +269,7 @@ public class Virus {
 	}
 
 	public Virus introduce() {			
+		Segment[] segments = getSegments();
 		Segment[] postIntroSegments = new Segment[Parameters.SegmentParameters.nSegments];		
 
 		int randomSite = Random.nextInt(0, segments.length-1);
@@ -106,7 +280,7 @@ public class Virus {
 			else {
 				List<Virus> rootViruses = Parameters.getInitialViruses();
 				int randomSourceVirusIndex = Random.nextInt(0,rootViruses.size()-1);
-				postIntroSegments[i]=(new Segment(rootViruses.get(randomSourceVirusIndex).segments[i], hostAge, this.hashCode())).mutate();
+				postIntroSegments[i]=(new Segment(rootViruses.get(randomSourceVirusIndex).getSegments()[i], hostAge, this.hashCode())).mutate();
 			}
 		}	
 
@@ -114,6 +288,7 @@ public class Virus {
 	}
 
 	public Virus reintroduce() {			
+		Segment[] segments = getSegments();
 		Segment[] postIntroSegments = new Segment[Parameters.SegmentParameters.nSegments];		
 
 		int randomSite = Random.nextInt(0, segments.length-1);
@@ -124,7 +299,7 @@ public class Virus {
 			else {
 				List<Virus> rootViruses = Parameters.getInitialViruses();
 				int randomSourceVirusIndex = Random.nextInt(0,rootViruses.size()-1);
-				postIntroSegments[i]=(new Segment(rootViruses.get(randomSourceVirusIndex).segments[i], hostAge, this.hashCode()));
+				postIntroSegments[i]=(new Segment(rootViruses.get(randomSourceVirusIndex).getSegments()[i], hostAge, this.hashCode()));
 			}
 		}	
 
@@ -132,6 +307,19 @@ public class Virus {
 	}
 
 	public double getFitness() {		
+		switch (Parameters.VirusParameters.virusFitnessType) {
+		case INC_SINCE_CREATION :
+			return computeFitness();
+		default:
+			return fitness;
+		}
+	}
+
+	private double computeFitness() {		
+		return computeFitness(segments);
+	}
+
+	private double computeFitness(Segment[] segments) {		
 		switch (Parameters.VirusParameters.virusFitnessType) {
 		case EQUAL_FITNESS :
 			return 1;
@@ -148,5 +336,62 @@ public class Virus {
 		}
 	}
 
+	// viruses and their linked ancestors, each once and parents before children
+	static List<Virus> withAncestors(List<Virus> viruses) {
+		List<Virus> returnValue = new ArrayList<Virus>();
+		Set<Virus> seen = Collections.newSetFromMap(new IdentityHashMap<Virus,Boolean>());
+		List<Virus> lineage = new ArrayList<Virus>();
+		for (Virus v : viruses) {
+			while (v != null && seen.add(v)) {
+				lineage.add(v);
+				v = v.parentVirus;
+			}
+			for (int i = lineage.size()-1; i >= 0; i--) {
+				returnValue.add(lineage.get(i));
+			}
+			lineage.clear();
+		}
+		return returnValue;
+	}
+
+	// checkpoint record, the parent virus and segments must have been written before
+	void write(CheckpointOutput out) throws IOException {
+		out.writeRef(parentVirus);
+		out.writeFloat(birth);
+		out.writeFloat(hostAge);
+		out.writeSharedBitSet(immunogenicSegmentIndices);
+		out.writeDouble(fitness);
+		out.writeInt(wholeGenomeID);
+		out.writeInt(segments != null ? segments.length : -1);
+		if (segments != null) {
+			for (Segment s : segments) {
+				out.writeRef(s);
+			}
+		}
+		out.writeInt(children);
+		out.writeBoolean(released);
+		out.register(this);
+	}
+
+	static Virus read(CheckpointInput in) throws IOException {
+		Virus v = new Virus();
+		v.parentVirus = (Virus) in.readRef();
+		v.birth = in.readFloat();
+		v.hostAge = in.readFloat();
+		v.immunogenicSegmentIndices = in.readSharedBitSet();
+		v.fitness = in.readDouble();
+		v.wholeGenomeID = in.readInt();
+		int numSegments = in.readInt();
+		if (numSegments >= 0) {
+			v.segments = new Segment[numSegments];
+			for (int i = 0; i < numSegments; i++) {
+				v.segments[i] = (Segment) in.readRef();
+			}
+		}
+		v.children = in.readInt();
+		v.released = in.readBoolean();
+		in.register(v);
+		return v;
+	}
 
 }
\ No newline at end of file